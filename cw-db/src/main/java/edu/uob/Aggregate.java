@@ -0,0 +1,47 @@
+package edu.uob;
+
+/**
+ * 聚合函数
+ * One aggregate in a SELECT list: COUNT(*), or COUNT / SUM / AVG / MIN / MAX of a column. The parser
+ * keeps SELECT items as text, so an aggregate is written as e.g. "SUM(mark)" and read back here.
+ */
+public class Aggregate {
+    public enum Function { COUNT, SUM, AVG, MIN, MAX }
+
+    private final Function function;
+    private final String column;    // null 表示 COUNT(*)
+
+    public Aggregate(Function function, String column) {
+        this.function = function;
+        this.column = column;
+    }
+
+    /** The aggregate a SELECT item stands for, or null if the item is a plain column. */
+    public static Aggregate parse(String item) {
+        int open = item.indexOf('(');
+        if (open <= 0 || !item.endsWith(")")) {
+            return null;
+        }
+        Function function;
+        try {
+            function = Function.valueOf(item.substring(0, open));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        String column = item.substring(open + 1, item.length() - 1);
+        return new Aggregate(function, column.equals("*") ? null : column);
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    @Override
+    public String toString() {
+        return function + "(" + (column == null ? "*" : column) + ")";
+    }
+}
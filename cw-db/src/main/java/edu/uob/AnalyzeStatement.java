@@ -0,0 +1,13 @@
+package edu.uob;
+
+public class AnalyzeStatement implements edu.uob.SQLStatement {
+    private final String tableName;
+
+    public AnalyzeStatement(String tableName) {
+        this.tableName = tableName;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+}
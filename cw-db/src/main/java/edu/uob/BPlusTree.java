@@ -0,0 +1,299 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * B+ 树
+ * Ordered multimap from {@link Key} to row id. Entries are (key, row id) pairs kept sorted in linked
+ * leaves, so a range is read by descending once and then walking the leaf chain: O(log n + k).
+ *
+ * <p>Deletes do not rebalance; a leaf may run empty and stay in the chain until the next bulk load
+ * (a rebuild or reload), which is how many database B-trees treat deletes as well.
+ */
+public class BPlusTree {
+    private static final int ORDER = 64;
+
+    /**
+     * Sort key of an indexed value. Plain numbers come first in numeric order, then text in
+     * case-insensitive order, then values that parse as numbers but are not written as plain digits
+     * ("NaN", "5d", " 7"...), which WHERE may compare either way.
+     */
+    public static final class Key implements Comparable<Key> {
+        public static final byte NUMBER = 0;
+        public static final byte TEXT = 1;
+        public static final byte OTHER = 2;
+
+        private final byte kind;
+        private final double number;
+        private final String text;
+        private final int bound; // -1 / +1 for the sentinels below / above every key of a kind
+
+        private Key(byte kind, double number, String text, int bound) {
+            this.kind = kind;
+            this.number = number;
+            this.text = text;
+            this.bound = bound;
+        }
+
+        /** Key of a stored value (surrounding quotes already removed). */
+        public static Key of(String value) {
+            Double number = Value.parseNumber(value);
+            if (number == null) {
+                return new Key(TEXT, 0, value, 0);
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if ((c < '0' || c > '9') && c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+                    return new Key(OTHER, 0, value, 0);
+                }
+            }
+            return new Key(NUMBER, number, value, 0);
+        }
+
+        /** The value as text, compared case-insensitively like a non-numeric WHERE comparison does. */
+        public static Key text(String value) {
+            return new Key(TEXT, 0, value, 0);
+        }
+
+        public static Key lowest(byte kind) {
+            return new Key(kind, 0, "", -1);
+        }
+
+        public static Key highest(byte kind) {
+            return new Key(kind, 0, "", 1);
+        }
+
+        public byte getKind() {
+            return kind;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            if (kind != other.kind) return Byte.compare(kind, other.kind);
+            if (bound != 0 || other.bound != 0) return Integer.compare(bound, other.bound);
+            if (kind == NUMBER) return Double.compare(number, other.number);
+            int c = text.compareToIgnoreCase(other.text);
+            return c != 0 || kind == TEXT ? c : text.compareTo(other.text);
+        }
+    }
+
+    private abstract static class Node {
+        Key[] keys = new Key[ORDER + 1];
+        long[] ids = new long[ORDER + 1];
+        int size;
+    }
+
+    private static final class Leaf extends Node {
+        Leaf next;
+    }
+
+    // keys[i] / ids[i] is the first entry of children[i + 1]
+    private static final class Inner extends Node {
+        Node[] children = new Node[ORDER + 2];
+    }
+
+    private Node root = new Leaf();
+    private int count = 0;
+
+    public int size() {
+        return count;
+    }
+
+    private static int compare(Key k1, long id1, Key k2, long id2) {
+        int c = k1.compareTo(k2);
+        return c != 0 ? c : Long.compare(id1, id2);
+    }
+
+    // Modification ==================================================================================
+
+    public void insert(Key key, long id) {
+        Node split = insert(root, key, id);
+        if (split != null) {
+            Inner newRoot = new Inner();
+            newRoot.children[0] = root;
+            newRoot.children[1] = split;
+            newRoot.keys[0] = firstKey(split);
+            newRoot.ids[0] = firstId(split);
+            newRoot.size = 1;
+            root = newRoot;
+        }
+        count++;
+    }
+
+    // Returns the new right sibling if the node had to split
+    private Node insert(Node node, Key key, long id) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int pos = 0;
+            while (pos < leaf.size && compare(leaf.keys[pos], leaf.ids[pos], key, id) < 0) pos++;
+            shiftRight(leaf, pos);
+            leaf.keys[pos] = key;
+            leaf.ids[pos] = id;
+            leaf.size++;
+            return leaf.size > ORDER ? splitLeaf(leaf) : null;
+        }
+        Inner inner = (Inner) node;
+        int child = childFor(inner, key, id);
+        Node split = insert(inner.children[child], key, id);
+        if (split == null) return null;
+        shiftRight(inner, child);
+        System.arraycopy(inner.children, child + 1, inner.children, child + 2, inner.size - child);
+        inner.keys[child] = firstKey(split);
+        inner.ids[child] = firstId(split);
+        inner.children[child + 1] = split;
+        inner.size++;
+        return inner.size > ORDER ? splitInner(inner) : null;
+    }
+
+    /** Remove one (key, id) entry; returns false if it was not there. */
+    public boolean remove(Key key, long id) {
+        Node node = root;
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[childFor((Inner) node, key, id)];
+        }
+        Leaf leaf = (Leaf) node;
+        for (int pos = 0; pos < leaf.size; pos++) {
+            if (compare(leaf.keys[pos], leaf.ids[pos], key, id) == 0) {
+                System.arraycopy(leaf.keys, pos + 1, leaf.keys, pos, leaf.size - pos - 1);
+                System.arraycopy(leaf.ids, pos + 1, leaf.ids, pos, leaf.size - pos - 1);
+                leaf.size--;
+                leaf.keys[leaf.size] = null;
+                count--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int childFor(Inner inner, Key key, long id) {
+        int child = 0;
+        while (child < inner.size && compare(key, id, inner.keys[child], inner.ids[child]) >= 0) child++;
+        return child;
+    }
+
+    private static void shiftRight(Node node, int pos) {
+        System.arraycopy(node.keys, pos, node.keys, pos + 1, node.size - pos);
+        System.arraycopy(node.ids, pos, node.ids, pos + 1, node.size - pos);
+    }
+
+    private static Leaf splitLeaf(Leaf leaf) {
+        Leaf right = new Leaf();
+        int half = leaf.size / 2;
+        right.size = leaf.size - half;
+        System.arraycopy(leaf.keys, half, right.keys, 0, right.size);
+        System.arraycopy(leaf.ids, half, right.ids, 0, right.size);
+        Arrays.fill(leaf.keys, half, leaf.size, null);
+        leaf.size = half;
+        right.next = leaf.next;
+        leaf.next = right;
+        return right;
+    }
+
+    // The middle separator moves up; the caller reads it back as the right node's first entry
+    private static Inner splitInner(Inner inner) {
+        Inner right = new Inner();
+        int half = inner.size / 2;
+        right.size = inner.size - half - 1;
+        System.arraycopy(inner.keys, half + 1, right.keys, 0, right.size);
+        System.arraycopy(inner.ids, half + 1, right.ids, 0, right.size);
+        System.arraycopy(inner.children, half + 1, right.children, 0, right.size + 1);
+        Arrays.fill(inner.keys, half, inner.size, null);
+        Arrays.fill(inner.children, half + 1, inner.size + 1, null);
+        inner.size = half;
+        return right;
+    }
+
+    private static Key firstKey(Node node) {
+        while (node instanceof Inner) node = ((Inner) node).children[0];
+        return node.keys[0] != null ? node.keys[0] : Key.lowest(Key.NUMBER);
+    }
+
+    private static long firstId(Node node) {
+        while (node instanceof Inner) node = ((Inner) node).children[0];
+        return node.ids[0];
+    }
+
+    // Building ======================================================================================
+
+    /** Replace the contents with entries that are already in key order, packing every node full. */
+    public void bulkLoad(List<Key> keys, List<Long> ids) {
+        List<Node> level = new ArrayList<>();
+        Leaf previous = null;
+        for (int start = 0; start < keys.size() || level.isEmpty(); start += ORDER) {
+            Leaf leaf = new Leaf();
+            leaf.size = Math.min(ORDER, keys.size() - start);
+            for (int i = 0; i < leaf.size; i++) {
+                leaf.keys[i] = keys.get(start + i);
+                leaf.ids[i] = ids.get(start + i);
+            }
+            if (previous != null) previous.next = leaf;
+            previous = leaf;
+            level.add(leaf);
+        }
+        while (level.size() > 1) {
+            List<Node> parents = new ArrayList<>();
+            for (int start = 0; start < level.size(); start += ORDER + 1) {
+                Inner inner = new Inner();
+                int children = Math.min(ORDER + 1, level.size() - start);
+                for (int i = 0; i < children; i++) {
+                    inner.children[i] = level.get(start + i);
+                    if (i > 0) {
+                        inner.keys[i - 1] = firstKey(inner.children[i]);
+                        inner.ids[i - 1] = firstId(inner.children[i]);
+                    }
+                }
+                inner.size = children - 1;
+                parents.add(inner);
+            }
+            level = parents;
+        }
+        root = level.get(0);
+        count = keys.size();
+    }
+
+    // Reading =======================================================================================
+
+    /**
+     * Row ids of the entries whose key lies between {@code from} and {@code to}, in key order. Only keys
+     * are compared here, so every row id of a boundary key is included (or excluded) together.
+     */
+    public void scan(Key from, boolean fromInclusive, Key to, boolean toInclusive, List<Long> out) {
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            int child = 0;
+            while (child < inner.size && inner.keys[child].compareTo(from) < 0) child++;
+            node = inner.children[child];
+        }
+        for (Leaf leaf = (Leaf) node; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.size; i++) {
+                int lower = leaf.keys[i].compareTo(from);
+                if (lower < 0 || (lower == 0 && !fromInclusive)) continue;
+                int upper = leaf.keys[i].compareTo(to);
+                if (upper > 0 || (upper == 0 && !toInclusive)) return;
+                out.add(leaf.ids[i]);
+            }
+        }
+    }
+
+    /** Visit every entry in key order. */
+    public void forEach(EntryVisitor visitor) {
+        Node node = root;
+        while (node instanceof Inner) node = ((Inner) node).children[0];
+        for (Leaf leaf = (Leaf) node; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.size; i++) {
+                visitor.visit(leaf.keys[i], leaf.ids[i]);
+            }
+        }
+    }
+
+    public interface EntryVisitor {
+        void visit(Key key, long id);
+    }
+}
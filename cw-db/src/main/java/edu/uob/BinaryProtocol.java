@@ -0,0 +1,310 @@
+package edu.uob;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 二进制协议
+ * The binary wire protocol. A client asks for it by opening the connection with {@link #MAGIC} and
+ * {@link #VERSION} (no text command starts with a zero byte); the server answers with the same two bytes.
+ * From then on everything travels in frames: a 4-byte payload length, a frame type byte and the payload.
+ *
+ * <p>The client sends one {@link #COMMAND} frame per statement: a 4-byte tag of its choosing and the
+ * statement. It need not wait for an answer before sending the next one; statements run in the order
+ * they were sent. The server answers a SELECT or JOIN with a {@link #HEADER} frame (column count, then
+ * each column's name and type), {@link #ROWS} frames of up to {@link #CHUNK_ROWS} rows, and a
+ * {@link #DONE} frame; any other statement with just the DONE frame. DONE carries the command's tag, a
+ * status byte and the message that follows [OK] or [ERROR] in the text protocol. Strings are a 4-byte
+ * length and UTF-8 bytes; every value starts with a tag byte.
+ */
+public class BinaryProtocol {
+    public static final byte MAGIC = 0;
+    public static final byte VERSION = 2;
+
+    // 帧类型 frame types
+    public static final byte COMMAND = 'Q';
+    public static final byte HEADER = 'H';
+    public static final byte ROWS = 'R';
+    public static final byte DONE = 'D';
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    // 值标签 a value is sent typed only when formatting it gives back exactly the stored text
+    public static final byte NULL = 0;
+    public static final byte BOOLEAN = 1;
+    public static final byte LONG = 2;
+    public static final byte DOUBLE = 3;
+    public static final byte TEXT = 4;
+
+    static final int MAX_FRAME_BYTES = 16 << 20;
+    static final int CHUNK_ROWS = 256;
+    private static final int CHUNK_BYTES = 32 << 10;
+
+    /** A frame as read off the connection. */
+    public static final class Frame {
+        private final byte type;
+        private final byte[] payload;
+
+        Frame(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    public static void writeFrame(DataOutputStream out, byte type, byte[] payload) throws IOException {
+        out.writeInt(payload.length);
+        out.writeByte(type);
+        out.write(payload);
+    }
+
+    /** Read the next frame, or return null if the connection ended before one started. */
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Frame of " + length + " bytes is too large");
+        }
+        byte type = in.readByte();
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, payload);
+    }
+
+    /** Send the two bytes that open a binary connection, and check the server's answer. */
+    public static void handshake(DataOutputStream out, DataInputStream in) throws IOException {
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.flush();
+        if (in.readByte() != MAGIC || in.readByte() != VERSION) {
+            throw new IOException("Server does not speak binary protocol version " + VERSION);
+        }
+    }
+
+    public static void writeCommand(DataOutputStream out, int tag, String command) throws IOException {
+        byte[] text = command.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(4 + text.length);
+        out.writeByte(COMMAND);
+        out.writeInt(tag);
+        out.write(text);
+    }
+
+    /** The tag of a COMMAND frame's payload. */
+    static int commandTag(byte[] payload) throws IOException {
+        if (payload.length < 4) {
+            throw new IOException("Command frame without a tag");
+        }
+        return ((payload[0] & 0xff) << 24) | ((payload[1] & 0xff) << 16) | ((payload[2] & 0xff) << 8) | (payload[3] & 0xff);
+    }
+
+    /** The statement of a COMMAND frame's payload. */
+    static String commandText(byte[] payload) {
+        return new String(payload, 4, payload.length - 4, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Run a query and send its result. The header goes out only after the plan has been asked for its
+     * first row, so a query that fails before producing anything is answered with the DONE frame alone,
+     * as in the text protocol; a later failure propagates after the rows sent so far.
+     */
+    static void writeResult(DataOutputStream out, int tag, OutputOperator result) throws IOException {
+        try (Operator plan = result.getChild()) {
+            plan.open();
+            List<String> row = plan.next();
+            List<String> names = result.getColumnNames();
+            List<String> types = result.getColumnTypes();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(bytes);
+            payload.writeInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                writeString(payload, names.get(i));
+                writeString(payload, wireType(types.get(i)));
+            }
+            writeFrame(out, HEADER, bytes.toByteArray());
+            if (row == null) {
+                String empty = result.getEmptyMessage();
+                writeStatus(out, tag, STATUS_OK, empty == null ? "" : empty);
+                return;
+            }
+            int count = 0;
+            bytes.reset();
+            for (; row != null; row = plan.next()) {
+                for (String value : row) {
+                    writeValue(payload, value);
+                }
+                if (++count == CHUNK_ROWS || bytes.size() >= CHUNK_BYTES) {
+                    writeRows(out, count, bytes);
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                writeRows(out, count, bytes);
+            }
+            writeStatus(out, tag, STATUS_OK, "");
+        }
+    }
+
+    private static void writeRows(DataOutputStream out, int count, ByteArrayOutputStream rows) throws IOException {
+        out.writeInt(4 + rows.size());
+        out.writeByte(ROWS);
+        out.writeInt(count);
+        rows.writeTo(out);
+        rows.reset();
+    }
+
+    /** Answer a statement with a DONE frame, given its response as the text protocol writes it. */
+    static void writeDone(DataOutputStream out, int tag, String response) throws IOException {
+        if (response.startsWith("[ERROR]")) {
+            writeStatus(out, tag, STATUS_ERROR, response.substring("[ERROR]".length()).trim());
+        } else {
+            writeStatus(out, tag, STATUS_OK, response.startsWith("[OK]") ? response.substring("[OK]".length()).trim() : response);
+        }
+    }
+
+    private static void writeStatus(DataOutputStream out, int tag, byte status, String message) throws IOException {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(4 + 1 + 4 + text.length);
+        out.writeByte(DONE);
+        out.writeInt(tag);
+        out.writeByte(status);
+        out.writeInt(text.length);
+        out.write(text);
+    }
+
+    /** Read one command's frames, up to and including its DONE. */
+    public static QueryResult readResult(DataInputStream in) throws IOException {
+        List<String> names = null;
+        List<String> types = null;
+        List<List<Object>> rows = new ArrayList<>();
+        while (true) {
+            Frame frame = readFrame(in);
+            if (frame == null) {
+                throw new IOException("Server disconnected (end-of-stream)");
+            }
+            DataInputStream payload = new DataInputStream(new ByteArrayInputStream(frame.getPayload()));
+            if (frame.getType() == HEADER) {
+                int columns = payload.readInt();
+                names = new ArrayList<>(columns);
+                types = new ArrayList<>(columns);
+                for (int i = 0; i < columns; i++) {
+                    names.add(readString(payload));
+                    types.add(readString(payload));
+                }
+            } else if (frame.getType() == ROWS) {
+                int count = payload.readInt();
+                int columns = names == null ? 0 : names.size();
+                for (int r = 0; r < count; r++) {
+                    Object[] row = new Object[columns];
+                    for (int i = 0; i < columns; i++) {
+                        row[i] = readValue(payload);
+                    }
+                    rows.add(Arrays.asList(row));
+                }
+            } else if (frame.getType() == DONE) {
+                int tag = payload.readInt();
+                boolean ok = payload.readByte() == STATUS_OK;
+                return new QueryResult(tag, ok, readString(payload), names, types, names == null ? null : rows);
+            } else {
+                throw new IOException("Unexpected frame type " + frame.getType());
+            }
+        }
+    }
+
+    static void writeValue(DataOutputStream out, String value) throws IOException {
+        if (value == null || value.equals("NULL")) {
+            out.writeByte(NULL);
+        } else if (value.equals("TRUE") || value.equals("FALSE")) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean(value.equals("TRUE"));
+        } else {
+            Value parsed = Value.of(value);
+            if (parsed.getKind() == Value.Kind.LONG && Long.toString(parsed.getLong()).equals(value)) {
+                out.writeByte(LONG);
+                out.writeLong(parsed.getLong());
+            } else if (parsed.getKind() == Value.Kind.DOUBLE && Double.toString(parsed.getNumber()).equals(value)) {
+                out.writeByte(DOUBLE);
+                out.writeDouble(parsed.getNumber());
+            } else {
+                out.writeByte(TEXT);
+                writeString(out, value);
+            }
+        }
+    }
+
+    static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return in.readBoolean();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case TEXT:
+                return readString(in);
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    /** A decoded value written as the text protocol shows it. */
+    public static String format(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? "TRUE" : "FALSE";
+        }
+        return value.toString();
+    }
+
+    /** The column type sent in a header for a declared type: INTEGER, DOUBLE, BOOLEAN or TEXT. */
+    static String wireType(String declared) {
+        String type = declared == null ? "" : declared.toUpperCase();
+        if (type.startsWith("INT")) {
+            return "INTEGER";
+        } else if (type.startsWith("FLOAT") || type.startsWith("DOUBLE") || type.startsWith("REAL")
+                || type.startsWith("DECIMAL")) {
+            return "DOUBLE";
+        } else if (type.startsWith("BOOL")) {
+            return "BOOLEAN";
+        }
+        return "TEXT";
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("String of " + length + " bytes is too large");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
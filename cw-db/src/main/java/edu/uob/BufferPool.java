@@ -0,0 +1,199 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓冲池
+ * Keeps decoded tables resident so statements don't re-read and re-split the table files.
+ * Tables are evicted in LRU order once the memory budget is exceeded; dirty tables are
+ * written back on eviction, by a background checkpointer, and at JVM shutdown. Changes are
+ * already durable in the write-ahead log, so write-back only has to keep the log short.
+ *
+ * <p>Budget and flush interval can be set with {@code -Ddb.bufferPool.maxBytes} and
+ * {@code -Ddb.bufferPool.flushIntervalMs}.
+ */
+public class BufferPool {
+    private static final long MAX_BYTES = Long.getLong("db.bufferPool.maxBytes", 64L * 1024 * 1024);
+    private static final long FLUSH_INTERVAL_MS = Long.getLong("db.bufferPool.flushIntervalMs", 5000L);
+
+    // accessOrder = true gives us LRU iteration order for free
+    private static final LinkedHashMap<String, CachedTable> tables = new LinkedHashMap<>(16, 0.75f, true);
+    private static long usedBytes = 0;
+    private static ScheduledExecutorService flusher = null;
+
+    public static long getMaxBytes() {
+        return MAX_BYTES;
+    }
+
+    private static String key(String dbName, String tableName) {
+        return dbName + "/" + tableName;
+    }
+
+    /**
+     * Return the resident copy of a table, loading it from disk on a miss.
+     * Returns null if the table does not exist.
+     */
+    public static synchronized CachedTable get(String dbName, String tableName) {
+        startFlusher();
+        String key = key(dbName, tableName);
+        CachedTable table = tables.get(key);
+        if (table != null) {
+            return table;
+        }
+        table = StorageManager.loadTable(dbName, tableName);
+        if (table == null) {
+            return null;
+        }
+        tables.put(key, table);
+        usedBytes += table.getSizeBytes();
+        evictIfNeeded(key);
+        return table;
+    }
+
+    /** Whether the table is currently resident (does not touch LRU order). */
+    public static synchronized boolean isResident(String dbName, String tableName) {
+        return tables.containsKey(key(dbName, tableName));
+    }
+
+    public static synchronized void appendRow(CachedTable table, List<String> record) {
+        long before = table.getSizeBytes();
+        table.append(record);
+        usedBytes += table.getSizeBytes() - before;
+        evictIfNeeded(key(table.getDbName(), table.getTableName()));
+    }
+
+    public static synchronized void replaceContents(CachedTable table, List<List<String>> records,
+                                                   PrimaryKeyIndex index, List<SecondaryIndex> secondaryIndexes) {
+        long before = table.getSizeBytes();
+        table.replace(records, index, secondaryIndexes);
+        resized(table, before);
+    }
+
+    public static synchronized void updateRows(CachedTable table, Map<Long, List<String>> replacements) {
+        long before = table.getSizeBytes();
+        table.update(replacements);
+        resized(table, before);
+    }
+
+    public static synchronized void deleteRows(CachedTable table, Set<Long> rowIds) {
+        long before = table.getSizeBytes();
+        table.delete(rowIds);
+        resized(table, before);
+    }
+
+    private static void resized(CachedTable table, long before) {
+        usedBytes += table.getSizeBytes() - before;
+        evictIfNeeded(key(table.getDbName(), table.getTableName()));
+    }
+
+    /** Drop a table from the pool without writing it back (used by DROP TABLE). */
+    public static synchronized void discard(String dbName, String tableName) {
+        CachedTable removed = tables.remove(key(dbName, tableName));
+        if (removed != null) {
+            usedBytes -= removed.getSizeBytes();
+        }
+    }
+
+    /** Drop every table of a database without writing it back (used by DROP DATABASE). */
+    public static synchronized void discardDatabase(String dbName) {
+        Iterator<Map.Entry<String, CachedTable>> it = tables.entrySet().iterator();
+        while (it.hasNext()) {
+            CachedTable table = it.next().getValue();
+            if (table.getDbName().equals(dbName)) {
+                usedBytes -= table.getSizeBytes();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Write every dirty table back to disk, then truncate the write-ahead log of every database whose
+     * tables are now all clean.
+     */
+    public static synchronized void checkpoint() {
+        Set<String> dirtyDatabases = new HashSet<>();
+        for (CachedTable table : new ArrayList<>(tables.values())) {
+            flush(table);
+            if (table.isDirty()) {
+                dirtyDatabases.add(table.getDbName());
+            }
+        }
+        for (String dbName : WriteAheadLog.getOpenDatabases()) {
+            if (dirtyDatabases.contains(dbName)) continue;
+            try {
+                WriteAheadLog.forDatabase(dbName).truncate();
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to truncate write-ahead log of " + dbName);
+            }
+        }
+    }
+
+    /** Final checkpoint; also saves the indexes so the next start can skip rebuilding them. */
+    public static synchronized void shutdown() {
+        checkpoint();
+        for (CachedTable table : tables.values()) {
+            if (!table.isDirty()) {
+                StorageManager.saveIndex(table);
+            }
+        }
+    }
+
+    /** Write one table back immediately (used after schema changes). */
+    public static synchronized boolean flushNow(CachedTable table) {
+        flush(table);
+        return !table.isDirty();
+    }
+
+    private static void flush(CachedTable table) {
+        if (!table.isDirty()) {
+            return;
+        }
+        if (StorageManager.writeTable(table)) {
+            table.markClean();
+        } else {
+            System.err.println("[ERROR] Failed to write back table " + table.getTableName());
+        }
+    }
+
+    // Evict least recently used tables until we are back under budget, never the one just touched
+    private static void evictIfNeeded(String keepKey) {
+        Iterator<Map.Entry<String, CachedTable>> it = tables.entrySet().iterator();
+        while (usedBytes > MAX_BYTES && it.hasNext()) {
+            Map.Entry<String, CachedTable> entry = it.next();
+            if (entry.getKey().equals(keepKey)) {
+                continue;
+            }
+            CachedTable victim = entry.getValue();
+            flush(victim);
+            if (victim.isDirty()) {
+                continue; // write-back failed, keep it rather than lose data
+            }
+            StorageManager.saveIndex(victim);
+            usedBytes -= victim.getSizeBytes();
+            it.remove();
+        }
+    }
+
+    private static void startFlusher() {
+        if (flusher != null) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "buffer-pool-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(BufferPool::checkpoint, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(BufferPool::shutdown, "buffer-pool-shutdown"));
+    }
+}
@@ -0,0 +1,280 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存表 A decoded table held in the buffer pool (rows, indexes, dirty flag); the schema and the
+ * statistics live in the Catalog, and changes here are passed on to the statistics.
+ *
+ * <p>INSERT, UPDATE and DELETE change the row list in place, finding rows by id. A cursor over the
+ * list stops at the row count it was opened with, so appends never show up in it; UPDATE and DELETE
+ * run under the exclusive statement lock (see DBServer), so no cursor is open on the table meanwhile.
+ */
+public class CachedTable {
+    private final String dbName;
+    private final String tableName;
+    private List<List<String>> records;
+    private boolean dirty;
+    private long sizeBytes;
+    private boolean sortedById;
+    private long lastLsn;
+    private final AtomicLong nextId;
+    private PrimaryKeyIndex index;
+    private List<SecondaryIndex> secondaryIndexes;
+    // What changed since the last write-back, so storage engines can update rows in place
+    private final Set<Long> changedIds = new HashSet<>();
+    private boolean rewriteNeeded;
+
+    public CachedTable(String dbName, String tableName, List<List<String>> records, PrimaryKeyIndex index,
+                       List<SecondaryIndex> secondaryIndexes, long lastLsn, long nextId) {
+        this.dbName = dbName;
+        this.tableName = tableName;
+        this.records = records;
+        this.index = index;
+        this.secondaryIndexes = new ArrayList<>(secondaryIndexes);
+        this.sizeBytes = estimateSize(records);
+        this.sortedById = isSortedById(records);
+        this.lastLsn = lastLsn;
+        this.nextId = new AtomicLong(nextId);
+    }
+
+    public String getDbName() {
+        return dbName;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public List<List<String>> getRecords() {
+        return records;
+    }
+
+    public PrimaryKeyIndex getIndex() {
+        return index;
+    }
+
+    /** The CREATE INDEX indexes of this table. */
+    public List<SecondaryIndex> getSecondaryIndexes() {
+        return secondaryIndexes;
+    }
+
+    /** The CREATE INDEX index on a column (by position in the schema), or null. */
+    public SecondaryIndex getSecondaryIndex(int column) {
+        for (SecondaryIndex secondary : secondaryIndexes) {
+            if (secondary.getColumn() == column) return secondary;
+        }
+        return null;
+    }
+
+    void addSecondaryIndex(SecondaryIndex secondary) {
+        secondaryIndexes.add(secondary);
+    }
+
+    void removeSecondaryIndex(String indexName) {
+        secondaryIndexes.removeIf(secondary -> secondary.getDefinition().getName().equals(indexName));
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /** LSN of the last logged change applied to this table (written to the file header on flush). */
+    public long getLastLsn() {
+        return lastLsn;
+    }
+
+    void setLastLsn(long lastLsn) {
+        this.lastLsn = lastLsn;
+    }
+
+    /** Hand out the next row id; ids are never reused, even after the row holding the highest one is deleted. */
+    public long allocateId() {
+        return nextId.getAndIncrement();
+    }
+
+    /** The id the next insert will get (written to the file header on flush). */
+    public long getNextId() {
+        return nextId.get();
+    }
+
+    /** Ids of rows inserted, updated or deleted since the last write-back. */
+    public Set<Long> getChangedIds() {
+        return changedIds;
+    }
+
+    /** Whether the table file must be rewritten whole (e.g. after ALTER TABLE). */
+    public boolean isRewriteNeeded() {
+        return rewriteNeeded;
+    }
+
+    void markClean() {
+        dirty = false;
+        rewriteNeeded = false;
+        changedIds.clear();
+    }
+
+    void replace(List<List<String>> records, PrimaryKeyIndex index, List<SecondaryIndex> secondaryIndexes) {
+        this.records = records;
+        this.index = index;
+        this.secondaryIndexes = new ArrayList<>(secondaryIndexes);
+        this.sizeBytes = estimateSize(records);
+        this.sortedById = isSortedById(records);
+        this.dirty = true;
+        this.rewriteNeeded = true;
+    }
+
+    /** Replace whole rows, matched by id. */
+    void update(Map<Long, List<String>> changes) {
+        Map<Long, Row> replacements = new HashMap<>();
+        for (Map.Entry<Long, List<String>> change : changes.entrySet()) {
+            replacements.put(change.getKey(), Row.of(change.getValue()));
+        }
+        List<Integer> positions = positionsOf(replacements.keySet());
+        // All old keys go before any new one is added, so rows swapping key values stay consistent
+        TableStatistics statistics = Catalog.getStatistics(dbName, tableName);
+        for (int position : positions) {
+            List<String> record = records.get(position);
+            if (statistics != null) statistics.remove(record);
+            index.remove(record);
+            for (SecondaryIndex secondary : secondaryIndexes) {
+                secondary.remove(record);
+            }
+        }
+        for (int position : positions) {
+            List<String> record = records.get(position);
+            Row replacement = replacements.get(StorageManager.rowId(record));
+            if (statistics != null) statistics.add(replacement);
+            index.add(replacement);
+            for (SecondaryIndex secondary : secondaryIndexes) {
+                secondary.add(replacement);
+            }
+            records.set(position, replacement);
+            sizeBytes += estimateRowSize(replacement) - estimateRowSize(record);
+        }
+        dirty = true;
+        changedIds.addAll(replacements.keySet());
+    }
+
+    void delete(Set<Long> rowIds) {
+        List<Integer> positions = positionsOf(rowIds);
+        if (positions.isEmpty()) return;
+        TableStatistics statistics = Catalog.getStatistics(dbName, tableName);
+        for (int position : positions) {
+            List<String> record = records.get(position);
+            if (statistics != null) statistics.remove(record);
+            index.remove(record);
+            for (SecondaryIndex secondary : secondaryIndexes) {
+                secondary.remove(record);
+            }
+            sizeBytes -= estimateRowSize(record);
+        }
+        // Close the gaps in one pass, starting at the first removed row
+        int write = positions.get(0);
+        int next = 0;
+        for (int read = write; read < records.size(); read++) {
+            if (next < positions.size() && positions.get(next) == read) {
+                next++;
+            } else {
+                records.set(write++, records.get(read));
+            }
+        }
+        records.subList(write, records.size()).clear();
+        dirty = true;
+        changedIds.addAll(rowIds);
+    }
+
+    // Positions of the rows holding these ids, ascending: a binary search each while the list is in id
+    // order (it is unless an old text table stored its rows out of order), otherwise one pass over it
+    private List<Integer> positionsOf(Set<Long> ids) {
+        List<Integer> positions = new ArrayList<>(ids.size());
+        if (sortedById) {
+            for (long id : ids) {
+                int position = findById(id);
+                if (position >= 0) positions.add(position);
+            }
+            Collections.sort(positions);
+        } else {
+            for (int i = 0; i < records.size(); i++) {
+                if (ids.contains(StorageManager.rowId(records.get(i)))) positions.add(i);
+            }
+        }
+        return positions;
+    }
+
+    private int findById(long id) {
+        int low = 0;
+        int high = records.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = StorageManager.rowId(records.get(middle));
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    // Strictly increasing ids, which also rules out duplicates
+    private static boolean isSortedById(List<List<String>> records) {
+        long previous = Long.MIN_VALUE;
+        for (List<String> record : records) {
+            long id = StorageManager.rowId(record);
+            if (id <= previous) return false;
+            previous = id;
+        }
+        return true;
+    }
+
+    void append(List<String> values) {
+        Row record = Row.of(values);
+        long id = StorageManager.rowId(record);
+        if (sortedById && !records.isEmpty() && id <= StorageManager.rowId(records.get(records.size() - 1))) {
+            sortedById = false;
+        }
+        records.add(record);
+        index.add(record);
+        TableStatistics statistics = Catalog.getStatistics(dbName, tableName);
+        if (statistics != null) statistics.add(record);
+        for (SecondaryIndex secondary : secondaryIndexes) {
+            secondary.add(record);
+        }
+        sizeBytes += estimateRowSize(record);
+        dirty = true;
+        changedIds.add(id);
+        // Replayed inserts carry their ids, which moves the sequence past them again after a crash
+        nextId.accumulateAndGet(id + 1, Math::max);
+    }
+
+    // Rough heap footprint: object headers + UTF-16 chars, good enough for budgeting
+    static long estimateSize(List<List<String>> records) {
+        long size = 64;
+        for (List<String> record : records) {
+            size += estimateRowSize(record);
+        }
+        return size;
+    }
+
+    static long estimateRowSize(List<String> record) {
+        long size = 40;
+        for (String value : record) {
+            size += 40 + 2L * value.length();
+        }
+        return size;
+    }
+}
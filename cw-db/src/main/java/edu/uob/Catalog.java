@@ -0,0 +1,209 @@
+package edu.uob;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据字典
+ * In-memory catalog of databases, tables and their column definitions. It is loaded once from
+ * the table file headers on disk (migrating legacy text tables on the way) and then kept up to date
+ * by CREATE / DROP / ALTER, so checking that a table or column exists never touches the file system.
+ * It also remembers which storage engine holds each table, the CREATE INDEX indexes of each database
+ * and the ANALYZE statistics of each table.
+ *
+ * <p>Every change bumps {@link #getVersion()}, so callers can cache what they derive from the catalog
+ * (QueryPlanner does for indexed columns) and drop it once the version moves on.
+ */
+public class Catalog {
+    private static final Map<String, Map<String, List<ColumnDefinition>>> databases = new HashMap<>();
+    private static final Map<String, TableStorage> storages = new HashMap<>(); // "db/table" -> engine
+    private static final Map<String, Map<String, IndexDefinition>> indexes = new HashMap<>(); // db -> name -> index
+    private static final Map<String, TableStatistics> statistics = new HashMap<>(); // "db/table" -> statistics
+    private static final AtomicLong version = new AtomicLong();
+    private static boolean loaded = false;
+
+    /** Load the catalog from disk the first time it is needed. */
+    public static synchronized void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        databases.clear();
+        storages.clear();
+        indexes.clear();
+        statistics.clear();
+        File[] dbDirs = new File(StorageManager.getBasePath()).listFiles(File::isDirectory);
+        if (dbDirs != null) {
+            for (File dbDir : dbDirs) {
+                StorageManager.migrateTextTables(dbDir);
+                Map<String, List<ColumnDefinition>> tables = new HashMap<>();
+                File[] tableFiles = dbDir.listFiles((dir, name) -> StorageManager.storageForFile(name) != null);
+                if (tableFiles != null) {
+                    for (File tableFile : tableFiles) {
+                        TableStorage storage = StorageManager.storageForFile(tableFile.getName());
+                        List<ColumnDefinition> schema = StorageManager.readTableFileSchema(tableFile);
+                        if (schema != null) {
+                            String fileName = tableFile.getName();
+                            String tableName = fileName.substring(0, fileName.length() - storage.getExtension().length());
+                            tables.put(tableName, List.copyOf(schema));
+                            storages.put(dbDir.getName() + "/" + tableName, storage);
+                            TableStatistics saved = TableStatistics.read(
+                                    new File(dbDir, tableName + TableStatistics.EXTENSION));
+                            if (saved != null) statistics.put(dbDir.getName() + "/" + tableName, saved);
+                        }
+                    }
+                }
+                databases.put(dbDir.getName(), tables);
+                indexes.put(dbDir.getName(), loadIndexes(dbDir, tables));
+            }
+        }
+        loaded = true;
+        version.incrementAndGet();
+    }
+
+    // Index files are named <table>.<index>.idx and name the indexed column in their header
+    private static Map<String, IndexDefinition> loadIndexes(File dbDir, Map<String, List<ColumnDefinition>> tables) {
+        Map<String, IndexDefinition> definitions = new HashMap<>();
+        File[] indexFiles = dbDir.listFiles((dir, name) -> name.endsWith(SecondaryIndex.EXTENSION));
+        if (indexFiles == null) return definitions;
+        for (File indexFile : indexFiles) {
+            String fileName = indexFile.getName();
+            String baseName = fileName.substring(0, fileName.length() - SecondaryIndex.EXTENSION.length());
+            int dot = baseName.indexOf('.');
+            String columnName = SecondaryIndex.readColumnName(indexFile);
+            if (dot < 0 || columnName == null || !tables.containsKey(baseName.substring(0, dot))) continue;
+            String indexName = baseName.substring(dot + 1);
+            definitions.put(indexName, new IndexDefinition(indexName, baseName.substring(0, dot), columnName));
+        }
+        return definitions;
+    }
+
+    public static long getVersion() {
+        return version.get();
+    }
+
+    public static synchronized boolean databaseExists(String dbName) {
+        ensureLoaded();
+        return dbName != null && databases.containsKey(dbName);
+    }
+
+    public static synchronized boolean tableExists(String dbName, String tableName) {
+        return getSchema(dbName, tableName) != null;
+    }
+
+    /** The (immutable) schema of a table, or null if it does not exist. */
+    public static synchronized List<ColumnDefinition> getSchema(String dbName, String tableName) {
+        ensureLoaded();
+        if (dbName == null) return null;
+        Map<String, List<ColumnDefinition>> tables = databases.get(dbName);
+        return tables == null ? null : tables.get(tableName);
+    }
+
+    /** The engine holding a table, or null if the table does not exist. */
+    public static synchronized TableStorage getStorage(String dbName, String tableName) {
+        ensureLoaded();
+        return storages.get(dbName + "/" + tableName);
+    }
+
+    public static synchronized List<String> getDatabaseNames() {
+        ensureLoaded();
+        return new ArrayList<>(databases.keySet());
+    }
+
+    public static synchronized List<String> getTableNames(String dbName) {
+        ensureLoaded();
+        Map<String, List<ColumnDefinition>> tables = databases.get(dbName);
+        return tables == null ? new ArrayList<>() : new ArrayList<>(tables.keySet());
+    }
+
+    public static synchronized void addDatabase(String dbName) {
+        ensureLoaded();
+        databases.put(dbName, new HashMap<>());
+        indexes.put(dbName, new HashMap<>());
+        version.incrementAndGet();
+    }
+
+    public static synchronized void removeDatabase(String dbName) {
+        ensureLoaded();
+        databases.remove(dbName);
+        indexes.remove(dbName);
+        storages.keySet().removeIf(key -> key.startsWith(dbName + "/"));
+        statistics.keySet().removeIf(key -> key.startsWith(dbName + "/"));
+        version.incrementAndGet();
+    }
+
+    public static synchronized void putTable(String dbName, String tableName, List<ColumnDefinition> schema) {
+        putTable(dbName, tableName, schema, getStorage(dbName, tableName));
+    }
+
+    public static synchronized void putTable(String dbName, String tableName, List<ColumnDefinition> schema,
+                                             TableStorage storage) {
+        ensureLoaded();
+        Map<String, List<ColumnDefinition>> tables = databases.get(dbName);
+        if (tables == null) return;
+        tables.put(tableName, List.copyOf(schema));
+        storages.put(dbName + "/" + tableName, storage);
+        version.incrementAndGet();
+    }
+
+    public static synchronized void removeTable(String dbName, String tableName) {
+        ensureLoaded();
+        Map<String, List<ColumnDefinition>> tables = databases.get(dbName);
+        if (tables == null) return;
+        tables.remove(tableName);
+        storages.remove(dbName + "/" + tableName);
+        statistics.remove(dbName + "/" + tableName);
+        indexes.get(dbName).values().removeIf(index -> index.getTableName().equals(tableName));
+        version.incrementAndGet();
+    }
+
+    /** The index with this name in a database, or null. */
+    public static synchronized IndexDefinition getIndex(String dbName, String indexName) {
+        ensureLoaded();
+        Map<String, IndexDefinition> definitions = indexes.get(dbName);
+        return definitions == null ? null : definitions.get(indexName);
+    }
+
+    public static synchronized List<IndexDefinition> getIndexes(String dbName, String tableName) {
+        ensureLoaded();
+        List<IndexDefinition> result = new ArrayList<>();
+        Map<String, IndexDefinition> definitions = indexes.get(dbName);
+        if (definitions == null) return result;
+        for (IndexDefinition index : definitions.values()) {
+            if (index.getTableName().equals(tableName)) result.add(index);
+        }
+        return result;
+    }
+
+    public static synchronized void putIndex(String dbName, IndexDefinition index) {
+        ensureLoaded();
+        Map<String, IndexDefinition> definitions = indexes.get(dbName);
+        if (definitions == null) return;
+        definitions.put(index.getName(), index);
+        version.incrementAndGet();
+    }
+
+    public static synchronized void removeIndex(String dbName, String indexName) {
+        ensureLoaded();
+        Map<String, IndexDefinition> definitions = indexes.get(dbName);
+        if (definitions == null) return;
+        definitions.remove(indexName);
+        version.incrementAndGet();
+    }
+
+    /** The statistics of a table from its last ANALYZE, or null if it has never been analysed. */
+    public static synchronized TableStatistics getStatistics(String dbName, String tableName) {
+        ensureLoaded();
+        return statistics.get(dbName + "/" + tableName);
+    }
+
+    /** Statistics do not change the schema, so this does not bump the version. */
+    public static synchronized void putStatistics(String dbName, String tableName, TableStatistics tableStatistics) {
+        ensureLoaded();
+        if (getSchema(dbName, tableName) == null) return;
+        statistics.put(dbName + "/" + tableName, tableStatistics);
+    }
+}
@@ -0,0 +1,318 @@
+package edu.uob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 列式存储文件
+ * Binary on-disk table format. The file starts with a header holding the schema and a few numeric
+ * properties, followed by row groups. Each row group stores one segment per column, and each segment
+ * picks the tightest encoding its values allow:
+ *
+ * <pre>
+ *   header    : MAGIC, VERSION, columnCount, (name, type, primaryKey)*, propertyCount, (key, long)*
+ *   row group : rowCount, segment * columnCount
+ *   segment   : encoding byte, payload length, payload
+ * </pre>
+ *
+ * Typed encodings (INT, FLOAT, BOOLEAN) are only used when every value in the segment round-trips to
+ * exactly the same text, so reading a table back always returns the strings that were written.
+ * Empty values are kept in a per-segment bitmap.
+ */
+public class ColumnarTableFile {
+    public static final String EXTENSION = ".tbl";
+
+    private static final int MAGIC = 0x44425442; // "DBTB"
+    private static final short VERSION = 1;
+    private static final int ROW_GROUP_SIZE = 4096;
+
+    private static final byte ENC_TEXT = 0;
+    private static final byte ENC_INT = 1;
+    private static final byte ENC_FLOAT = 2;
+    private static final byte ENC_BOOLEAN = 3;
+
+    // Writing =======================================================================================
+
+    public static void write(File file, TableFileHeader header, Iterable<List<String>> rows) throws IOException {
+        List<ColumnDefinition> schema = header.getSchema();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            header.write(out);
+            List<List<String>> group = new ArrayList<>(ROW_GROUP_SIZE);
+            for (List<String> row : rows) {
+                group.add(row);
+                if (group.size() == ROW_GROUP_SIZE) {
+                    writeRowGroup(out, schema.size(), group);
+                    group.clear();
+                }
+            }
+            if (!group.isEmpty()) {
+                writeRowGroup(out, schema.size(), group);
+            }
+        }
+    }
+
+    private static void writeRowGroup(DataOutputStream out, int columnCount, List<List<String>> rows) throws IOException {
+        out.writeInt(rows.size());
+        String[] values = new String[rows.size()];
+        for (int col = 0; col < columnCount; col++) {
+            for (int r = 0; r < rows.size(); r++) {
+                List<String> row = rows.get(r);
+                values[r] = col < row.size() ? row.get(col) : "";
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte encoding = chooseEncoding(values);
+            encodeSegment(new DataOutputStream(buffer), encoding, values);
+            out.writeByte(encoding);
+            out.writeInt(buffer.size());
+            buffer.writeTo(out);
+        }
+    }
+
+    private static byte chooseEncoding(String[] values) {
+        boolean allBoolean = true, allInt = true, allFloat = true;
+        for (String value : values) {
+            if (value.isEmpty()) continue;
+            allBoolean &= value.equals("TRUE") || value.equals("FALSE");
+            allInt &= isCanonicalLong(value);
+            if (allFloat) allFloat = isCanonicalDouble(value);
+            if (!allBoolean && !allInt && !allFloat) return ENC_TEXT;
+        }
+        if (allBoolean) return ENC_BOOLEAN;
+        if (allInt) return ENC_INT;
+        if (allFloat) return ENC_FLOAT;
+        return ENC_TEXT;
+    }
+
+    private static void encodeSegment(DataOutputStream out, byte encoding, String[] values) throws IOException {
+        if (encoding == ENC_TEXT) {
+            for (String value : values) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(out, bytes.length);
+                out.write(bytes);
+            }
+            return;
+        }
+        byte[] empty = new byte[(values.length + 7) / 8];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].isEmpty()) empty[i >> 3] |= (byte) (1 << (i & 7));
+        }
+        out.write(empty);
+        if (encoding == ENC_BOOLEAN) {
+            byte[] bits = new byte[(values.length + 7) / 8];
+            for (int i = 0; i < values.length; i++) {
+                if (values[i].equals("TRUE")) bits[i >> 3] |= (byte) (1 << (i & 7));
+            }
+            out.write(bits);
+            return;
+        }
+        for (String value : values) {
+            if (value.isEmpty()) continue;
+            if (encoding == ENC_INT) {
+                long v = Long.parseLong(value);
+                writeVarLong(out, (v << 1) ^ (v >> 63)); // zigzag keeps small negatives small
+            } else {
+                out.writeDouble(Double.parseDouble(value));
+            }
+        }
+    }
+
+    // Only values that print back identically may be stored as numbers ("007" or "1.50" stay text)
+    private static boolean isCanonicalLong(String value) {
+        int start = value.charAt(0) == '-' ? 1 : 0;
+        int digits = value.length() - start;
+        if (digits == 0 || digits > 18) return false;
+        if (value.charAt(start) == '0' && (digits > 1 || start == 1)) return false;
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private static boolean isCanonicalDouble(String value) {
+        char first = value.charAt(0);
+        if (first != '-' && (first < '0' || first > '9')) return false;
+        try {
+            return Double.toString(Double.parseDouble(value)).equals(value);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    // Reading =======================================================================================
+
+    public static TableFileHeader readHeader(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return readHeader(in);
+        }
+    }
+
+    private static TableFileHeader readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a table file");
+        }
+        short version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported table file version " + version);
+        }
+        return TableFileHeader.read(in);
+    }
+
+    /** Open a row-group reader over a table file; rows are decoded one row group at a time. */
+    public static Reader open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return new Reader(in, readHeader(in));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public static class Reader implements TableStorage.RowSource {
+        private final DataInputStream in;
+        private final TableFileHeader header;
+        private String[][] columns = new String[0][];
+        private int groupRows = 0;
+        private int position = 0;
+        private boolean finished = false;
+
+        private Reader(DataInputStream in, TableFileHeader header) {
+            this.in = in;
+            this.header = header;
+        }
+
+        @Override
+        public TableFileHeader getHeader() {
+            return header;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (position < groupRows) return true;
+            if (finished) return false;
+            try {
+                readRowGroup();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return position < groupRows;
+        }
+
+        @Override
+        public List<String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String[] row = new String[columns.length];
+            for (int col = 0; col < columns.length; col++) {
+                row[col] = columns[col][position];
+            }
+            position++;
+            return new ArrayList<>(Arrays.asList(row));
+        }
+
+        private void readRowGroup() throws IOException {
+            int rowCount;
+            try {
+                rowCount = in.readInt();
+            } catch (EOFException e) {
+                finished = true;
+                groupRows = 0;
+                return;
+            }
+            int columnCount = header.getSchema().size();
+            columns = new String[columnCount][];
+            for (int col = 0; col < columnCount; col++) {
+                byte encoding = in.readByte();
+                in.readInt(); // payload length, only needed by readers that skip columns
+                columns[col] = decodeSegment(in, encoding, rowCount);
+            }
+            groupRows = rowCount;
+            position = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static String[] decodeSegment(DataInputStream in, byte encoding, int rowCount) throws IOException {
+        String[] values = new String[rowCount];
+        if (encoding == ENC_TEXT) {
+            for (int i = 0; i < rowCount; i++) {
+                byte[] bytes = new byte[(int) readVarLong(in)];
+                in.readFully(bytes);
+                values[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return values;
+        }
+        byte[] empty = new byte[(rowCount + 7) / 8];
+        in.readFully(empty);
+        if (encoding == ENC_BOOLEAN) {
+            byte[] bits = new byte[(rowCount + 7) / 8];
+            in.readFully(bits);
+            for (int i = 0; i < rowCount; i++) {
+                if (isSet(empty, i)) {
+                    values[i] = "";
+                } else {
+                    values[i] = isSet(bits, i) ? "TRUE" : "FALSE";
+                }
+            }
+            return values;
+        }
+        for (int i = 0; i < rowCount; i++) {
+            if (isSet(empty, i)) {
+                values[i] = "";
+            } else if (encoding == ENC_INT) {
+                long zigzag = readVarLong(in);
+                values[i] = Long.toString((zigzag >>> 1) ^ -(zigzag & 1));
+            } else if (encoding == ENC_FLOAT) {
+                values[i] = Double.toString(in.readDouble());
+            } else {
+                throw new IOException("Unknown segment encoding " + encoding);
+            }
+        }
+        return values;
+    }
+
+    private static boolean isSet(byte[] bitmap, int i) {
+        return (bitmap[i >> 3] & (1 << (i & 7))) != 0;
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+        }
+    }
+}
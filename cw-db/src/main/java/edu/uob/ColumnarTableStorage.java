@@ -0,0 +1,45 @@
+package edu.uob;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/** 列式存储引擎 {@link ColumnarTableFile} as a storage engine: compact and fast to scan, but always rewritten whole. */
+public class ColumnarTableStorage implements TableStorage {
+
+    @Override
+    public String getExtension() {
+        return ColumnarTableFile.EXTENSION;
+    }
+
+    @Override
+    public TableFileHeader readHeader(File file) throws IOException {
+        return ColumnarTableFile.readHeader(file);
+    }
+
+    @Override
+    public RowSource open(File file) throws IOException {
+        return ColumnarTableFile.open(file);
+    }
+
+    @Override
+    public boolean canStore(List<String> row) {
+        return true;
+    }
+
+    @Override
+    public void write(File file, TableFileHeader header, List<List<String>> rows) throws IOException {
+        ColumnarTableFile.write(file, header, rows);
+    }
+
+    @Override
+    public boolean applyChanges(File file, TableFileHeader header, List<List<String>> rows, Set<Long> changedIds) {
+        return false;
+    }
+
+    @Override
+    public void release(File file) {
+        // files are only ever replaced by an atomic rename, readers keep their own stream
+    }
+}
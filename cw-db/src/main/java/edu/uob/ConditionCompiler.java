@@ -0,0 +1,99 @@
+package edu.uob;
+
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * 条件编译
+ * Turns a WHERE condition tree into a row predicate once per statement: column positions are looked
+ * up, constants decoded into {@link Value}s and each comparator becomes its own small predicate, so a
+ * scan spends its time comparing values. AND / OR stop as soon as the result is known.
+ *
+ * <p>Results are the same as interpreting the tree: {@code ==} and {@code !=} ignore case, LIKE is a
+ * case-insensitive substring match, and the ordering comparators compare numerically when both values
+ * parse as numbers and as case-insensitive text otherwise. A column the row does not have never matches.
+ */
+public class ConditionCompiler {
+
+    public static Predicate<List<String>> compile(Condition condition, List<ColumnDefinition> schema) {
+        if (condition == null) {
+            return row -> true;
+        }
+        if (condition instanceof CompoundCondition) {
+            CompoundCondition cc = (CompoundCondition) condition;
+            Predicate<List<String>> left = compile(cc.getLeft(), schema);
+            Predicate<List<String>> right = compile(cc.getRight(), schema);
+            if ("AND".equals(cc.getOperator())) {
+                return left.and(right);
+            } else if ("OR".equals(cc.getOperator())) {
+                return left.or(right);
+            }
+            return row -> false;
+        }
+        if (condition instanceof SimpleCondition) {
+            return compileSimple((SimpleCondition) condition, schema);
+        }
+        return row -> false;
+    }
+
+    private static Predicate<List<String>> compileSimple(SimpleCondition condition, List<ColumnDefinition> schema) {
+        int column = findColumn(schema, condition.getAttribute());
+        if (column == -1) {
+            return row -> false;
+        }
+        String comparator = condition.getComparator();
+        String constant = unquote(condition.getValue());
+
+        if ("=".equals(comparator) || "==".equals(comparator)) {
+            return row -> column < row.size() && Row.valueOf(row, column).getText().equalsIgnoreCase(constant);
+        } else if ("!=".equals(comparator)) {
+            return row -> column < row.size() && !Row.valueOf(row, column).getText().equalsIgnoreCase(constant);
+        } else if ("LIKE".equals(comparator)) {
+            String needle = constant.toLowerCase();
+            return row -> column < row.size() && Row.valueOf(row, column).getText().toLowerCase().contains(needle);
+        }
+
+        IntPredicate accepts = orderingTest(comparator);
+        if (accepts == null) {
+            return row -> false;
+        }
+        // 类型化比较 values are decoded once per row, so comparing never parses or throws
+        Value bound = Value.of(constant);
+        if (!bound.isNumeric()) {
+            // a non-numeric constant makes every comparison a text comparison
+            return row -> column < row.size() && accepts.test(Row.valueOf(row, column).getText().compareToIgnoreCase(constant));
+        }
+        return row -> column < row.size() && accepts.test(Row.valueOf(row, column).compareTo(bound));
+    }
+
+    // What a comparison result must satisfy for the comparator to hold, or null for an unknown one
+    private static IntPredicate orderingTest(String comparator) {
+        if (">".equals(comparator)) {
+            return c -> c > 0;
+        } else if ("<".equals(comparator)) {
+            return c -> c < 0;
+        } else if (">=".equals(comparator)) {
+            return c -> c >= 0;
+        } else if ("<=".equals(comparator)) {
+            return c -> c <= 0;
+        }
+        return null;
+    }
+
+    private static int findColumn(List<ColumnDefinition> schema, String name) {
+        for (int i = 0; i < schema.size(); i++) {
+            if (schema.get(i).getName().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String unquote(String value) {
+        if (value != null && value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+}
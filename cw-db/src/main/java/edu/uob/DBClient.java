@@ -6,13 +6,24 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class DBClient {
 
     private static final char END_OF_TRANSMISSION = 4;
 
+    // java edu.uob.DBClient --binary talks the length-prefixed binary protocol instead of text
     public static void main(String[] args) throws IOException {
         BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+        if (args.length > 0 && args[0].equals("--binary")) {
+            try (DBConnection connection = DBConnection.open("localhost", 8888)) {
+                pipelineCommands(input, connection);
+            }
+            return;
+        }
         Socket socket = new Socket("localhost", 8888);
         BufferedReader socketReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
         BufferedWriter socketWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
@@ -35,4 +46,31 @@ public class DBClient {
             incomingMessage = socketReader.readLine();
         }
     }
+
+    // 流水线 commands that are already typed or piped in go out together; results print in order
+    private static void pipelineCommands(BufferedReader commandLine, DBConnection connection) throws IOException {
+        List<String> batch = new ArrayList<>();
+        while (!Thread.interrupted()) {
+            if (batch.isEmpty()) {
+                System.out.print("SQL:> ");
+            }
+            String command = commandLine.readLine();
+            if (command != null) {
+                batch.add(command);
+            }
+            if (command == null || !commandLine.ready()) {
+                for (CompletableFuture<QueryResult> result : connection.sendAll(batch)) {
+                    try {
+                        System.out.println(result.join());
+                    } catch (CompletionException e) {
+                        throw new IOException("Server disconnected", e.getCause());
+                    }
+                }
+                batch.clear();
+            }
+            if (command == null) {
+                return;
+            }
+        }
+    }
 }
@@ -0,0 +1,133 @@
+package edu.uob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 客户端连接
+ * A binary protocol connection to a DBServer that pipelines: {@link #send} writes a command and returns
+ * at once with a future for its result, so a client can have many commands in flight over one round
+ * trip. The server runs them in the order they were sent. A reader thread completes each future when
+ * the response carrying its tag arrives.
+ *
+ * <pre>
+ *     try (DBConnection db = DBConnection.open("localhost", 8888)) {
+ *         db.execute("USE shop;");
+ *         List&lt;CompletableFuture&lt;QueryResult&gt;&gt; inserts = db.sendAll(commands);
+ *         CompletableFuture.allOf(inserts.toArray(new CompletableFuture[0])).join();
+ *     }
+ * </pre>
+ */
+public class DBConnection implements AutoCloseable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Map<Integer, CompletableFuture<QueryResult>> pending = new ConcurrentHashMap<>();
+    private int nextTag; // guarded by out
+    private volatile IOException failure;
+
+    private DBConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        BinaryProtocol.handshake(out, in);
+        Thread reader = new Thread(this::readResponses, "db-connection-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public static DBConnection open(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            return new DBConnection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /** Send a command without waiting for the ones before it to finish. */
+    public CompletableFuture<QueryResult> send(String command) {
+        List<CompletableFuture<QueryResult>> results = sendAll(List.of(command));
+        return results.get(0);
+    }
+
+    /** Send commands back to back in one write; the futures are in the same order as the commands. */
+    public List<CompletableFuture<QueryResult>> sendAll(List<String> commands) {
+        List<CompletableFuture<QueryResult>> results = new ArrayList<>(commands.size());
+        synchronized (out) {
+            try {
+                for (String command : commands) {
+                    CompletableFuture<QueryResult> result = new CompletableFuture<>();
+                    results.add(result);
+                    if (failure != null) {
+                        result.completeExceptionally(failure);
+                        continue;
+                    }
+                    int tag = nextTag++;
+                    pending.put(tag, result);
+                    if (failure != null && pending.remove(tag) != null) {
+                        result.completeExceptionally(failure);
+                        continue;
+                    }
+                    BinaryProtocol.writeCommand(out, tag, command);
+                }
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        return results;
+    }
+
+    /** Send a command and wait for its result. */
+    public QueryResult execute(String command) throws IOException {
+        try {
+            return send(command).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private void readResponses() {
+        try {
+            while (true) {
+                QueryResult result = BinaryProtocol.readResult(in);
+                CompletableFuture<QueryResult> future = pending.remove(result.getTag());
+                if (future != null) {
+                    future.complete(result);
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // Every command still waiting fails with the connection, as do any sent after it
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        for (Integer tag : pending.keySet()) {
+            CompletableFuture<QueryResult> future = pending.remove(tag);
+            if (future != null) {
+                future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -2,27 +2,69 @@ package edu.uob;
 
 import edu.uob.*;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /** This class implements the DB server. */
 public class DBServer {
 
-    private static final char END_OF_TRANSMISSION = 4;
+    static final char END_OF_TRANSMISSION = 4;
     private String storageFolderPath;
+    // 会话 handleCommand(String) keeps its USE here; every socket connection gets a session of its own
+    private final Session session = new Session();
+
+    // 并发 clients are served side by side, at most -Ddb.server.maxConnections at once;
+    // -Ddb.server.concurrent=false serves one connection at a time instead, and -Ddb.server.nio=true
+    // serves them all from one selector thread with -Ddb.server.workers threads running the commands
+    private static final boolean NIO = Boolean.getBoolean("db.server.nio");
+    private static final int MAX_CONNECTIONS = Integer.getInteger("db.server.maxConnections", NIO ? 10000 : 64);
+    private static final int WORKERS = Integer.getInteger("db.server.workers", 16);
+    // Statements that only read share the database, everything else has it to itself
+    private static final ReentrantReadWriteLock STATEMENT_LOCK = new ReentrantReadWriteLock(true);
+    static final int STREAM_BYTES = 64 << 10;
+    private static final ExecutorService SENDERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "response-sender");
+        t.setDaemon(true);
+        return t;
+    });
 
     public static void main(String args[]) throws IOException {
         DBServer server = new DBServer();
-        server.blockingListenOn(8888);
+        if (NIO) {
+            server.selectorListenOn(8888, MAX_CONNECTIONS, WORKERS);
+        } else if (Boolean.parseBoolean(System.getProperty("db.server.concurrent", "true"))) {
+            server.concurrentListenOn(8888, MAX_CONNECTIONS);
+        } else {
+            server.blockingListenOn(8888);
+        }
     }
 
     /**
@@ -36,6 +78,8 @@ public class DBServer {
         } catch(IOException ioe) {
             System.out.println("Can't seem to create database storage folder " + storageFolderPath);
         }
+        // Load the schema catalog and replay the write-ahead logs before serving anything
+        StorageManager.initialise();
     }
 
     /**
@@ -45,6 +89,122 @@ public class DBServer {
      * <p>This method handles all incoming DB commands and carries out the required actions.
      */
     public String handleCommand(String command) {
+        StringWriter out = new StringWriter();
+        try {
+            handleCommand(command, out, session);
+        } catch (IOException e) {
+            // a StringWriter does not throw
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /** Handle a command in this server's own session, as {@link #handleCommand(String)} does. */
+    public void handleCommand(String command, Writer out) throws IOException {
+        handleCommand(command, out, session);
+    }
+
+    /**
+     * Handle a command of a client session and write the response to {@code out}. SELECT and JOIN
+     * results are written as the query produces them, through a {@link ResponseSpool}, so the whole
+     * result never has to be held in memory and a client that reads slowly never holds up the others.
+     */
+    public void handleCommand(String command, Writer out, Session session) throws IOException {
+        respond(response -> spoolCommand(command, session, response), response -> response.writeTo(out));
+    }
+
+    /**
+     * Handle a command of a binary protocol client: a query result goes out as header, row and DONE
+     * frames, anything else as a DONE frame, the DONE frame carrying {@code tag} (see {@link BinaryProtocol}).
+     */
+    public void handleBinaryCommand(int tag, String command, DataOutputStream out, Session session) throws IOException {
+        respond(response -> spoolBinaryCommand(tag, command, session, response), response -> response.writeTo(out));
+    }
+
+    // 流式输出 a response that grows past STREAM_BYTES is sent by a sender thread while the statement is
+    // still writing it, so only that thread ever waits for the client; a smaller one is sent once it is done
+    private void respond(ResponseAction produce, ResponseAction send) throws IOException {
+        ResponseSpool response = new ResponseSpool();
+        try {
+            List<Future<Void>> sending = new ArrayList<>(1);
+            response.streamAfter(STREAM_BYTES, () -> sending.add(SENDERS.submit(() -> {
+                try {
+                    send.run(response);
+                } catch (IOException e) {
+                    response.close(); // the statement stops at its next write
+                    throw e;
+                }
+                return null;
+            })));
+            try {
+                produce.run(response);
+            } finally {
+                response.finish();
+            }
+            if (sending.isEmpty()) {
+                send.run(response);
+                return;
+            }
+            try {
+                sending.get(0).get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sending a response");
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    private interface ResponseAction {
+        void run(ResponseSpool response) throws IOException;
+    }
+
+    /** Run a command and write its text response, UTF-8, to {@code response}; the caller finishes it. */
+    void spoolCommand(String command, Session session, ResponseSpool response) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(response, StandardCharsets.UTF_8));
+        runCommand(command, session, new Response() {
+            @Override
+            public void result(OutputOperator result) throws IOException {
+                result.writeTo(out, "[OK] ");
+            }
+
+            @Override
+            public void message(String text) throws IOException {
+                out.write(text);
+            }
+        });
+        out.flush();
+    }
+
+    /** Run a command of a binary protocol client and write its frames to {@code response}. */
+    void spoolBinaryCommand(int tag, String command, Session session, ResponseSpool response) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(response));
+        runCommand(command, session, new Response() {
+            @Override
+            public void result(OutputOperator result) throws IOException {
+                BinaryProtocol.writeResult(out, tag, result);
+            }
+
+            @Override
+            public void message(String text) throws IOException {
+                BinaryProtocol.writeDone(out, tag, text);
+            }
+        });
+        out.flush();
+    }
+
+    // 响应 where a command's outcome goes: a query's rows, or the [OK] / [ERROR] text of anything else
+    private interface Response {
+        void result(OutputOperator result) throws IOException;
+
+        void message(String text) throws IOException;
+    }
+
+    private void runCommand(String command, Session session, Response response) throws IOException {
         try {
             // Preprocessor
             String formatted = new Preprocessor().preprocess(command);
@@ -52,56 +212,95 @@ public class DBServer {
             // 词法分析 Tokenize
             List<String> tokens = new Tokenizer().tokenize(formatted);
             if (tokens.isEmpty()) {
-                return "";
+                response.message("");
+                return;
             }
 
             // 语法解析 Parse
             SQLStatement statement = new Parser().parse(tokens);
 
-            // 语义分析 Semantic Analysis
-            new SemanticAnalyzer().validate(statement);
-
-            // 执行对应的数据库命令
-            String result = "";
-            if (statement instanceof CreateDatabaseStatement) {
-                result = DatabaseManager.createDatabase(((CreateDatabaseStatement) statement).getDatabaseName());
-            } else if (statement instanceof DropDatabaseStatement) {
-                result = DatabaseManager.dropDatabase(((DropDatabaseStatement) statement).getDatabaseName());
-            } else if (statement instanceof UseDatabaseStatement) {
-                result = DatabaseManager.useDatabase(((UseDatabaseStatement) statement).getDatabaseName());
-            } else if (statement instanceof CreateTableStatement) {
-                CreateTableStatement stmt = (CreateTableStatement) statement;
-                result = TableManager.createTable(stmt.getTableName(), stmt.getColumns());
-            } else if (statement instanceof DropTableStatement) {
-                result = TableManager.dropTable(((DropTableStatement) statement).getTableName());
-            } else if (statement instanceof InsertStatement) {
-                result = QueryExecutor.executeInsert((InsertStatement) statement);
-            } else if (statement instanceof SelectStatement) {
-                result = QueryExecutor.executeSelect((SelectStatement) statement);
-            } else if (statement instanceof UpdateStatement) {
-                result = QueryExecutor.executeUpdate((UpdateStatement) statement);
-            } else if (statement instanceof DeleteStatement) {
-                result = QueryExecutor.executeDelete((DeleteStatement) statement);
-            } else if (statement instanceof JoinStatement) {
-                result = QueryExecutor.executeJoin((JoinStatement) statement);
-            } else if (statement instanceof AlterTableStatement) {
-                result = QueryExecutor.executeAlter((AlterTableStatement) statement);
-            } else {
-                result = ErrorHandler.syntaxError();
-            }
-
-            // Table OK
-            if (!result.contains("[ERROR]")) {
-                result = "[OK] " + result;
-            }
-            return result;
+            // 读写锁 SELECT, JOIN, USE and SET (which only change the session) run alongside each other; the
+            // lock covers validation too, so the tables a statement was checked against are still there
+            // when it runs. Responses go to a spool, never straight to a client, while it is held.
+            Lock lock = statement instanceof SelectStatement || statement instanceof JoinStatement
+                    || statement instanceof UseDatabaseStatement || statement instanceof SetStatement
+                    ? STATEMENT_LOCK.readLock() : STATEMENT_LOCK.writeLock();
+            lock.lock();
+            try {
+                handleStatement(session, statement, response);
+            } finally {
+                lock.unlock();
+            }
         } catch (Exception e) {
             // Table ERROR
-            return "[ERROR] " + e.getMessage();
+            response.message("[ERROR] " + e.getMessage());
+        }
+    }
+
+    private void handleStatement(Session session, SQLStatement statement, Response response) throws Exception {
+        // 语义分析 Semantic Analysis
+        new SemanticAnalyzer(session).validate(statement);
+
+        // 查询规划 Planning: access paths, predicate order and join algorithm (null if nothing to plan)
+        PhysicalPlan plan = QueryPlanner.plan(session, statement);
+
+        // 流式输出 queries stream their rows; a failure before the first row still reports [ERROR] alone
+        if (statement instanceof SelectStatement) {
+            response.result(QueryExecutor.planSelect(session, (SelectStatement) statement, plan));
+            return;
+        } else if (statement instanceof JoinStatement) {
+            response.result(QueryExecutor.planJoin(session, (JoinStatement) statement, plan));
+            return;
+        }
+
+        // 执行对应的数据库命令
+        String result = execute(session, statement, plan);
+
+        // Table OK (executors report failures with the plain ErrorHandler message)
+        if (result.startsWith("ERROR:")) {
+            result = "[ERROR] " + result;
+        } else if (!result.contains("[ERROR]")) {
+            result = "[OK] " + result;
+        }
+        response.message(result);
+    }
+
+    private String execute(Session session, SQLStatement statement, PhysicalPlan plan) {
+        if (statement instanceof CreateDatabaseStatement) {
+            return DatabaseManager.createDatabase(((CreateDatabaseStatement) statement).getDatabaseName());
+        } else if (statement instanceof DropDatabaseStatement) {
+            return DatabaseManager.dropDatabase(session, ((DropDatabaseStatement) statement).getDatabaseName());
+        } else if (statement instanceof UseDatabaseStatement) {
+            return DatabaseManager.useDatabase(session, ((UseDatabaseStatement) statement).getDatabaseName());
+        } else if (statement instanceof CreateTableStatement) {
+            CreateTableStatement stmt = (CreateTableStatement) statement;
+            return TableManager.createTable(session, stmt.getTableName(), stmt.getColumns());
+        } else if (statement instanceof DropTableStatement) {
+            return TableManager.dropTable(session, ((DropTableStatement) statement).getTableName());
+        } else if (statement instanceof CreateIndexStatement) {
+            CreateIndexStatement stmt = (CreateIndexStatement) statement;
+            return IndexManager.createIndex(session, stmt.getIndexName(), stmt.getTableName(), stmt.getColumnName());
+        } else if (statement instanceof DropIndexStatement) {
+            return IndexManager.dropIndex(session, ((DropIndexStatement) statement).getIndexName());
+        } else if (statement instanceof AnalyzeStatement) {
+            return TableManager.analyzeTable(session, ((AnalyzeStatement) statement).getTableName());
+        } else if (statement instanceof SetStatement) {
+            SetStatement stmt = (SetStatement) statement;
+            session.setSetting(stmt.getName(), stmt.getValue());
+            return "";
+        } else if (statement instanceof InsertStatement) {
+            return QueryExecutor.executeInsert(session, (InsertStatement) statement);
+        } else if (statement instanceof UpdateStatement) {
+            return QueryExecutor.executeUpdate(session, (UpdateStatement) statement, plan);
+        } else if (statement instanceof DeleteStatement) {
+            return QueryExecutor.executeDelete(session, (DeleteStatement) statement, plan);
+        } else if (statement instanceof AlterTableStatement) {
+            return QueryExecutor.executeAlter(session, (AlterTableStatement) statement);
         }
+        return ErrorHandler.syntaxError();
     }
 
-    // Methods below handle networking aspects of the project - you will not need to change these ! ===
+    // Methods below handle networking aspects of the project ==========================================
 
     public void blockingListenOn(int portNumber) throws IOException {
         try (ServerSocket s = new ServerSocket(portNumber)) {
@@ -119,18 +318,153 @@ public class DBServer {
     }
 
     private void blockingHandleConnection(ServerSocket serverSocket) throws IOException {
-        try (Socket s = serverSocket.accept();
-             BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream()));
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(s.getOutputStream()))) {
+        serveConnection(serverSocket.accept());
+    }
 
-            System.out.println("Connection established: " + serverSocket.getInetAddress());
+    /**
+     * Serve clients side by side: each connection gets a virtual thread where the JVM has them (Java 21
+     * and later), otherwise a thread of a pool of {@code maxConnections}. A client beyond that limit is
+     * told so and disconnected.
+     */
+    public void concurrentListenOn(int portNumber, int maxConnections) throws IOException {
+        Semaphore slots = new Semaphore(maxConnections);
+        ExecutorService workers = connectionExecutor(maxConnections);
+        try (ServerSocket s = new ServerSocket(portNumber)) {
+            System.out.println("Server listening on port " + portNumber + " (up to " + maxConnections + " connections)");
+            while (!Thread.interrupted()) {
+                try {
+                    Socket socket = s.accept();
+                    if (!slots.tryAcquire()) {
+                        rejectConnection(socket);
+                        continue;
+                    }
+                    workers.execute(() -> {
+                        try {
+                            serveConnection(socket);
+                        } catch (IOException e) {
+                            System.err.println("Connection closed after an IO error: " + e.getMessage());
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                } catch (IOException e) {
+                    System.err.println("Server encountered a non-fatal IO error:");
+                    e.printStackTrace();
+                    System.err.println("Continuing...");
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Serve clients without a thread each: a {@link SelectorListener} reads and writes every connection
+     * from one thread and runs their commands on {@code workerThreads} threads.
+     */
+    public void selectorListenOn(int portNumber, int maxConnections, int workerThreads) throws IOException {
+        new SelectorListener(this, maxConnections, workerThreads).listenOn(portNumber);
+    }
+
+    private static ExecutorService connectionExecutor(int maxConnections) {
+        try {
+            // looked up at run time, as the code is compiled for Java 17
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(maxConnections);
+        }
+    }
+
+    private static void rejectConnection(Socket socket) throws IOException {
+        try (socket; BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()))) {
+            writer.write("[ERROR] Too many connections, try again later.\n" + END_OF_TRANSMISSION + "\n");
+        }
+    }
+
+    // Answer one command per line until the client disconnects, or frames if it opens with the binary magic
+    private void serveConnection(Socket socket) throws IOException {
+        try (Socket s = socket; BufferedInputStream in = new BufferedInputStream(s.getInputStream())) {
+            System.out.println("Connection established: " + s.getInetAddress());
+            Session session = new Session();
+            // pipelined writes share a WAL force, made before any response reaches the socket
+            WriteAheadLog.deferForces();
+            OutputStream socketOut = new ForcingOutputStream(s.getOutputStream());
+            in.mark(1);
+            int first = in.read();
+            if (first == BinaryProtocol.MAGIC) {
+                serveBinary(new DataInputStream(in), new DataOutputStream(new BufferedOutputStream(socketOut)), session);
+                return;
+            }
+            in.reset();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socketOut));
             while (!Thread.interrupted()) {
                 String incomingCommand = reader.readLine();
+                if (incomingCommand == null) {
+                    return;
+                }
                 System.out.println("Received message: " + incomingCommand);
-                String result = handleCommand(incomingCommand);
-                writer.write(result);
+                // a large response goes out while it is produced (see respond); while the client has
+                // more commands waiting (pipelined), responses share flushes
+                handleCommand(incomingCommand, writer, session);
                 writer.write("\n" + END_OF_TRANSMISSION + "\n");
-                writer.flush();
+                if (!reader.ready()) {
+                    writer.flush();
+                }
+            }
+        } finally {
+            WriteAheadLog.stopDeferring();
+            WriteAheadLog.forceDeferred();
+        }
+    }
+
+    /** Forces the write-ahead logs before passing anything on, so a response never outruns its changes. */
+    private static final class ForcingOutputStream extends FilterOutputStream {
+        ForcingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            WriteAheadLog.forceDeferred();
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            WriteAheadLog.forceDeferred();
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            WriteAheadLog.forceDeferred();
+            out.flush();
+        }
+    }
+
+    private void serveBinary(DataInputStream in, DataOutputStream out, Session session) throws IOException {
+        // a client of another version is told which one this server speaks, then disconnected
+        int version = in.read();
+        out.writeByte(BinaryProtocol.MAGIC);
+        out.writeByte(BinaryProtocol.VERSION);
+        out.flush();
+        if (version != BinaryProtocol.VERSION) {
+            return;
+        }
+        while (!Thread.interrupted()) {
+            BinaryProtocol.Frame frame = BinaryProtocol.readFrame(in);
+            if (frame == null) {
+                return;
+            }
+            if (frame.getType() != BinaryProtocol.COMMAND) {
+                throw new IOException("Unexpected frame type " + frame.getType());
+            }
+            String incomingCommand = BinaryProtocol.commandText(frame.getPayload());
+            System.out.println("Received message: " + incomingCommand);
+            handleBinaryCommand(BinaryProtocol.commandTag(frame.getPayload()), incomingCommand, out, session);
+            if (in.available() == 0) {
+                out.flush();
             }
         }
     }
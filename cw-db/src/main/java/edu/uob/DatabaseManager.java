@@ -4,12 +4,6 @@ import java.io.File;
 
 
 public class DatabaseManager {
-    private static String currentDatabase = null;
-
-    public static String getCurrentDatabase() {
-        return currentDatabase;
-    }
-
     //Create a new database directory.
 
     public static String createDatabase(String name) {
@@ -22,25 +16,25 @@ public class DatabaseManager {
 
     //Drop delete an existing database.
 
-    public static String dropDatabase(String name) {
+    public static String dropDatabase(Session session, String name) {
         boolean deleted = edu.uob.StorageManager.deleteDatabase(name);
         if (!deleted) {
             return edu.uob.ErrorHandler.databaseNotFound(name);
         }
         // If the current database was this one, clear current selection
-        if (name.equalsIgnoreCase(currentDatabase)) {
-            currentDatabase = null;
+        if (name.equalsIgnoreCase(session.getDatabase())) {
+            session.setDatabase(null);
         }
         return "";
     }
 
-    //Use switch to a database as current.
+    //Use switch to a database as current (for this session only).
 
-    public static String useDatabase(String name) {
+    public static String useDatabase(Session session, String name) {
         if (!edu.uob.StorageManager.databaseExists(name)) {
             return edu.uob.ErrorHandler.databaseNotFound(name);
         }
-        currentDatabase = name;
+        session.setDatabase(name);
         return "";
     }
 }
@@ -0,0 +1,13 @@
+package edu.uob;
+
+public class DropIndexStatement implements edu.uob.SQLStatement {
+    private final String indexName;
+
+    public DropIndexStatement(String indexName) {
+        this.indexName = indexName;
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+}
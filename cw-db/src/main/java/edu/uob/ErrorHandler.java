@@ -76,6 +76,30 @@ public class ErrorHandler {
         return "ERROR: Column " + colName + " does not exist.";
     }
 
+    public static String idColumnImmutable() {
+        return "ERROR: The id column cannot be updated or removed.";
+    }
+
+    public static String indexAlreadyExists(String name) {
+        return "ERROR: Index " + name + " already exists.";
+    }
+
+    public static String indexNotFound(String name) {
+        return "ERROR: Index " + name + " does not exist.";
+    }
+
+    public static String columnNotGrouped(String colName) {
+        return "ERROR: Column " + colName + " must appear in GROUP BY.";
+    }
+
+    public static String unknownSetting(String name) {
+        return "ERROR: Unknown setting " + name + ".";
+    }
+
+    public static String invalidSettingValue(String name, String value) {
+        return "ERROR: " + name + " cannot be set to " + value + ", use ON or OFF.";
+    }
+
     public static String generalError(String message) {
         return "ERROR: " + message;
     }
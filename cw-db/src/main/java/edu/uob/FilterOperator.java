@@ -0,0 +1,50 @@
+package edu.uob;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * 过滤算子
+ * Passes on the rows that satisfy a compiled WHERE predicate. Rows are pulled from the child in
+ * batches so that large batches can be filtered in parallel by {@link ParallelScan}. Batches start
+ * small and double up to {@link ParallelScan#BATCH_ROWS}, so a plan that stops early (LIMIT) only
+ * scans about as far as it needs to.
+ */
+public class FilterOperator implements Operator {
+    private final Operator child;
+    private final Predicate<List<String>> matches;
+    private static final int FIRST_BATCH_ROWS = 256;
+
+    private List<List<String>> buffer = List.of();
+    private int batchRows = FIRST_BATCH_ROWS;
+    private int position = 0;
+
+    public FilterOperator(Operator child, Predicate<List<String>> matches) {
+        this.child = child;
+        this.matches = matches;
+    }
+
+    @Override
+    public void open() {
+        child.open();
+    }
+
+    @Override
+    public List<String> next() {
+        while (position == buffer.size()) {
+            List<List<String>> batch = child.nextBatch(batchRows);
+            batchRows = Math.min(batchRows * 2, ParallelScan.BATCH_ROWS);
+            if (batch.isEmpty()) {
+                return null;
+            }
+            buffer = ParallelScan.filter(batch, matches);
+            position = 0;
+        }
+        return buffer.get(position++);
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
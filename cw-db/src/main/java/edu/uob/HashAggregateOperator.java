@@ -0,0 +1,268 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 哈希聚合算子
+ * GROUP BY one column (or the whole input as one group) with COUNT / SUM / AVG / MIN / MAX. Each output
+ * row is the group value followed by one value per aggregate; groups come out in the order they first
+ * appear. Without a group column there is exactly one output row, even for no input rows.
+ *
+ * <p>Groups are kept in a hash table with primitive running state per aggregate. Once the groups
+ * reach {@code -Ddb.aggregate.memoryBytes} (default 32 MB), rows of groups not already in memory are
+ * spilled to partition files by hash of the group value; after the in-memory groups are returned
+ * each partition is aggregated the same way, with a different hash if it has to spill again.
+ *
+ * <p>COUNT(column) and MIN / MAX skip NULL; SUM and AVG only add up numeric values and are NULL if
+ * there were none. Groups are told apart by their exact stored text.
+ */
+public class HashAggregateOperator implements Operator {
+    private static final long MEMORY_BYTES = Long.getLong("db.aggregate.memoryBytes", 32L * 1024 * 1024);
+    private static final int PARTITIONS = 16;
+    // A partition that still does not fit after this many rounds is aggregated in memory regardless
+    private static final int MAX_SPILL_DEPTH = 6;
+
+    private final Operator child;
+    private final int groupColumn;
+    private final List<Aggregate.Function> functions;
+    private final List<Integer> columns;
+
+    private Iterator<List<String>> current;
+    private final Deque<Partition> pending = new ArrayDeque<>();
+
+    /**
+     * @param groupColumn position of the GROUP BY column, or -1 to aggregate all rows into one
+     * @param columns     position of each aggregate's column, or -1 for COUNT(*)
+     */
+    public HashAggregateOperator(Operator child, int groupColumn, List<Aggregate.Function> functions,
+                                 List<Integer> columns) {
+        this.child = child;
+        this.groupColumn = groupColumn;
+        this.functions = functions;
+        this.columns = columns;
+    }
+
+    @Override
+    public void open() {
+        child.open();
+        current = aggregate(child::next, 0);
+    }
+
+    @Override
+    public List<String> next() {
+        try {
+            while (!current.hasNext()) {
+                Partition partition = pending.poll();
+                if (partition == null) {
+                    return null;
+                }
+                try (SpillFile.Reader in = partition.file.openReader()) {
+                    current = aggregate(in::read, partition.depth);
+                }
+                partition.file.delete();
+            }
+            return current.next();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        child.close();
+        for (Partition partition : pending) {
+            partition.file.delete();
+        }
+        pending.clear();
+    }
+
+    private interface RowSource {
+        List<String> next() throws IOException;
+    }
+
+    // Aggregate one input; rows of groups that do not fit go to new partitions at depth + 1
+    private Iterator<List<String>> aggregate(RowSource source, int depth) {
+        Map<String, Group> groups = new LinkedHashMap<>();
+        long bytes = 0;
+        SpillFile.Writer[] writers = null;
+        SpillFile[] files = null;
+        try {
+            List<String> row;
+            while ((row = source.next()) != null) {
+                String key = groupColumn == -1 ? "" : groupColumn < row.size() ? row.get(groupColumn) : "";
+                Group group = groups.get(key);
+                if (group == null) {
+                    long size = 2L * key.length() + 64 + 40L * functions.size();
+                    if (groupColumn != -1 && depth < MAX_SPILL_DEPTH && bytes + size > MEMORY_BYTES) {
+                        if (writers == null) {
+                            writers = new SpillFile.Writer[PARTITIONS];
+                            files = new SpillFile[PARTITIONS];
+                        }
+                        int p = partitionOf(key, depth);
+                        if (writers[p] == null) {
+                            files[p] = SpillFile.create("group");
+                            pending.add(new Partition(files[p], depth + 1));
+                            writers[p] = files[p].openWriter();
+                        }
+                        writers[p].write(row);
+                        continue;
+                    }
+                    group = new Group(key);
+                    groups.put(key, group);
+                    bytes += size;
+                }
+                group.add(row);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            closeAll(writers);
+        }
+        if (groupColumn == -1 && groups.isEmpty()) {
+            groups.put("", new Group(""));
+        }
+        Iterator<Group> it = groups.values().iterator();
+        return new Iterator<List<String>>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public List<String> next() {
+                return it.next().result();
+            }
+        };
+    }
+
+    private static void closeAll(SpillFile.Writer[] writers) {
+        if (writers == null) return;
+        IOException failure = null;
+        for (SpillFile.Writer writer : writers) {
+            if (writer == null) continue;
+            try {
+                writer.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) throw new UncheckedIOException(failure);
+    }
+
+    // Each depth mixes the hash differently, so a partition splits up when it is aggregated again
+    private static int partitionOf(String key, int depth) {
+        int h = key.hashCode() * (0x9E3779B1 + 2 * depth);
+        h ^= h >>> 16;
+        return Math.floorMod(h, PARTITIONS);
+    }
+
+    private static final class Partition {
+        final SpillFile file;
+        final int depth;
+
+        Partition(SpillFile file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
+
+    // 累加器 running state of every aggregate of one group, in primitive arrays
+    private final class Group {
+        private final String key;
+        private final long[] counts;
+        private final long[] longSums;
+        private final double[] doubleSums;
+        private final boolean[] exact;      // sum so far fits in longSums
+        private final Value[] extremes;
+
+        Group(String key) {
+            int n = functions.size();
+            this.key = key;
+            this.counts = new long[n];
+            this.longSums = new long[n];
+            this.doubleSums = new double[n];
+            this.exact = new boolean[n];
+            this.extremes = new Value[n];
+            Arrays.fill(exact, true);
+        }
+
+        void add(List<String> row) {
+            for (int i = 0; i < counts.length; i++) {
+                int column = columns.get(i);
+                if (column == -1) {
+                    counts[i]++;
+                    continue;
+                }
+                if (column >= row.size()) continue;
+                Value value = Row.valueOf(row, column);
+                switch (functions.get(i)) {
+                    case COUNT:
+                        if (value.getKind() != Value.Kind.NULL) counts[i]++;
+                        break;
+                    case SUM:
+                    case AVG:
+                        if (!value.isNumeric()) break;
+                        counts[i]++;
+                        doubleSums[i] += value.getNumber();
+                        if (exact[i]) {
+                            try {
+                                exact[i] = value.getKind() == Value.Kind.LONG;
+                                if (exact[i]) longSums[i] = Math.addExact(longSums[i], value.getLong());
+                            } catch (ArithmeticException e) {
+                                exact[i] = false;
+                            }
+                        }
+                        break;
+                    case MIN:
+                    case MAX:
+                        if (value.getKind() == Value.Kind.NULL) break;
+                        int c = extremes[i] == null ? 0 : value.compareForSort(extremes[i]);
+                        boolean min = functions.get(i) == Aggregate.Function.MIN;
+                        if (extremes[i] == null || (min ? c < 0 : c > 0)) extremes[i] = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        List<String> result() {
+            List<String> row = new ArrayList<>(counts.length + 1);
+            row.add(key);
+            for (int i = 0; i < counts.length; i++) {
+                switch (functions.get(i)) {
+                    case COUNT:
+                        row.add(String.valueOf(counts[i]));
+                        break;
+                    case SUM:
+                        row.add(counts[i] == 0 ? "NULL" : exact[i] ? String.valueOf(longSums[i]) : formatNumber(doubleSums[i]));
+                        break;
+                    case AVG:
+                        row.add(counts[i] == 0 ? "NULL" : formatNumber(doubleSums[i] / counts[i]));
+                        break;
+                    default:
+                        row.add(extremes[i] == null ? "NULL" : extremes[i].getText());
+                        break;
+                }
+            }
+            return row;
+        }
+    }
+
+    // Whole numbers without a trailing ".0"
+    static String formatNumber(double number) {
+        if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+            return String.valueOf((long) number);
+        }
+        return String.valueOf(number);
+    }
+}
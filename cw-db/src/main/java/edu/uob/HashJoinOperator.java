@@ -0,0 +1,112 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * 哈希连接算子
+ * Equi-join of two inputs on one column each (exact string equality). The build side is read into a
+ * hash table in {@link #open()}; the other side is then streamed past it. Either way rows come out in
+ * nested-loop order: left rows in order, and for each of them the matching right rows in order.
+ *
+ * <p>Building on the right streams the left side through {@link #next()}. Building on the left (when it
+ * is the smaller input) has to see every right row before the first left row is complete, so the
+ * matches are collected per left row during {@code open()}.
+ */
+public class HashJoinOperator implements Operator {
+    private final Operator left;
+    private final Operator right;
+    private final int leftColumn;
+    private final int rightColumn;
+    private final boolean buildLeft;
+    private final BiFunction<List<String>, List<String>, List<String>> combiner;
+
+    // build right: right rows by key, and the left row currently being matched
+    private Map<String, List<List<String>>> rightByKey;
+    private List<String> leftRow;
+    private Iterator<List<String>> matches = Collections.emptyIterator();
+    // build left: left rows and their right matches, emitted in left order
+    private List<List<String>> leftRows;
+    private List<List<List<String>>> matchesByLeft;
+    private int leftPosition;
+
+    public HashJoinOperator(Operator left, Operator right, int leftColumn, int rightColumn, boolean buildLeft,
+                            BiFunction<List<String>, List<String>, List<String>> combiner) {
+        this.left = left;
+        this.right = right;
+        this.leftColumn = leftColumn;
+        this.rightColumn = rightColumn;
+        this.buildLeft = buildLeft;
+        this.combiner = combiner;
+    }
+
+    @Override
+    public void open() {
+        left.open();
+        right.open();
+        if (!buildLeft) {
+            rightByKey = new HashMap<>();
+            List<String> row;
+            while ((row = right.next()) != null) {
+                if (row.size() <= rightColumn) continue;
+                rightByKey.computeIfAbsent(row.get(rightColumn), k -> new ArrayList<>()).add(row);
+            }
+            return;
+        }
+        leftRows = new ArrayList<>();
+        Map<String, List<Integer>> leftByKey = new HashMap<>();
+        List<String> row;
+        while ((row = left.next()) != null) {
+            if (row.size() > leftColumn) {
+                leftByKey.computeIfAbsent(row.get(leftColumn), k -> new ArrayList<>()).add(leftRows.size());
+            }
+            leftRows.add(row);
+        }
+        matchesByLeft = new ArrayList<>(Collections.nCopies(leftRows.size(), null));
+        while ((row = right.next()) != null) {
+            if (row.size() <= rightColumn) continue;
+            for (int i : leftByKey.getOrDefault(row.get(rightColumn), List.of())) {
+                if (matchesByLeft.get(i) == null) matchesByLeft.set(i, new ArrayList<>());
+                matchesByLeft.get(i).add(row);
+            }
+        }
+        leftPosition = -1;
+    }
+
+    @Override
+    public List<String> next() {
+        while (!matches.hasNext()) {
+            if (!advanceLeft()) {
+                return null;
+            }
+        }
+        return combiner.apply(leftRow, matches.next());
+    }
+
+    // Move to the next left row and its matches; false when the left side is exhausted
+    private boolean advanceLeft() {
+        if (buildLeft) {
+            if (++leftPosition >= leftRows.size()) return false;
+            leftRow = leftRows.get(leftPosition);
+            List<List<String>> found = matchesByLeft.get(leftPosition);
+            matches = found == null ? Collections.emptyIterator() : found.iterator();
+            return true;
+        }
+        leftRow = left.next();
+        if (leftRow == null) return false;
+        List<List<String>> found = leftRow.size() > leftColumn ? rightByKey.get(leftRow.get(leftColumn)) : null;
+        matches = found == null ? Collections.emptyIterator() : found.iterator();
+        return true;
+    }
+
+    @Override
+    public void close() {
+        left.close();
+        right.close();
+    }
+}
@@ -0,0 +1,520 @@
+package edu.uob;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 堆文件
+ * Page-based table file made of fixed-size slotted pages. Page 0 holds the table header, every other
+ * page holds rows:
+ *
+ * <pre>
+ *   page 0    : MAGIC, VERSION, pageSize, headerLength, header
+ *   data page : slotCount, dataStart, (offset, length) * slotCount, free space, tuples (growing down)
+ *   tuple     : valueCount, (byteLength, utf8 bytes)*      -- counts and lengths are varints
+ * </pre>
+ *
+ * A row lives at (page, slot). An update overwrites the tuple inside its own page when it still fits,
+ * a delete only zeroes the slot length (a tombstone) and new rows are added to the last page, so a
+ * write-back touches just the pages holding changed rows. Space left behind by updates and deletes is
+ * reclaimed by {@link #compact()}, which packs a page without renumbering its slots.
+ *
+ * <p>An instance is an open handle used for in-place changes; it is not thread-safe and is guarded by
+ * {@link HeapTableStorage}.
+ */
+public class HeapFile implements Closeable {
+    public static final String EXTENSION = ".heap";
+    public static final int PAGE_SIZE = 8192;
+
+    private static final int MAGIC = 0x44424850; // "DBHP"
+    private static final short VERSION = 1;
+    private static final int PAGE_HEADER = 4;
+    private static final int SLOT_SIZE = 4;
+    private static final int MAX_TUPLE = PAGE_SIZE - PAGE_HEADER - SLOT_SIZE;
+    // A page is packed once this much of it is dead space
+    private static final int COMPACT_THRESHOLD = PAGE_SIZE / 4;
+
+    private final File file;
+    private final FileChannel channel;
+    private int pageCount;
+    private Map<Long, Long> locations; // row id -> page << 16 | slot, built on first use
+    private final Set<Integer> fragmented = new HashSet<>();
+
+    HeapFile(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.pageCount = (int) (channel.size() / PAGE_SIZE);
+        readHeader(channel); // fail early on anything that is not a heap file
+    }
+
+    // Whole-file operations =========================================================================
+
+    /** Write a new heap file with the rows packed into consecutive pages. */
+    public static void create(File file, TableFileHeader header, Iterable<List<String>> rows) throws IOException {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writePage(out, 0, headerPage(header));
+            int pageNo = 1;
+            ByteBuffer page = newPage();
+            for (List<String> row : rows) {
+                byte[] tuple = encodeTuple(row);
+                if (freeSpace(page) < tuple.length + SLOT_SIZE) {
+                    writePage(out, pageNo++, page);
+                    page = newPage();
+                }
+                addTuple(page, tuple);
+            }
+            if (slotCount(page) > 0) {
+                writePage(out, pageNo, page);
+            }
+        }
+    }
+
+    public static TableFileHeader readHeader(File file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readHeader(in);
+        }
+    }
+
+    private static TableFileHeader readHeader(FileChannel in) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        if (readPage(in, 0, page) < PAGE_HEADER || page.getInt(0) != MAGIC) {
+            throw new IOException("Not a heap table file");
+        }
+        if (page.getShort(4) != VERSION || page.getInt(6) != PAGE_SIZE) {
+            throw new IOException("Unsupported heap file version or page size");
+        }
+        int length = page.getInt(10);
+        byte[] bytes = new byte[length];
+        page.get(14, bytes);
+        return TableFileHeader.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static ByteBuffer headerPage(TableFileHeader header) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        header.write(new DataOutputStream(bytes));
+        if (bytes.size() > PAGE_SIZE - 14) {
+            throw new IOException("Table header does not fit in one page");
+        }
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        page.putInt(MAGIC).putShort(VERSION).putInt(PAGE_SIZE).putInt(bytes.size()).put(bytes.toByteArray());
+        return page.clear();
+    }
+
+    /**
+     * Open a page-at-a-time reader. Each page is read while holding {@code pageLock}, the lock that
+     * in-place writers and the compactor hold, so a reader never sees a half-written page.
+     */
+    public static TableStorage.RowSource scan(File file, Object pageLock) throws IOException {
+        FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new Scanner(in, readHeader(in), pageLock);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static class Scanner implements TableStorage.RowSource {
+        private final FileChannel in;
+        private final TableFileHeader header;
+        private final Object pageLock;
+        private final ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        private final List<List<String>> rows = new ArrayList<>();
+        private int pageNo = 1;
+        private int position = 0;
+        private boolean finished = false;
+
+        Scanner(FileChannel in, TableFileHeader header, Object pageLock) {
+            this.in = in;
+            this.header = header;
+            this.pageLock = pageLock;
+        }
+
+        @Override
+        public TableFileHeader getHeader() {
+            return header;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (position == rows.size() && !finished) {
+                    rows.clear();
+                    position = 0;
+                    synchronized (pageLock) {
+                        if (readPage(in, pageNo++, page) < PAGE_SIZE) {
+                            finished = true;
+                            break;
+                        }
+                        for (int slot = 0; slot < slotCount(page); slot++) {
+                            if (slotLength(page, slot) > 0) {
+                                rows.add(readTuple(page, slot));
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return position < rows.size();
+        }
+
+        @Override
+        public List<String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return rows.get(position++);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // In-place changes ==============================================================================
+
+    /**
+     * Bring the file in line with {@code rows} for the ids in {@code changedIds}: rows that are gone are
+     * tombstoned, changed rows are rewritten in their slot and new rows are appended. Only the touched
+     * pages are written, followed by the header page. Returns false, without writing anything, when the
+     * rows cannot be told apart by id; the caller then rewrites the whole file.
+     */
+    boolean apply(TableFileHeader header, List<List<String>> rows, Set<Long> changedIds) throws IOException {
+        if (locations == null && !buildLocations()) return false;
+        Map<Long, List<String>> changed = new HashMap<>();
+        for (List<String> row : rows) {
+            long id = StorageManager.rowId(row);
+            if (changedIds.contains(id) && changed.put(id, row) != null) return false;
+        }
+        if (changedIds.contains(-1L)) return false;
+
+        Map<Integer, ByteBuffer> dirty = new TreeMap<>();
+        List<List<String>> inserts = new ArrayList<>();
+        for (long id : changedIds) {
+            List<String> row = changed.get(id);
+            Long location = locations.get(id);
+            if (location == null) {
+                if (row != null) inserts.add(row);
+                continue;
+            }
+            int pageNo = (int) (location >>> 16);
+            int slot = (int) (location & 0xFFFF);
+            ByteBuffer page = loadPage(dirty, pageNo);
+            if (row == null || !updateTuple(page, slot, encodeTuple(row))) {
+                page.putChar(PAGE_HEADER + slot * SLOT_SIZE + 2, (char) 0);
+                locations.remove(id);
+                if (row != null) inserts.add(row); // outgrew its page, move it to the end
+            }
+            fragmented.add(pageNo);
+        }
+
+        // New rows keep ascending id order at the end of the file
+        inserts.sort(Comparator.comparingLong(StorageManager::rowId));
+        for (List<String> row : inserts) {
+            byte[] tuple = encodeTuple(row);
+            int pageNo = pageCount - 1;
+            ByteBuffer page = pageNo >= 1 ? loadPage(dirty, pageNo) : null;
+            if (page == null || freeSpace(page) < tuple.length + SLOT_SIZE) {
+                pageNo = pageCount++;
+                page = newPage();
+                dirty.put(pageNo, page);
+            }
+            int slot = addTuple(page, tuple);
+            locations.put(StorageManager.rowId(row), (long) pageNo << 16 | slot);
+        }
+
+        for (Map.Entry<Integer, ByteBuffer> entry : dirty.entrySet()) {
+            writePage(channel, entry.getKey(), entry.getValue());
+        }
+        // Pages must be on disk before the header claims their checkpoint LSN
+        if (WriteAheadLog.isFsyncEnabled()) channel.force(false);
+        writePage(channel, 0, headerPage(header));
+        if (WriteAheadLog.isFsyncEnabled()) channel.force(false);
+        return true;
+    }
+
+    private ByteBuffer loadPage(Map<Integer, ByteBuffer> dirty, int pageNo) throws IOException {
+        ByteBuffer page = dirty.get(pageNo);
+        if (page == null) {
+            page = ByteBuffer.allocate(PAGE_SIZE);
+            readPage(channel, pageNo, page);
+            dirty.put(pageNo, page);
+        }
+        return page;
+    }
+
+    // Map every row id to its slot; rows without a unique id cannot be updated in place
+    private boolean buildLocations() throws IOException {
+        Map<Long, Long> result = new HashMap<>();
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        for (int pageNo = 1; pageNo < pageCount; pageNo++) {
+            readPage(channel, pageNo, page);
+            for (int slot = 0; slot < slotCount(page); slot++) {
+                if (slotLength(page, slot) == 0) continue;
+                long id = StorageManager.rowId(readTuple(page, slot));
+                if (id == -1 || result.put(id, (long) pageNo << 16 | slot) != null) return false;
+            }
+            if (deadSpace(page) >= COMPACT_THRESHOLD) {
+                fragmented.add(pageNo);
+            }
+        }
+        locations = result;
+        return true;
+    }
+
+    // Overwrite a tuple inside its own page; false if the page has no room for the new version
+    private static boolean updateTuple(ByteBuffer page, int slot, byte[] tuple) {
+        int slotPos = PAGE_HEADER + slot * SLOT_SIZE;
+        if (tuple.length <= page.getChar(slotPos + 2)) {
+            page.put(page.getChar(slotPos), tuple);
+            page.putChar(slotPos + 2, (char) tuple.length);
+            return true;
+        }
+        if (freeSpace(page) < tuple.length) {
+            compactPage(page);
+            if (freeSpace(page) < tuple.length) return false;
+        }
+        int offset = dataStart(page) - tuple.length;
+        page.put(offset, tuple);
+        page.putChar(2, (char) offset);
+        page.putChar(slotPos, (char) offset);
+        page.putChar(slotPos + 2, (char) tuple.length);
+        return true;
+    }
+
+    /**
+     * Pack the pages that updates and deletes have left fragmented and cut empty pages off the end of
+     * the file. Slot numbers are kept, so rows never move between pages. Returns the pages rewritten.
+     */
+    int compact() throws IOException {
+        if (fragmented.isEmpty()) return 0;
+        int rewritten = 0;
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        for (int pageNo : fragmented) {
+            if (pageNo >= pageCount) continue;
+            readPage(channel, pageNo, page);
+            if (deadSpace(page) < COMPACT_THRESHOLD) continue;
+            compactPage(page);
+            writePage(channel, pageNo, page);
+            rewritten++;
+        }
+        fragmented.clear();
+
+        int lastUsed = pageCount - 1;
+        while (lastUsed >= 1) {
+            readPage(channel, lastUsed, page);
+            if (slotCount(page) > 0) break;
+            lastUsed--;
+        }
+        if (lastUsed < pageCount - 1) {
+            pageCount = lastUsed + 1;
+            channel.truncate((long) pageCount * PAGE_SIZE);
+        }
+        if (rewritten > 0 && WriteAheadLog.isFsyncEnabled()) channel.force(false);
+        return rewritten;
+    }
+
+    // Move live tuples to the end of the page and drop trailing tombstone slots
+    private static void compactPage(ByteBuffer page) {
+        int count = slotCount(page);
+        byte[][] tuples = new byte[count][];
+        for (int slot = 0; slot < count; slot++) {
+            int length = slotLength(page, slot);
+            if (length > 0) {
+                tuples[slot] = new byte[length];
+                page.get(slotOffset(page, slot), tuples[slot]);
+            }
+        }
+        while (count > 0 && tuples[count - 1] == null) {
+            count--;
+        }
+        int dataStart = PAGE_SIZE;
+        for (int slot = 0; slot < count; slot++) {
+            int slotPos = PAGE_HEADER + slot * SLOT_SIZE;
+            if (tuples[slot] == null) {
+                page.putChar(slotPos, (char) 0).putChar(slotPos + 2, (char) 0);
+                continue;
+            }
+            dataStart -= tuples[slot].length;
+            page.put(dataStart, tuples[slot]);
+            page.putChar(slotPos, (char) dataStart).putChar(slotPos + 2, (char) tuples[slot].length);
+        }
+        page.putChar(0, (char) count).putChar(2, (char) dataStart);
+    }
+
+    // Bytes held by old tuple versions and tombstone slots; a page with no live rows is all dead space
+    private static int deadSpace(ByteBuffer page) {
+        int count = slotCount(page);
+        int live = 0;
+        int tombstones = 0;
+        for (int slot = 0; slot < count; slot++) {
+            int length = slotLength(page, slot);
+            live += length;
+            if (length == 0) tombstones++;
+        }
+        if (count > 0 && tombstones == count) return PAGE_SIZE;
+        return PAGE_SIZE - dataStart(page) - live + tombstones * SLOT_SIZE;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // the handle is being dropped anyway
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // Page layout ===================================================================================
+
+    private static ByteBuffer newPage() {
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        page.putChar(0, (char) 0).putChar(2, (char) PAGE_SIZE);
+        return page;
+    }
+
+    private static int slotCount(ByteBuffer page) {
+        return page.getChar(0);
+    }
+
+    private static int dataStart(ByteBuffer page) {
+        return page.getChar(2);
+    }
+
+    private static int slotOffset(ByteBuffer page, int slot) {
+        return page.getChar(PAGE_HEADER + slot * SLOT_SIZE);
+    }
+
+    private static int slotLength(ByteBuffer page, int slot) {
+        return page.getChar(PAGE_HEADER + slot * SLOT_SIZE + 2);
+    }
+
+    private static int freeSpace(ByteBuffer page) {
+        return dataStart(page) - PAGE_HEADER - slotCount(page) * SLOT_SIZE;
+    }
+
+    private static int addTuple(ByteBuffer page, byte[] tuple) {
+        int slot = slotCount(page);
+        int offset = dataStart(page) - tuple.length;
+        page.put(offset, tuple);
+        page.putChar(PAGE_HEADER + slot * SLOT_SIZE, (char) offset);
+        page.putChar(PAGE_HEADER + slot * SLOT_SIZE + 2, (char) tuple.length);
+        page.putChar(0, (char) (slot + 1)).putChar(2, (char) offset);
+        return slot;
+    }
+
+    private static int readPage(FileChannel in, int pageNo, ByteBuffer page) throws IOException {
+        page.clear();
+        long position = (long) pageNo * PAGE_SIZE;
+        int total = 0;
+        while (page.hasRemaining()) {
+            int n = in.read(page, position + total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    private static void writePage(FileChannel out, int pageNo, ByteBuffer page) throws IOException {
+        page.clear();
+        long position = (long) pageNo * PAGE_SIZE;
+        while (page.hasRemaining()) {
+            out.write(page, position + page.position());
+        }
+    }
+
+    // Tuples ========================================================================================
+
+    /** Whether {@code row} fits in one page; a larger row cannot be stored in a heap file. */
+    public static boolean fitsInPage(List<String> row) {
+        long size = varIntSize(row.size());
+        for (String value : row) {
+            int length = value.getBytes(StandardCharsets.UTF_8).length;
+            size += varIntSize(length) + length;
+        }
+        return size <= MAX_TUPLE;
+    }
+
+    private static byte[] encodeTuple(List<String> row) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarInt(out, row.size());
+        for (String value : row) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+        if (out.size() > MAX_TUPLE) {
+            throw new IOException("Row is larger than a page (" + out.size() + " bytes)");
+        }
+        return out.toByteArray();
+    }
+
+    private static List<String> readTuple(ByteBuffer page, int slot) {
+        ByteBuffer in = page.duplicate().position(slotOffset(page, slot));
+        int count = readVarInt(in);
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[readVarInt(in)];
+            in.get(bytes);
+            values[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        List<String> row = new ArrayList<>(count);
+        Collections.addAll(row, values);
+        return row;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package edu.uob;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 堆存储引擎
+ * {@link HeapFile} as a storage engine. Write-back changes the touched pages in place through an open
+ * handle per file, and a background compactor packs fragmented pages every
+ * {@code -Ddb.heap.compactIntervalMs} (default 30s).
+ *
+ * <p>All page I/O on open handles happens while holding this object's lock.
+ */
+public class HeapTableStorage implements TableStorage {
+    private static final long COMPACT_INTERVAL_MS = Long.getLong("db.heap.compactIntervalMs", 30000L);
+
+    private final Map<String, HeapFile> handles = new HashMap<>();
+    private ScheduledExecutorService compactor = null;
+
+    @Override
+    public String getExtension() {
+        return HeapFile.EXTENSION;
+    }
+
+    @Override
+    public TableFileHeader readHeader(File file) throws IOException {
+        return HeapFile.readHeader(file);
+    }
+
+    @Override
+    public RowSource open(File file) throws IOException {
+        return HeapFile.scan(file, this);
+    }
+
+    @Override
+    public boolean canStore(List<String> row) {
+        return HeapFile.fitsInPage(row);
+    }
+
+    @Override
+    public void write(File file, TableFileHeader header, List<List<String>> rows) throws IOException {
+        HeapFile.create(file, header, rows);
+    }
+
+    @Override
+    public synchronized boolean applyChanges(File file, TableFileHeader header, List<List<String>> rows,
+                                             Set<Long> changedIds) throws IOException {
+        if (!file.exists()) return false;
+        HeapFile heap = handles.get(file.getPath());
+        if (heap == null) {
+            heap = new HeapFile(file);
+            handles.put(file.getPath(), heap);
+            startCompactor();
+        }
+        try {
+            return heap.apply(header, rows, changedIds);
+        } catch (IOException e) {
+            // The handle's view of the file can no longer be trusted, reopen it next time
+            release(file);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void release(File file) {
+        HeapFile heap = handles.remove(file.getPath());
+        if (heap != null) {
+            heap.close();
+        }
+    }
+
+    /** Pack fragmented pages of every open heap file. */
+    public synchronized void compact() {
+        for (HeapFile heap : handles.values()) {
+            try {
+                heap.compact();
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to compact " + heap.getFile() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void startCompactor() {
+        if (compactor != null) {
+            return;
+        }
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heap-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::compact, COMPACT_INTERVAL_MS, COMPACT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,29 @@
+package edu.uob;
+
+/**
+ * 索引定义
+ * A CREATE INDEX index: its name (unique within the database), the table and the indexed column.
+ */
+public class IndexDefinition {
+    private final String name;
+    private final String tableName;
+    private final String columnName;
+
+    public IndexDefinition(String name, String tableName, String columnName) {
+        this.name = name;
+        this.tableName = tableName;
+        this.columnName = columnName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+}
@@ -0,0 +1,26 @@
+package edu.uob;
+
+public class IndexManager {
+    /**
+     * 索引管理
+     * Build a B+-tree index on one column of a table in the current database.
+     */
+    public static String createIndex(Session session, String indexName, String tableName, String columnName) {
+        boolean created = StorageManager.createIndex(session.getDatabase(), indexName, tableName, columnName);
+        if (!created) {
+            return ErrorHandler.generalError("Failed to create index " + indexName + ".");
+        }
+        return "";
+    }
+
+    /**
+     * Drop an index from the current database.
+     */
+    public static String dropIndex(Session session, String indexName) {
+        boolean dropped = StorageManager.dropIndex(session.getDatabase(), indexName);
+        if (!dropped) {
+            return ErrorHandler.indexNotFound(indexName);
+        }
+        return "";
+    }
+}
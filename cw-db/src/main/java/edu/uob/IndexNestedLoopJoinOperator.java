@@ -0,0 +1,111 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 索引嵌套循环连接算子
+ * Equi-join that streams the left (outer) input and looks each of its rows up in an index of the right
+ * table, so the right table is never read whole. Matches are re-checked for exact string equality, as
+ * {@link HashJoinOperator} compares, and come out in right-table order, which keeps the nested-loop order
+ * of the hash join.
+ *
+ * <p>The probe returns null when the index cannot narrow a value down. The first time that happens the
+ * right table is read once into a hash table, as the hash join builds it, and that row and every later
+ * one are matched there instead of the index.
+ */
+public class IndexNestedLoopJoinOperator implements Operator {
+    private final Operator outer;
+    private final int outerColumn;
+    private final int innerColumn;
+    private final Function<String, TableCursor> probe;
+    private final Supplier<TableCursor> innerScan;
+    private final BiFunction<List<String>, List<String>, List<String>> combiner;
+
+    private List<String> outerRow;
+    private Map<String, List<List<String>>> innerByKey; // set once a probe has given up on the index
+    private Iterator<List<String>> matches = Collections.emptyIterator();
+
+    public IndexNestedLoopJoinOperator(Operator outer, int outerColumn, int innerColumn,
+                                       Function<String, TableCursor> probe, Supplier<TableCursor> innerScan,
+                                       BiFunction<List<String>, List<String>, List<String>> combiner) {
+        this.outer = outer;
+        this.outerColumn = outerColumn;
+        this.innerColumn = innerColumn;
+        this.probe = probe;
+        this.innerScan = innerScan;
+        this.combiner = combiner;
+    }
+
+    @Override
+    public void open() {
+        outer.open();
+        matches = Collections.emptyIterator();
+        innerByKey = null;
+    }
+
+    @Override
+    public List<String> next() {
+        while (!matches.hasNext()) {
+            outerRow = outer.next();
+            if (outerRow == null) {
+                return null;
+            }
+            matches = lookup(outerRow).iterator();
+        }
+        return combiner.apply(outerRow, matches.next());
+    }
+
+    private List<List<String>> lookup(List<String> row) {
+        if (row.size() <= outerColumn) {
+            return List.of();
+        }
+        String key = row.get(outerColumn);
+        TableCursor cursor = innerByKey == null ? probe.apply(key) : null;
+        if (cursor == null) {
+            if (innerByKey == null) {
+                innerByKey = buildInner();
+            }
+            return innerByKey.getOrDefault(key, List.of());
+        }
+        List<List<String>> found = new ArrayList<>();
+        try (cursor) {
+            while (cursor.hasNext()) {
+                List<String> candidate = cursor.next();
+                if (candidate.size() > innerColumn && candidate.get(innerColumn).equals(key)) {
+                    found.add(candidate);
+                }
+            }
+        }
+        // table order is id order
+        found.sort(Comparator.comparingLong(StorageManager::rowId));
+        return found;
+    }
+
+    // Right rows by key, each list in table order
+    private Map<String, List<List<String>>> buildInner() {
+        Map<String, List<List<String>>> byKey = new HashMap<>();
+        try (TableCursor rows = innerScan.get()) {
+            while (rows.hasNext()) {
+                List<String> candidate = rows.next();
+                if (candidate.size() > innerColumn) {
+                    byKey.computeIfAbsent(candidate.get(innerColumn), k -> new ArrayList<>()).add(candidate);
+                }
+            }
+        }
+        return byKey;
+    }
+
+    @Override
+    public void close() {
+        outer.close();
+    }
+}
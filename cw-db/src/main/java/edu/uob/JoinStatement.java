@@ -5,12 +5,20 @@ public class JoinStatement implements SQLStatement {
     private String table2;
     private String attribute1;
     private String attribute2;
+    private int limit;      // -1 表示没有 LIMIT
+    private int offset;
 
     public JoinStatement(String table1, String table2, String attribute1, String attribute2) {
+        this(table1, table2, attribute1, attribute2, -1, 0);
+    }
+
+    public JoinStatement(String table1, String table2, String attribute1, String attribute2, int limit, int offset) {
         this.table1 = table1;
         this.table2 = table2;
         this.attribute1 = attribute1;
         this.attribute2 = attribute2;
+        this.limit = limit;
+        this.offset = offset;
     }
 
     public String getTable1() {
@@ -28,4 +36,12 @@ public class JoinStatement implements SQLStatement {
     public String getAttribute2() {
         return attribute2;
     }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
 }
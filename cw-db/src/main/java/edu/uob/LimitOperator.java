@@ -0,0 +1,55 @@
+package edu.uob;
+
+import java.util.List;
+
+/**
+ * 分页算子
+ * LIMIT / OFFSET: skips the first {@code offset} rows and passes on at most {@code limit} after them.
+ * Once the limit is reached the child is not asked for another row, so the scan below stops early.
+ */
+public class LimitOperator implements Operator {
+    private final Operator child;
+    private final int offset;
+    private final int limit;
+    private int skipped;
+    private int returned;
+
+    /** @param limit the most rows to return, or -1 for no limit */
+    public LimitOperator(Operator child, int offset, int limit) {
+        this.child = child;
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    @Override
+    public void open() {
+        skipped = 0;
+        returned = 0;
+        if (limit != 0) {
+            child.open();
+        }
+    }
+
+    @Override
+    public List<String> next() {
+        if (limit != -1 && returned >= limit) {
+            return null;
+        }
+        while (skipped < offset) {
+            if (child.next() == null) {
+                return null;
+            }
+            skipped++;
+        }
+        List<String> row = child.next();
+        if (row != null) {
+            returned++;
+        }
+        return row;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
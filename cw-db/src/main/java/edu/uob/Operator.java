@@ -0,0 +1,31 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 物理算子
+ * A pull-based (Volcano) query operator: {@link #open()} once, then {@link #next()} until it returns
+ * null, then {@link #close()}. Operators are chained into a plan, so rows flow from the scan to the
+ * output one at a time (or one batch at a time) without intermediate lists.
+ */
+public interface Operator extends AutoCloseable {
+
+    void open();
+
+    /** The next row, or null when there are no more. */
+    List<String> next();
+
+    /** Up to {@code max} next rows; empty when there are no more. Scans override this to avoid copying. */
+    default List<List<String>> nextBatch(int max) {
+        List<List<String>> batch = new ArrayList<>();
+        List<String> row;
+        while (batch.size() < max && (row = next()) != null) {
+            batch.add(row);
+        }
+        return batch;
+    }
+
+    @Override
+    void close();
+}
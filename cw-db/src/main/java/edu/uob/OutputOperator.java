@@ -0,0 +1,154 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 输出算子
+ * The root of a query plan: formats the rows it pulls as text, one line per row with values separated
+ * by " | ", under an optional header line. Leading and trailing whitespace of the whole result is
+ * dropped as it is written, the same as trimming the finished string, so rows can go straight to a
+ * connection instead of being collected first.
+ */
+public class OutputOperator {
+    private final Operator child;
+    private final String header;
+    private final List<String> columnTypes;
+    private final String emptyMessage;
+
+    /**
+     * @param header       first line, or null for none
+     * @param emptyMessage written instead of everything else when there are no rows, or null to write
+     *                     the header alone
+     */
+    public OutputOperator(Operator child, String header, String emptyMessage) {
+        this(child, header, null, emptyMessage);
+    }
+
+    /** @param columnTypes declared type of each header column, or null if none are known */
+    public OutputOperator(Operator child, String header, List<String> columnTypes, String emptyMessage) {
+        this.child = child;
+        this.header = header;
+        this.columnTypes = columnTypes;
+        this.emptyMessage = emptyMessage;
+    }
+
+    Operator getChild() {
+        return child;
+    }
+
+    /** The header split into column names; empty if there is no header. */
+    List<String> getColumnNames() {
+        return header == null ? Collections.emptyList() : Arrays.asList(header.split(" \\| ", -1));
+    }
+
+    /** The declared type of each column, null where it is not known. */
+    List<String> getColumnTypes() {
+        List<String> types = new ArrayList<>(getColumnNames().size());
+        for (int i = 0; i < getColumnNames().size(); i++) {
+            types.add(columnTypes == null || i >= columnTypes.size() ? null : columnTypes.get(i));
+        }
+        return types;
+    }
+
+    String getEmptyMessage() {
+        return emptyMessage;
+    }
+
+    /** Run the plan and write the result to {@code out}. */
+    public void writeTo(Appendable out) throws IOException {
+        writeTo(out, "");
+    }
+
+    /**
+     * Run the plan and write the result to {@code out}, after {@code prefix}. Nothing at all is written
+     * if the plan fails before producing its first row; if it fails later, the rows written so far are
+     * followed by a line break and the exception is rethrown.
+     */
+    public void writeTo(Appendable out, String prefix) throws IOException {
+        try (Operator plan = child) {
+            plan.open();
+            List<String> row = plan.next();
+            out.append(prefix);
+            if (row == null && emptyMessage != null) {
+                out.append(emptyMessage);
+                return;
+            }
+            try {
+                writeRows(plan, row, new TrimmingAppendable(out));
+            } catch (RuntimeException e) {
+                out.append('\n');
+                throw e;
+            }
+        }
+    }
+
+    private void writeRows(Operator plan, List<String> first, TrimmingAppendable out) throws IOException {
+        boolean firstLine = true;
+        if (header != null) {
+            out.append(header);
+            firstLine = false;
+        }
+        for (List<String> row = first; row != null; row = plan.next()) {
+            if (!firstLine) {
+                out.append("\n");
+            }
+            firstLine = false;
+            for (int i = 0; i < row.size(); i++) {
+                if (i > 0) {
+                    out.append(" | ");
+                }
+                out.append(String.valueOf(row.get(i)));
+            }
+        }
+    }
+
+    /** Run the plan and return the result as a string. */
+    public String run() {
+        StringBuilder out = new StringBuilder();
+        try {
+            writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    // String.trim() on the fly: whitespace (any char <= ' ') is held back until something follows it
+    private static final class TrimmingAppendable {
+        private final Appendable out;
+        private final StringBuilder pending = new StringBuilder();
+        private boolean started = false;
+
+        TrimmingAppendable(Appendable out) {
+            this.out = out;
+        }
+
+        void append(CharSequence text) throws IOException {
+            int end = text.length();
+            while (end > 0 && text.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (end == 0) {
+                if (started) pending.append(text);
+                return;
+            }
+            int start = 0;
+            if (!started) {
+                while (text.charAt(start) <= ' ') {
+                    start++;
+                }
+            } else if (pending.length() > 0) {
+                out.append(pending);
+                pending.setLength(0);
+            }
+            out.append(text, start, end);
+            pending.append(text, end, text.length());
+            started = true;
+        }
+    }
+}
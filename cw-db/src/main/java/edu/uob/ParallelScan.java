@@ -0,0 +1,89 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+/**
+ * 并行扫描
+ * Filters the rows of a scan on a fork/join pool. {@link FilterOperator} pulls rows in large batches; a
+ * batch of at least {@code -Ddb.scan.parallelThreshold} rows (default 10000) is split in halves until the
+ * pieces are small, the pieces are filtered in parallel and their results joined back left to right, so
+ * rows come out in the same order as a serial scan. Smaller batches, or {@code -Ddb.scan.parallelism=1},
+ * stay on the calling thread.
+ *
+ * <p>The pool has {@code -Ddb.scan.parallelism} workers (default: one per core) and is only created
+ * once a scan is large enough to use it.
+ */
+public class ParallelScan {
+    private static final int PARALLELISM = Math.max(1,
+            Integer.getInteger("db.scan.parallelism", Runtime.getRuntime().availableProcessors()));
+    private static final int THRESHOLD = Math.max(1, Integer.getInteger("db.scan.parallelThreshold", 10000));
+    // File scans read this many rows ahead; resident tables hand out views, so this costs them nothing
+    static final int BATCH_ROWS = Math.max(THRESHOLD, 1 << 16);
+    private static final int MIN_PIECE_ROWS = 1024;
+    private static ForkJoinPool pool = null;
+
+    /** The rows of a batch that satisfy the predicate, in batch order. */
+    public static List<List<String>> filter(List<List<String>> batch, Predicate<List<String>> matches) {
+        if (PARALLELISM > 1 && batch.size() >= THRESHOLD) {
+            int pieceRows = Math.max(MIN_PIECE_ROWS, batch.size() / (PARALLELISM * 4));
+            return getPool().invoke(new FilterTask(batch, 0, batch.size(), pieceRows, matches));
+        }
+        List<List<String>> result = new ArrayList<>();
+        filterRange(batch, 0, batch.size(), matches, result);
+        return result;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(PARALLELISM);
+        }
+        return pool;
+    }
+
+    private static void filterRange(List<List<String>> rows, int from, int to, Predicate<List<String>> matches,
+                                    List<List<String>> out) {
+        for (int i = from; i < to; i++) {
+            List<String> row = rows.get(i);
+            if (matches.test(row)) {
+                out.add(row);
+            }
+        }
+    }
+
+    private static class FilterTask extends RecursiveTask<List<List<String>>> {
+        private static final long serialVersionUID = 1L;
+        private final transient List<List<String>> rows;
+        private final int from;
+        private final int to;
+        private final int pieceRows;
+        private final transient Predicate<List<String>> matches;
+
+        FilterTask(List<List<String>> rows, int from, int to, int pieceRows, Predicate<List<String>> matches) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.pieceRows = pieceRows;
+            this.matches = matches;
+        }
+
+        @Override
+        protected List<List<String>> compute() {
+            if (to - from <= pieceRows) {
+                List<List<String>> out = new ArrayList<>();
+                filterRange(rows, from, to, matches, out);
+                return out;
+            }
+            int middle = (from + to) >>> 1;
+            FilterTask left = new FilterTask(rows, from, middle, pieceRows, matches);
+            left.fork();
+            List<List<String>> right = new FilterTask(rows, middle, to, pieceRows, matches).compute();
+            List<List<String>> out = left.join();
+            out.addAll(right);
+            return out;
+        }
+    }
+}
@@ -31,11 +31,31 @@ public class Parser {
             return parseJoin(tokens);
         } else if ("ALTER".equals(firstToken)) {
             return parseAlter(tokens);
+        } else if ("ANALYZE".equals(firstToken)) {
+            return parseAnalyze(tokens);
+        } else if ("SET".equals(firstToken)) {
+            return parseSet(tokens);
         } else {
             throw new Exception(ErrorHandler.syntaxError());
         }
     }
 
+    // ANALYZE <table>
+    private AnalyzeStatement parseAnalyze(List<String> tokens) throws Exception {
+        if (tokens.size() != 2) {
+            throw new Exception(ErrorHandler.syntaxError());
+        }
+        return new AnalyzeStatement(tokens.get(1));
+    }
+
+    // SET <name> = <value>
+    private SetStatement parseSet(List<String> tokens) throws Exception {
+        if (tokens.size() != 4 || !tokens.get(2).equals("=")) {
+            throw new Exception(ErrorHandler.syntaxError());
+        }
+        return new SetStatement(tokens.get(1).toUpperCase(), tokens.get(3).toUpperCase());
+    }
+
     private SQLStatement parseCreate(List<String> tokens) throws Exception {
         if (tokens.size() < 3) {
             throw new Exception(ErrorHandler.syntaxError());
@@ -49,11 +69,22 @@ public class Parser {
             return new CreateDatabaseStatement(dbName);
         } else if ("TABLE".equals(second)) {
             return parseCreateTable(tokens);
+        } else if ("INDEX".equals(second)) {
+            return parseCreateIndex(tokens);
         } else {
             throw new Exception(ErrorHandler.syntaxError());
         }
     }
 
+    // CREATE INDEX <name> ON <table> ( <column> )
+    private CreateIndexStatement parseCreateIndex(List<String> tokens) throws Exception {
+        if (tokens.size() != 8 || !tokens.get(3).equals("ON") || !tokens.get(5).equals("(")
+                || !tokens.get(7).equals(")")) {
+            throw new Exception(ErrorHandler.syntaxError());
+        }
+        return new CreateIndexStatement(tokens.get(2), tokens.get(4), tokens.get(6));
+    }
+
     private CreateTableStatement parseCreateTable(List<String> tokens) throws Exception {
         if (tokens.size() < 4) {
             throw new Exception(ErrorHandler.syntaxError());
@@ -170,6 +201,11 @@ public class Parser {
                 throw new Exception(ErrorHandler.syntaxError());
             }
             return new DropTableStatement(name);
+        } else if ("INDEX".equals(type)) {
+            if (tokens.size() != 3) {
+                throw new Exception(ErrorHandler.syntaxError());
+            }
+            return new DropIndexStatement(name);
         } else {
             throw new Exception(ErrorHandler.syntaxError());
         }
@@ -217,6 +253,8 @@ public class Parser {
         if (tokens.size() < 4) {
             throw new Exception(ErrorHandler.syntaxError());
         }
+        int[] page = parseLimit(tokens);
+        int end = page[0];
         List<String> selectColumns = new ArrayList<>();
         int index = 1;
         if (tokens.get(index).equals("*")) {
@@ -228,23 +266,103 @@ public class Parser {
                     index++;
                     continue;
                 }
+                if (index + 1 < tokens.size() && tokens.get(index + 1).equals("(")) {
+                    selectColumns.add(parseAggregate(tokens, index));
+                    index += 4;
+                    continue;
+                }
                 selectColumns.add(tokens.get(index));
                 index++;
             }
         }
-        if (index >= tokens.size() || !tokens.get(index).equals("FROM")) {
+        if (index >= end || !tokens.get(index).equals("FROM")) {
             throw new Exception(ErrorHandler.syntaxError());
         }
         index++;
-        if (index >= tokens.size()) {
+        if (index >= end) {
             throw new Exception(ErrorHandler.syntaxError());
         }
         String tableName = tokens.get(index++);
+
+        // 排序 a trailing "ORDER BY column [ASC|DESC]", before any LIMIT
+        String orderColumn = null;
+        boolean descending = false;
+        int orderIndex = tokens.subList(index, end).indexOf("ORDER");
+        if (orderIndex != -1) {
+            orderIndex += index;
+            int orderEnd = end;
+            if (tokens.get(end - 1).equals("ASC") || tokens.get(end - 1).equals("DESC")) {
+                descending = tokens.get(end - 1).equals("DESC");
+                orderEnd--;
+            }
+            if (orderEnd - orderIndex != 3 || !tokens.get(orderIndex + 1).equals("BY")) {
+                throw new Exception(ErrorHandler.syntaxError());
+            }
+            orderColumn = tokens.get(orderIndex + 2);
+            end = orderIndex;
+        }
+
+        // 分组 "GROUP BY column", before any ORDER BY
+        String groupColumn = null;
+        int groupIndex = tokens.subList(index, end).indexOf("GROUP");
+        if (groupIndex != -1) {
+            groupIndex += index;
+            if (end - groupIndex != 3 || !tokens.get(groupIndex + 1).equals("BY") || selectColumns == null) {
+                throw new Exception(ErrorHandler.syntaxError());
+            }
+            groupColumn = tokens.get(groupIndex + 2);
+            end = groupIndex;
+        }
+
         Condition condition = null;
-        if (index < tokens.size() && tokens.get(index).equals("WHERE")) {
-            condition = parseCondition(tokens, index + 1, tokens.size());
+        if (index < end && tokens.get(index).equals("WHERE")) {
+            condition = parseCondition(tokens, index + 1, end);
+        }
+        return new SelectStatement(tableName, selectColumns, condition, groupColumn, orderColumn, descending,
+                page[1], page[2]);
+    }
+
+    // 聚合函数 FUNCTION ( column ) or COUNT ( * ), kept as the text of a SELECT item
+    private String parseAggregate(List<String> tokens, int index) throws Exception {
+        if (index + 3 >= tokens.size() || !tokens.get(index + 3).equals(")")) {
+            throw new Exception(ErrorHandler.syntaxError());
+        }
+        String function = tokens.get(index).toUpperCase();
+        String argument = tokens.get(index + 2);
+        Aggregate aggregate = Aggregate.parse(function + "(" + argument + ")");
+        if (aggregate == null || (aggregate.getColumn() == null && aggregate.getFunction() != Aggregate.Function.COUNT)) {
+            throw new Exception(ErrorHandler.syntaxError());
+        }
+        return aggregate.toString();
+    }
+
+    // 分页 a trailing "LIMIT n" or "LIMIT n OFFSET m": {end of the rest of the statement, limit (-1 if none), offset}
+    private int[] parseLimit(List<String> tokens) throws Exception {
+        int size = tokens.size();
+        int[] page = {size, -1, 0};
+        if (size >= 4 && tokens.get(size - 4).equals("LIMIT") && tokens.get(size - 2).equals("OFFSET")) {
+            page = new int[] {size - 4, parseCount(tokens.get(size - 3)), parseCount(tokens.get(size - 1))};
+        } else if (size >= 2 && tokens.get(size - 2).equals("LIMIT")) {
+            page = new int[] {size - 2, parseCount(tokens.get(size - 1)), 0};
+        }
+        // LIMIT / OFFSET anywhere else is misplaced
+        for (int i = 0; i < page[0]; i++) {
+            if (tokens.get(i).equals("LIMIT") || tokens.get(i).equals("OFFSET")) {
+                throw new Exception(ErrorHandler.syntaxError());
+            }
+        }
+        return page;
+    }
+
+    private int parseCount(String token) throws Exception {
+        if (!token.matches("[0-9]+")) {
+            throw new Exception(ErrorHandler.syntaxError());
+        }
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new Exception(ErrorHandler.syntaxError());
         }
-        return new SelectStatement(tableName, selectColumns, condition);
     }
 
     private UpdateStatement parseUpdate(List<String> tokens) throws Exception {
@@ -379,7 +497,8 @@ public class Parser {
     }
 
     private JoinStatement parseJoin(List<String> tokens) throws Exception {
-        if (tokens.size() != 8) {
+        int[] page = parseLimit(tokens);
+        if (page[0] != 8) {
             throw new Exception(ErrorHandler.syntaxError());
         }
         if (!tokens.get(2).equals("AND")) {
@@ -395,7 +514,7 @@ public class Parser {
         String table2 = tokens.get(3);
         String attr1 = tokens.get(5);
         String attr2 = tokens.get(7);
-        return new JoinStatement(table1, table2, attr1, attr2);
+        return new JoinStatement(table1, table2, attr1, attr2, page[1], page[2]);
     }
 
     private AlterTableStatement parseAlter(List<String> tokens) throws Exception {
@@ -0,0 +1,119 @@
+package edu.uob;
+
+/**
+ * 物理计划
+ * What {@link QueryPlanner} chose for a statement, for {@link QueryExecutor} to build operators from: how
+ * each table is read, the order the WHERE terms are evaluated in, and for a JOIN the algorithm and the
+ * side that is held in memory. {@link #toString()} describes the plan in one line.
+ */
+public class PhysicalPlan {
+    public enum AccessPath { FULL_SCAN, PRIMARY_KEY_LOOKUP, INDEX_SCAN }
+
+    public enum JoinAlgorithm { HASH_JOIN, INDEX_NESTED_LOOP }
+
+    /** How one table is read, and the condition its rows are then filtered by. */
+    public static final class TableAccess {
+        private final String tableName;
+        private final AccessPath path;
+        private final int column;
+        private final SimpleCondition term;
+        private final Condition filter;
+        private final double estimatedRows;
+
+        public TableAccess(String tableName, AccessPath path, int column, SimpleCondition term, Condition filter,
+                           double estimatedRows) {
+            this.tableName = tableName;
+            this.path = path;
+            this.column = column;
+            this.term = term;
+            this.filter = filter;
+            this.estimatedRows = estimatedRows;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public AccessPath getPath() {
+            return path;
+        }
+
+        /** Position of the looked-up column in the schema, or -1 for a full scan. */
+        public int getColumn() {
+            return column;
+        }
+
+        /** The WHERE term the index is probed with; null for a full scan or the inner side of a join. */
+        public SimpleCondition getTerm() {
+            return term;
+        }
+
+        /** The whole WHERE condition with its terms reordered, or null if there is none. */
+        public Condition getFilter() {
+            return filter;
+        }
+
+        public double getEstimatedRows() {
+            return estimatedRows;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(path.toString()).append(' ').append(tableName);
+            if (term != null) {
+                text.append(" ON ").append(term);
+            }
+            if (filter != null) {
+                text.append(" FILTER ").append(filter);
+            }
+            return text.append(String.format(" (rows=%.0f)", estimatedRows)).toString();
+        }
+    }
+
+    private final TableAccess access;
+    private final TableAccess inner;
+    private final JoinAlgorithm joinAlgorithm;
+    private final boolean buildLeft;
+
+    /** The plan of a statement that reads one table. */
+    public PhysicalPlan(TableAccess access) {
+        this(access, null, null, false);
+    }
+
+    /** The plan of a JOIN; {@code buildLeft} only matters to a hash join. */
+    public PhysicalPlan(TableAccess outer, TableAccess inner, JoinAlgorithm joinAlgorithm, boolean buildLeft) {
+        this.access = outer;
+        this.inner = inner;
+        this.joinAlgorithm = joinAlgorithm;
+        this.buildLeft = buildLeft;
+    }
+
+    /** The table read, or the left (outer) table of a join. */
+    public TableAccess getAccess() {
+        return access;
+    }
+
+    /** The right (inner) table of a join, or null. */
+    public TableAccess getInner() {
+        return inner;
+    }
+
+    /** The join algorithm, or null if this is not a join. */
+    public JoinAlgorithm getJoinAlgorithm() {
+        return joinAlgorithm;
+    }
+
+    /** Whether a hash join builds its table from the left input rather than the right one. */
+    public boolean isBuildLeft() {
+        return buildLeft;
+    }
+
+    @Override
+    public String toString() {
+        if (joinAlgorithm == null) {
+            return access.toString();
+        }
+        String build = joinAlgorithm == JoinAlgorithm.HASH_JOIN ? (buildLeft ? " BUILD LEFT" : " BUILD RIGHT") : "";
+        return joinAlgorithm + build + " [" + access + "] [" + inner + "]";
+    }
+}
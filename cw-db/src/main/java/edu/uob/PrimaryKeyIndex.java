@@ -0,0 +1,224 @@
+package edu.uob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 主键索引
+ * Hash indexes over the primary-key columns of one resident table: the implicit {@code id} column maps
+ * straight to the row, every other primary-key column maps its key to a row id.
+ *
+ * <p>Keys are matched the way {@code WHERE col == value} compares values (surrounding quotes removed,
+ * case ignored), so a key is a duplicate exactly when such a query would already find a row.
+ *
+ * <p>The user-key maps are saved next to the table file ({@code <table>.pk}) when the table leaves
+ * memory, together with the checkpoint LSN they belong to, and reloaded instead of rehashed when
+ * that LSN still matches. The id map always comes from the row pass that loads the table anyway.
+ */
+public class PrimaryKeyIndex {
+    public static final String EXTENSION = ".pk";
+    private static final int MAGIC = 0x44425049; // "DBPI"
+
+    private final Map<Long, List<String>> rowsById;
+    private final int[] keyColumns;
+    private final String[] keyNames;
+    private final List<Map<String, Long>> keys;
+    // false once a key column turned out to hold duplicates (tables from before the check worked)
+    private final boolean[] unique;
+    // false if two rows share an id (legacy rows without a usable id), so ids cannot find rows
+    private boolean idsUnique = true;
+    private long savedLsn = -1;
+
+    private PrimaryKeyIndex(List<ColumnDefinition> schema, int rowCount) {
+        rowsById = new HashMap<>(Math.max(16, rowCount * 2));
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 1; i < schema.size(); i++) {
+            if (schema.get(i).isPrimaryKey()) columns.add(i);
+        }
+        keyColumns = new int[columns.size()];
+        keyNames = new String[columns.size()];
+        keys = new ArrayList<>();
+        unique = new boolean[columns.size()];
+        for (int k = 0; k < keyColumns.length; k++) {
+            keyColumns[k] = columns.get(k);
+            keyNames[k] = schema.get(keyColumns[k]).getName();
+            keys.add(new HashMap<>(Math.max(16, rowCount * 2)));
+            unique[k] = true;
+        }
+    }
+
+    /** Index every row of a table. */
+    public static PrimaryKeyIndex build(List<ColumnDefinition> schema, List<List<String>> rows) {
+        PrimaryKeyIndex index = new PrimaryKeyIndex(schema, rows.size());
+        for (List<String> row : rows) {
+            index.add(row);
+        }
+        return index;
+    }
+
+    /**
+     * Index the rows of a freshly loaded table, reusing the saved key maps if they were written at the
+     * same checkpoint as the table file.
+     */
+    public static PrimaryKeyIndex load(File file, List<ColumnDefinition> schema, List<List<String>> rows,
+                                       long checkpointLsn) {
+        PrimaryKeyIndex index = new PrimaryKeyIndex(schema, rows.size());
+        if (index.keyColumns.length == 0 || !index.read(file, checkpointLsn, rows.size())) {
+            return build(schema, rows);
+        }
+        for (List<String> row : rows) {
+            index.putRow(row);
+        }
+        return index;
+    }
+
+    private boolean read(File file, long checkpointLsn, int rowCount) {
+        if (!file.exists()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readLong() != checkpointLsn || in.readInt() != rowCount) return false;
+            int columnCount = in.readInt();
+            if (columnCount != keyColumns.length) return false;
+            for (int k = 0; k < columnCount; k++) {
+                if (!in.readUTF().equals(keyNames[k])) return false;
+                unique[k] = in.readBoolean();
+                int entries = in.readInt();
+                Map<String, Long> map = keys.get(k);
+                for (int i = 0; i < entries; i++) {
+                    map.put(in.readUTF(), in.readLong());
+                }
+            }
+            savedLsn = checkpointLsn;
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Save the key maps; only meaningful while the table file is clean at {@code checkpointLsn}. */
+    public void write(File file, long checkpointLsn) throws IOException {
+        if (savedLsn == checkpointLsn) return;
+        if (keyColumns.length == 0) {
+            if (file.exists() && !file.delete()) throw new IOException("Could not remove " + file);
+            return;
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(checkpointLsn);
+            out.writeInt(rowsById.size());
+            out.writeInt(keyColumns.length);
+            for (int k = 0; k < keyColumns.length; k++) {
+                out.writeUTF(keyNames[k]);
+                out.writeBoolean(unique[k]);
+                out.writeInt(keys.get(k).size());
+                for (Map.Entry<String, Long> entry : keys.get(k).entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+            }
+        }
+        if (!tmpFile.renameTo(file)) throw new IOException("Could not replace " + file);
+        savedLsn = checkpointLsn;
+    }
+
+    // Maintenance ===================================================================================
+
+    public void add(List<String> row) {
+        long id = StorageManager.rowId(row);
+        putRow(row);
+        for (int k = 0; k < keyColumns.length; k++) {
+            if (keyColumns[k] >= row.size()) continue;
+            Long previous = keys.get(k).put(normalise(row.get(keyColumns[k])), id);
+            if (previous != null && previous != id) unique[k] = false;
+        }
+    }
+
+    private void putRow(List<String> row) {
+        List<String> previous = rowsById.put(StorageManager.rowId(row), row);
+        if (previous != null && previous != row) idsUnique = false;
+    }
+
+    public void remove(List<String> row) {
+        long id = StorageManager.rowId(row);
+        rowsById.remove(id);
+        for (int k = 0; k < keyColumns.length; k++) {
+            if (keyColumns[k] >= row.size()) continue;
+            keys.get(k).remove(normalise(row.get(keyColumns[k])), id);
+        }
+    }
+
+    // Lookups =======================================================================================
+
+    public List<String> getRow(long id) {
+        return rowsById.get(id);
+    }
+
+    /** Whether every row has its own id, i.e. whether {@link #getRow} finds the right one. */
+    public boolean hasUniqueIds() {
+        return idsUnique;
+    }
+
+    /** Whether some row already holds {@code value} in the given primary-key column. */
+    public boolean containsKey(int column, String value) {
+        if (column == 0) {
+            return !lookup(0, value).isEmpty();
+        }
+        for (int k = 0; k < keyColumns.length; k++) {
+            if (keyColumns[k] == column) return keys.get(k).containsKey(normalise(value));
+        }
+        return false;
+    }
+
+    /** Whether {@link #lookup} can answer equality on this column. */
+    public boolean canLookup(int column) {
+        if (!idsUnique) return false;
+        if (column == 0) return true;
+        for (int k = 0; k < keyColumns.length; k++) {
+            if (keyColumns[k] == column) return unique[k];
+        }
+        return false;
+    }
+
+    /** Rows whose value in {@code column} equals {@code value} under WHERE semantics (at most one). */
+    public List<List<String>> lookup(int column, String value) {
+        String key = normalise(value);
+        Long id = null;
+        if (column == 0) {
+            // ids are always stored in canonical form, anything else cannot match
+            try {
+                long parsed = Long.parseLong(key);
+                if (Long.toString(parsed).equals(key)) id = parsed;
+            } catch (NumberFormatException e) {
+                return List.of();
+            }
+        } else {
+            for (int k = 0; k < keyColumns.length; k++) {
+                if (keyColumns[k] == column) id = keys.get(k).get(key);
+            }
+        }
+        List<String> row = id == null ? null : rowsById.get(id);
+        return row == null ? List.of() : List.of(row);
+    }
+
+    // Same rules as String.equalsIgnoreCase, applied after stripping surrounding quotes
+    static String normalise(String value) {
+        if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        StringBuilder key = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            key.append(Character.toLowerCase(Character.toUpperCase(value.charAt(i))));
+        }
+        return key.toString();
+    }
+}
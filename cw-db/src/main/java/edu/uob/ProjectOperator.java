@@ -0,0 +1,41 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 投影算子
+ * Keeps the given columns, in the given order; a column a short row does not have comes out empty.
+ */
+public class ProjectOperator implements Operator {
+    private final Operator child;
+    private final List<Integer> columns;
+
+    public ProjectOperator(Operator child, List<Integer> columns) {
+        this.child = child;
+        this.columns = columns;
+    }
+
+    @Override
+    public void open() {
+        child.open();
+    }
+
+    @Override
+    public List<String> next() {
+        List<String> row = child.next();
+        if (row == null) {
+            return null;
+        }
+        List<String> projected = new ArrayList<>(columns.size());
+        for (int column : columns) {
+            projected.add(column < row.size() ? row.get(column) : "");
+        }
+        return projected;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
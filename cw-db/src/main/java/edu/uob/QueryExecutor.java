@@ -1,33 +1,89 @@
 package edu.uob;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public class QueryExecutor {
 
-    public static String executeSelect(SelectStatement stmt) {
+    public static String executeSelect(Session session, SelectStatement stmt) {
+        return planSelect(session, stmt, QueryPlanner.plan(session, stmt)).run();
+    }
+
+    /** The operators of a SELECT as the planner chose to run it, ready to be written out. */
+    public static OutputOperator planSelect(Session session, SelectStatement stmt, PhysicalPlan physical) {
         String tableName = stmt.getTableName();
         List<String> selectColumns = stmt.getColumns();
-        Condition condition = stmt.getCondition();
+        PhysicalPlan.TableAccess access = physical.getAccess();
 
-        List<ColumnDefinition> schema = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), tableName);
-        List<List<String>> records = StorageManager.readTableRecords(DatabaseManager.getCurrentDatabase(), tableName);
-        List<List<String>> resultRecords = new ArrayList<>();
+        List<ColumnDefinition> schema = StorageManager.readTableSchema(session.getDatabase(), tableName);
 
-        for (List<String> record : records) {
-            if (condition == null || evaluateCondition(condition, record, schema)) {
-                resultRecords.add(record);
+        // 执行计划 Scan -> Filter -> Sort -> Limit -> Project -> Output; only the output text is built up in
+        // memory, and without ORDER BY a LIMIT stops the scan once it has its rows
+        Operator plan = scan(session, access);
+        if (access.getFilter() != null) {
+            plan = new FilterOperator(plan, ConditionCompiler.compile(access.getFilter(), schema));
+        }
+        if (stmt.isAggregate()) {
+            return planAggregate(stmt, schema, plan);
+        }
+        if (stmt.getOrderColumn() != null) {
+            plan = sort(stmt, plan, findAttributeIndex(stmt.getOrderColumn(), schema));
+        }
+        List<Integer> colIndexes = getSelectedColumnIndexes(selectColumns, schema);
+        plan = new ProjectOperator(limit(plan, stmt.getLimit(), stmt.getOffset()), colIndexes);
+        List<String> types = new ArrayList<>();
+        for (int index : colIndexes) {
+            types.add(schema.get(index).getType());
+        }
+        return new OutputOperator(plan, selectHeader(schema, colIndexes), types, "Empty set.");
+    }
+
+    // 聚合 ... -> HashAggregate -> Sort -> Limit -> Project; an aggregated row is the group value followed by
+    // one value per aggregate, and the projection puts them in SELECT order
+    private static OutputOperator planAggregate(SelectStatement stmt, List<ColumnDefinition> schema, Operator input) {
+        int groupColumn = stmt.getGroupColumn() == null ? -1 : findAttributeIndex(stmt.getGroupColumn(), schema);
+        List<Aggregate.Function> functions = new ArrayList<>();
+        List<Integer> columns = new ArrayList<>();
+        List<Integer> outputIndexes = new ArrayList<>();
+        List<String> headers = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        for (String item : stmt.getColumns()) {
+            Aggregate aggregate = Aggregate.parse(item);
+            if (aggregate == null) {
+                outputIndexes.add(0);
+                headers.add(schema.get(groupColumn).getName());
+                types.add(schema.get(groupColumn).getType());
+            } else {
+                outputIndexes.add(1 + functions.size());
+                functions.add(aggregate.getFunction());
+                int column = aggregate.getColumn() == null ? -1 : findAttributeIndex(aggregate.getColumn(), schema);
+                columns.add(column);
+                headers.add(item);
+                types.add(aggregateType(aggregate.getFunction(), column == -1 ? null : schema.get(column).getType()));
             }
         }
+        Operator plan = new HashAggregateOperator(input, groupColumn, functions, columns);
+        if (stmt.getOrderColumn() != null) {
+            plan = sort(stmt, plan, 0);
+        }
+        plan = new ProjectOperator(limit(plan, stmt.getLimit(), stmt.getOffset()), outputIndexes);
+        return new OutputOperator(plan, String.join(" | ", headers), types, "Empty set.");
+    }
 
-        if (resultRecords.isEmpty()) {
-            return "Empty set.";
+    // COUNT counts, AVG divides, the others keep the type of their column
+    private static String aggregateType(Aggregate.Function function, String columnType) {
+        if (function == Aggregate.Function.COUNT) {
+            return "INT";
         }
+        return function == Aggregate.Function.AVG ? "DOUBLE" : columnType;
+    }
 
-        List<Integer> colIndexes = getSelectedColumnIndexes(selectColumns, schema);
-        return buildSelectOutput(schema, resultRecords, colIndexes);
+    private static Operator sort(SelectStatement stmt, Operator plan, int column) {
+        long topN = stmt.getLimit() == -1 ? -1 : (long) stmt.getOffset() + stmt.getLimit();
+        return new SortOperator(plan, column, stmt.isDescending(), topN);
     }
 
     private static List<Integer> getSelectedColumnIndexes(List<String> selectColumns, List<ColumnDefinition> schema) {
@@ -48,53 +104,39 @@ public class QueryExecutor {
         return indexes;
     }
 
-    private static String buildSelectOutput(List<ColumnDefinition> schema, List<List<String>> records, List<Integer> indexes) {
-        StringBuilder output = new StringBuilder();
-        if (indexes.size() > 1 || indexes.size() == 1) {
-            appendHeader(schema, indexes, output);
-        }
-        appendRecords(records, indexes, output);
-        return output.toString().trim();
-    }
-
-    private static void appendHeader(List<ColumnDefinition> schema, List<Integer> indexes, StringBuilder output) {
-        for (int i = 0; i < indexes.size(); i++) {
-            output.append(schema.get(indexes.get(i)).getName());
-            if (i < indexes.size() - 1) {
-                output.append(" | ");
-            }
+    private static String selectHeader(List<ColumnDefinition> schema, List<Integer> indexes) {
+        if (indexes.isEmpty()) {
+            return null;
         }
-        output.append("\n");
-    }
-
-    private static void appendRecords(List<List<String>> records, List<Integer> indexes, StringBuilder output) {
-        for (int i = 0; i < records.size(); i++) {
-            List<String> record = records.get(i);
-            for (int j = 0; j < indexes.size(); j++) {
-                int idx = indexes.get(j);
-                String value = idx < record.size() ? record.get(idx) : "";
-                output.append(value);
-                if (j < indexes.size() - 1) {
-                    output.append(" | ");
-                }
-            }
-            if (i < records.size() - 1) {
-                output.append("\n");
-            }
+        List<String> names = new ArrayList<>();
+        for (int index : indexes) {
+            names.add(schema.get(index).getName());
         }
+        return String.join(" | ", names);
     }
 
-    public static String executeUpdate(UpdateStatement stmt) {
+    public static String executeUpdate(Session session, UpdateStatement stmt, PhysicalPlan physical) {
         String tableName = stmt.getTableName();
-        Condition condition = stmt.getCondition();
+        PhysicalPlan.TableAccess access = physical.getAccess();
         Map<String, String> assignments = stmt.getAssignments();
 
-        List<ColumnDefinition> schema = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), tableName);
-        List<List<String>> records = StorageManager.readTableRecords(DatabaseManager.getCurrentDatabase(), tableName);
+        List<ColumnDefinition> schema = StorageManager.readTableSchema(session.getDatabase(), tableName);
         Map<String, Integer> colIndexMap = buildColumnIndexMap(schema);
 
-        int updateCount = processUpdateRecords(records, condition, schema, assignments, colIndexMap);
-        boolean success = StorageManager.writeTableRecords(DatabaseManager.getCurrentDatabase(), tableName, schema, records);
+        // 只记录被修改的行 only the changed rows are collected and logged
+        List<List<String>> updatedRows = new ArrayList<>();
+        try (Operator plan = new FilterOperator(scan(session, access), ConditionCompiler.compile(access.getFilter(), schema))) {
+            processUpdateRecords(plan, updatedRows, assignments, colIndexMap);
+        }
+        // 同一个主键值不能写入多行
+        if (updatedRows.size() > 1) {
+            for (ColumnDefinition col : schema.subList(1, schema.size())) {
+                if (col.isPrimaryKey() && assignments.containsKey(col.getName())) {
+                    return ErrorHandler.duplicatePrimaryKeyValue(assignments.get(col.getName()));
+                }
+            }
+        }
+        boolean success = StorageManager.updateRows(session.getDatabase(), tableName, updatedRows);
 
         if (!success) {
             return ErrorHandler.generalError("Failed to update rows.");
@@ -102,6 +144,25 @@ public class QueryExecutor {
         return "";
     }
 
+    private static Operator scan(Session session, PhysicalPlan.TableAccess access) {
+        return new ScanOperator(() -> openScan(session, access));
+    }
+
+    // 访问路径 the index the planner picked narrows the scan down; if it cannot after all (e.g. a key that
+    // is not unique) the whole table is read. The full condition is evaluated on whatever comes back
+    private static TableCursor openScan(Session session, PhysicalPlan.TableAccess access) {
+        String dbName = session.getDatabase();
+        String tableName = access.getTableName();
+        SimpleCondition term = access.getTerm();
+        TableCursor cursor = null;
+        if (access.getPath() == PhysicalPlan.AccessPath.PRIMARY_KEY_LOOKUP) {
+            cursor = StorageManager.lookup(dbName, tableName, access.getColumn(), term.getValue());
+        } else if (access.getPath() == PhysicalPlan.AccessPath.INDEX_SCAN) {
+            cursor = StorageManager.indexScan(dbName, tableName, access.getColumn(), term.getComparator(), term.getValue());
+        }
+        return cursor != null ? cursor : StorageManager.openScan(dbName, tableName);
+    }
+
     private static Map<String, Integer> buildColumnIndexMap(List<ColumnDefinition> schema) {
         Map<String, Integer> map = new java.util.HashMap<>();
         for (int i = 0; i < schema.size(); i++) {
@@ -110,17 +171,16 @@ public class QueryExecutor {
         return map;
     }
 
-    private static int processUpdateRecords(List<List<String>> records, Condition condition,
-                                            List<ColumnDefinition> schema, Map<String, String> assignments,
-                                            Map<String, Integer> colIndexMap) {
-        int count = 0;
-        for (List<String> record : records) {
-            if (condition == null || evaluateCondition(condition, record, schema)) {
-                updateRecord(record, assignments, colIndexMap);
-                count++;
-            }
+    // Scanned rows are shared with the buffer pool, so matching rows are copied before being changed
+    private static void processUpdateRecords(Operator plan, List<List<String>> updatedRows,
+                                             Map<String, String> assignments, Map<String, Integer> colIndexMap) {
+        plan.open();
+        List<String> record;
+        while ((record = plan.next()) != null) {
+            List<String> updated = new ArrayList<>(record);
+            updateRecord(updated, assignments, colIndexMap);
+            updatedRows.add(updated);
         }
-        return count;
     }
 
     private static void updateRecord(List<String> record, Map<String, String> assignments, Map<String, Integer> colIndexMap) {
@@ -141,15 +201,17 @@ public class QueryExecutor {
         }
     }
 
-    public static String executeDelete(DeleteStatement stmt) {
+    public static String executeDelete(Session session, DeleteStatement stmt, PhysicalPlan physical) {
         String tableName = stmt.getTableName();
-        Condition condition = stmt.getCondition();
+        PhysicalPlan.TableAccess access = physical.getAccess();
 
-        List<ColumnDefinition> schema = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), tableName);
-        List<List<String>> records = StorageManager.readTableRecords(DatabaseManager.getCurrentDatabase(), tableName);
+        List<ColumnDefinition> schema = StorageManager.readTableSchema(session.getDatabase(), tableName);
 
-        int deleteCount = filterRecords(records, condition, schema);
-        boolean success = StorageManager.writeTableRecords(DatabaseManager.getCurrentDatabase(), tableName, schema, records);
+        List<Long> deletedIds = new ArrayList<>();
+        try (Operator plan = new FilterOperator(scan(session, access), ConditionCompiler.compile(access.getFilter(), schema))) {
+            filterRecords(plan, deletedIds);
+        }
+        boolean success = StorageManager.deleteRows(session.getDatabase(), tableName, deletedIds);
 
         if (!success) {
             return ErrorHandler.generalError("Failed to delete rows.");
@@ -157,24 +219,19 @@ public class QueryExecutor {
         return "";
     }
 
-    private static int filterRecords(List<List<String>> records, Condition condition, List<ColumnDefinition> schema) {
-        int count = 0;
-        Iterator<List<String>> it = records.iterator();
-        while (it.hasNext()) {
-            List<String> record = it.next();
-            if (condition == null || evaluateCondition(condition, record, schema)) {
-                it.remove();
-                count++;
-            }
+    private static void filterRecords(Operator plan, List<Long> deletedIds) {
+        plan.open();
+        List<String> record;
+        while ((record = plan.next()) != null) {
+            deletedIds.add(StorageManager.rowId(record));
         }
-        return count;
     }
 
-    public static String executeInsert(InsertStatement stmt) {
+    public static String executeInsert(Session session, InsertStatement stmt) {
         String tableName = stmt.getTableName();
         List<String> userValues = stmt.getValues();
 
-        List<ColumnDefinition> schema = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), tableName);
+        List<ColumnDefinition> schema = StorageManager.readTableSchema(session.getDatabase(), tableName);
         if (schema == null) {
             return ErrorHandler.tableNotFound(tableName);
         }
@@ -185,13 +242,9 @@ public class QueryExecutor {
         }
 
         processUserValues(userValues);
-        List<List<String>> records = StorageManager.readTableRecords(DatabaseManager.getCurrentDatabase(), tableName);
-        int newId = calculateNewId(records);
-
-        List<String> newRow = buildNewRow(newId, userValues);
-        boolean success = StorageManager.insertRow(DatabaseManager.getCurrentDatabase(), tableName, String.join("\t", newRow));
+        long newId = StorageManager.insertRow(session.getDatabase(), tableName, userValues);
 
-        return success ? ""  : ErrorHandler.generalError("Failed to insert row.");
+        return newId >= 0 ? ""  : ErrorHandler.generalError("Failed to insert row.");
     }
 
     private static void logColumnMismatch(int expected, int actual) {
@@ -209,66 +262,6 @@ public class QueryExecutor {
         }
     }
 
-    private static int calculateNewId(List<List<String>> records) {
-        int max = 0;
-        for (List<String> record : records) {
-            if (!record.isEmpty()) {
-                try {
-                    int id = Integer.parseInt(record.get(0));
-                    if (id > max) max = id;
-                } catch (NumberFormatException e) {
-                    // 忽略无效ID
-                }
-            }
-        }
-        return max + 1;
-    }
-
-    private static List<String> buildNewRow(int id, List<String> values) {
-        List<String> row = new ArrayList<>();
-        row.add(String.valueOf(id));
-        row.addAll(values);
-        return row;
-    }
-
-    private static boolean evaluateCondition(Condition cond, List<String> record, List<ColumnDefinition> schema) {
-        if (cond == null) return true;
-        if (cond instanceof SimpleCondition) {
-            return evaluateSimpleCondition((SimpleCondition) cond, record, schema);
-        } else if (cond instanceof CompoundCondition) {
-            CompoundCondition cc = (CompoundCondition) cond;
-            boolean left = evaluateCondition(cc.getLeft(), record, schema);
-            boolean right = evaluateCondition(cc.getRight(), record, schema);
-            if ("AND".equals(cc.getOperator())) {
-                return left && right;
-            } else if ("OR".equals(cc.getOperator())) {
-                return left || right;
-            }
-        }
-        return false;
-    }
-
-    private static boolean evaluateSimpleCondition(SimpleCondition cond, List<String> record, List<ColumnDefinition> schema) {
-        String attr = cond.getAttribute();
-        String comp = cond.getComparator();
-        String value = processConditionValue(cond.getValue());
-
-        int attrIndex = findAttributeIndex(attr, schema);
-        if (attrIndex == -1 || attrIndex >= record.size()) {
-            return false;
-        }
-
-        String recordValue = processRecordValue(record.get(attrIndex));
-        return compareValues(recordValue, value, comp);
-    }
-
-    private static String processConditionValue(String value) {
-        if (value != null && value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
-            return value.substring(1, value.length() - 1);
-        }
-        return value;
-    }
-
     private static int findAttributeIndex(String name, List<ColumnDefinition> schema) {
         for (int i = 0; i < schema.size(); i++) {
             if (schema.get(i).getName().equalsIgnoreCase(name)) {
@@ -278,75 +271,63 @@ public class QueryExecutor {
         return -1;
     }
 
-    private static String processRecordValue(String value) {
-        if (value != null && value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
-            return value.substring(1, value.length() - 1);
-        }
-        return value;
+    public static String executeJoin(Session session, JoinStatement stmt) {
+        return planJoin(session, stmt, QueryPlanner.plan(session, stmt)).run();
     }
 
-    private static boolean compareValues(String val1, String val2, String comparator) {
-        if ("=".equals(comparator) || "==".equals(comparator)) {
-            return val1.equalsIgnoreCase(val2);
-        } else if ("!=".equals(comparator)) {
-            return !val1.equalsIgnoreCase(val2);
-        } else if (">".equals(comparator)) {
-            return compareAsNumber(val1, val2) > 0;
-        } else if ("<".equals(comparator)) {
-            return compareAsNumber(val1, val2) < 0;
-        } else if (">=".equals(comparator)) {
-            return compareAsNumber(val1, val2) >= 0;
-        } else if ("<=".equals(comparator)) {
-            return compareAsNumber(val1, val2) <= 0;
-        } else if ("LIKE".equals(comparator)) {
-            return val1.toLowerCase().contains(val2.toLowerCase());
-        }
-        return false;
-    }
-
-    private static int compareAsNumber(String a, String b) {
-        try {
-            double numA = Double.parseDouble(a);
-            double numB = Double.parseDouble(b);
-            return Double.compare(numA, numB);
-        } catch (NumberFormatException e) {
-            return a.compareToIgnoreCase(b);
-        }
-    }
-
-    public static String executeJoin(JoinStatement stmt) {
+    /** The operators of a JOIN as the planner chose to run it, ready to be written out. */
+    public static OutputOperator planJoin(Session session, JoinStatement stmt, PhysicalPlan physical) {
         String table1 = stmt.getTable1();
         String table2 = stmt.getTable2();
         String matchAttr1 = stmt.getAttribute1();
         String matchAttr2 = stmt.getAttribute2();
 
         // 读取表结构和数据
-        List<ColumnDefinition> schema1 = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), table1);
-        List<ColumnDefinition> schema2 = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), table2);
-        List<List<String>> data1 = StorageManager.readTableRecords(DatabaseManager.getCurrentDatabase(), table1);
-        List<List<String>> data2 = StorageManager.readTableRecords(DatabaseManager.getCurrentDatabase(), table2);
+        List<ColumnDefinition> schema1 = StorageManager.readTableSchema(session.getDatabase(), table1);
+        List<ColumnDefinition> schema2 = StorageManager.readTableSchema(session.getDatabase(), table2);
 
         // 查找匹配列索引
         int matchIdx1 = findAttributeIndex(matchAttr1, schema1);
         int matchIdx2 = findAttributeIndex(matchAttr2, schema2);
 
-        // 执行JOIN核心逻辑
-        List<List<String>> joinedData = new ArrayList<>();
-        int newId = 1;
-        for (List<String> row1 : data1) {
-            for (List<String> row2 : data2) {
-                if (isJoinMatch(row1, matchIdx1, row2, matchIdx2)) {
-                    // 生成新行并添加ID
-                    List<String> newRow = buildJoinedRow(table1, table2, row1, row2,
-                            schema1, schema2, matchIdx1, matchIdx2);
-                    newRow.add(0, String.valueOf(newId++));
-                    joinedData.add(newRow);
-                }
-            }
+        // 连接 either algorithm gives rows in nested-loop order (table1 order, then table2 order within each
+        // table1 row): a hash join on the side the planner chose, or table2's index probed per table1 row
+        String dbName = session.getDatabase();
+        BiFunction<List<String>, List<String>, List<String>> combiner =
+                (row1, row2) -> buildJoinedRow(table1, table2, row1, row2, schema1, schema2, matchIdx1, matchIdx2);
+        Operator left = new ScanOperator(() -> StorageManager.openScan(dbName, table1));
+        Operator join;
+        if (physical.getJoinAlgorithm() == PhysicalPlan.JoinAlgorithm.INDEX_NESTED_LOOP) {
+            boolean primaryKey = physical.getInner().getPath() == PhysicalPlan.AccessPath.PRIMARY_KEY_LOOKUP;
+            Function<String, TableCursor> probe = value -> primaryKey
+                    ? StorageManager.lookup(dbName, table2, matchIdx2, value)
+                    : StorageManager.indexScan(dbName, table2, matchIdx2, "==", value);
+            join = new IndexNestedLoopJoinOperator(left, matchIdx1, matchIdx2, probe,
+                    () -> StorageManager.openScan(dbName, table2), combiner);
+        } else {
+            join = new HashJoinOperator(left, new ScanOperator(() -> StorageManager.openScan(dbName, table2)),
+                    matchIdx1, matchIdx2, physical.isBuildLeft(), combiner);
+        }
+
+        // 构建输出 joined rows are numbered from 1 in output order, so a page keeps the ids of the full result
+        String header = "id | " + joinHeader(table1, table2, schema1, schema2, matchIdx1, matchIdx2);
+        List<String> types = new ArrayList<>();
+        types.add("INT");
+        for (int i = 1; i < schema1.size(); i++) {
+            if (i != matchIdx1) types.add(schema1.get(i).getType());
         }
+        for (int i = 1; i < schema2.size(); i++) {
+            if (i != matchIdx2) types.add(schema2.get(i).getType());
+        }
+        return new OutputOperator(limit(new RowNumberOperator(join), stmt.getLimit(), stmt.getOffset()), header,
+                types, null);
+    }
 
-        // 构建输出
-        return buildJoinOutput(table1, table2, schema1, schema2, matchIdx1, matchIdx2, joinedData);
+    private static Operator limit(Operator plan, int limit, int offset) {
+        if (limit == -1 && offset == 0) {
+            return plan;
+        }
+        return new LimitOperator(plan, offset, limit);
     }
 
     private static List<List<String>> performJoin(List<List<String>> data1, List<List<String>> data2,
@@ -412,13 +393,10 @@ public class QueryExecutor {
         return newRow;
     }
 
-    private static String buildJoinOutput(String table1, String table2,
-                                          List<ColumnDefinition> schema1,
-                                          List<ColumnDefinition> schema2,
-                                          int excludeIdx1, int excludeIdx2,
-                                          List<List<String>> data) {
-        StringBuilder output = new StringBuilder("id | ");
-
+    private static String joinHeader(String table1, String table2,
+                                     List<ColumnDefinition> schema1,
+                                     List<ColumnDefinition> schema2,
+                                     int excludeIdx1, int excludeIdx2) {
         // 生成表头
         List<String> headers = new ArrayList<>();
         for (int i=0; i<schema1.size(); i++) {
@@ -431,14 +409,7 @@ public class QueryExecutor {
                 headers.add(table2 + "." + schema2.get(i).getName());
             }
         }
-        output.append(String.join(" | ", headers)).append("\n");
-
-        // 添加数据行
-        for (List<String> row : data) {
-            output.append(String.join(" | ", row)).append("\n");
-        }
-
-        return output.toString().trim();
+        return String.join(" | ", headers);
     }
 
     private static void appendJoinHeader(String table1, String table2,
@@ -467,13 +438,13 @@ public class QueryExecutor {
         }
     }
 
-    public static String executeAlter(AlterTableStatement stmt) {
+    public static String executeAlter(Session session, AlterTableStatement stmt) {
         String tableName = stmt.getTableName();
         String operation = stmt.getAlterationType();
         String columnName = stmt.getAttributeName();
 
-        List<ColumnDefinition> schema = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), tableName);
-        List<List<String>> records = StorageManager.readTableRecords(DatabaseManager.getCurrentDatabase(), tableName);
+        List<ColumnDefinition> schema = StorageManager.readTableSchema(session.getDatabase(), tableName);
+        List<List<String>> records = StorageManager.readTableRecords(session.getDatabase(), tableName);
 
         if ("ADD".equals(operation)) {
             handleAddColumn(schema, records, columnName);
@@ -481,7 +452,7 @@ public class QueryExecutor {
             handleDropColumn(schema, records, columnName);
         }
 
-        boolean success = StorageManager.writeTableRecords(DatabaseManager.getCurrentDatabase(), tableName, schema, records);
+        boolean success = StorageManager.writeTableRecords(session.getDatabase(), tableName, schema, records);
         return success ? "" : ErrorHandler.generalError("Failed to alter table.");
     }
 
@@ -0,0 +1,288 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 查询规划
+ * Chooses how a validated statement is executed, by estimated cost in units of one row read by a full
+ * scan. Row counts and selectivities come from the ANALYZE statistics when the table has them and from
+ * fixed guesses otherwise ({@link TableStatistics#defaultSelectivity}), which favour an index as the
+ * executor always did before it had a planner.
+ *
+ * <ul>
+ *   <li>Access path: a primary-key lookup if an AND-ed term allows one, else the cheapest B+-tree index
+ *       range if it beats reading every row, else a full scan.</li>
+ *   <li>WHERE: the terms of each AND / OR chain are reordered so that the cheapest term most likely to
+ *       decide the result is evaluated first. Every term is still evaluated as before, so results are
+ *       unchanged.</li>
+ *   <li>JOIN: a hash join that builds on the smaller input, or an index nested-loop join probing the
+ *       right table's index on the match column when the left input is small enough for that to be
+ *       cheaper than reading the right table.</li>
+ * </ul>
+ */
+public class QueryPlanner {
+    // Costs relative to reading one row in a full scan
+    private static final double PROBE_COST = 4;        // one hash or B+-tree lookup
+    private static final double INDEX_ROW_COST = 2;    // fetching one row an index pointed at
+    private static final double HASH_BUILD_COST = 1;   // adding one row to a hash table
+    private static final double LIKE_COST = 3;         // lower-casing and searching the text
+    private static final double COMPARE_COST = 1.5;    // decoding and ordering two values
+
+    // 索引列缓存 lower-cased indexed columns per "db/table", dropped whenever the catalog version moves on
+    private static final Map<String, Set<String>> indexedColumns = new HashMap<>();
+    private static long indexedColumnsVersion = -1;
+
+    /** The plan of a statement that reads tables, or null for one that does not (DDL, INSERT, ...). */
+    public static PhysicalPlan plan(Session session, SQLStatement statement) {
+        if (statement instanceof SelectStatement) {
+            SelectStatement stmt = (SelectStatement) statement;
+            return planTable(session, stmt.getTableName(), stmt.getCondition());
+        } else if (statement instanceof UpdateStatement) {
+            UpdateStatement stmt = (UpdateStatement) statement;
+            return planTable(session, stmt.getTableName(), stmt.getCondition());
+        } else if (statement instanceof DeleteStatement) {
+            DeleteStatement stmt = (DeleteStatement) statement;
+            return planTable(session, stmt.getTableName(), stmt.getCondition());
+        } else if (statement instanceof JoinStatement) {
+            return planJoin(session, (JoinStatement) statement);
+        }
+        return null;
+    }
+
+    /** The plan of a SELECT, UPDATE or DELETE on one table. */
+    public static PhysicalPlan planTable(Session session, String tableName, Condition condition) {
+        return new PhysicalPlan(planAccess(session, tableName, condition));
+    }
+
+    private static PhysicalPlan.TableAccess planAccess(Session session, String tableName, Condition condition) {
+        String dbName = session.getDatabase();
+        List<ColumnDefinition> schema = Catalog.getSchema(dbName, tableName);
+        TableStatistics statistics = Catalog.getStatistics(dbName, tableName);
+        double rows = rowCount(dbName, tableName, statistics);
+        Estimate estimate = estimate(condition, statistics);
+        Condition filter = estimate.condition;
+        double filteredRows = rows * estimate.selectivity;
+
+        List<SimpleCondition> terms = new ArrayList<>();
+        collectAndTerms(condition, terms);
+        // 主键等值 a primary-key equality reads at most a few rows, nothing beats it
+        for (SimpleCondition term : terms) {
+            int column = findColumn(schema, term.getAttribute());
+            if (isEquality(term) && column != -1 && (column == 0 || schema.get(column).isPrimaryKey())) {
+                return new PhysicalPlan.TableAccess(tableName, PhysicalPlan.AccessPath.PRIMARY_KEY_LOOKUP,
+                        column, term, filter, Math.min(filteredRows, 1));
+            }
+        }
+        // 索引还是全表扫描 an index range pays per row it returns, a scan per row in the table
+        SimpleCondition best = null;
+        int bestColumn = -1;
+        double bestCost = rows;
+        for (SimpleCondition term : terms) {
+            int column = findColumn(schema, term.getAttribute());
+            if (column == -1 || !isIndexable(term) || !hasIndex(session, tableName, schema.get(column).getName())) {
+                continue;
+            }
+            double cost = PROBE_COST + rows * selectivity(statistics, term) * INDEX_ROW_COST;
+            if (cost < bestCost) {
+                best = term;
+                bestColumn = column;
+                bestCost = cost;
+            }
+        }
+        if (best != null) {
+            return new PhysicalPlan.TableAccess(tableName, PhysicalPlan.AccessPath.INDEX_SCAN, bestColumn, best,
+                    filter, filteredRows);
+        }
+        return new PhysicalPlan.TableAccess(tableName, PhysicalPlan.AccessPath.FULL_SCAN, -1, null, filter,
+                filteredRows);
+    }
+
+    /** The plan of a JOIN; rows always come out in nested-loop order, whichever algorithm is chosen. */
+    public static PhysicalPlan planJoin(Session session, JoinStatement stmt) {
+        String dbName = session.getDatabase();
+        String table1 = stmt.getTable1();
+        String table2 = stmt.getTable2();
+        List<ColumnDefinition> schema2 = Catalog.getSchema(dbName, table2);
+        TableStatistics statistics1 = Catalog.getStatistics(dbName, table1);
+        TableStatistics statistics2 = Catalog.getStatistics(dbName, table2);
+        double rows1 = rowCount(dbName, table1, statistics1);
+        double rows2 = rowCount(dbName, table2, statistics2);
+        PhysicalPlan.TableAccess left = new PhysicalPlan.TableAccess(table1, PhysicalPlan.AccessPath.FULL_SCAN,
+                -1, null, null, rows1);
+
+        // 连接算法 probing an index once per left row only pays off when the left side is much smaller;
+        // the index lives with the resident table, so the right table has to fit the buffer pool
+        double hashCost = rows1 + rows2 + HASH_BUILD_COST * Math.min(rows1, rows2);
+        int column2 = findColumn(schema2, stmt.getAttribute2());
+        PhysicalPlan.AccessPath probe = null;
+        double matchesPerProbe = 0;
+        if (column2 == 0 || (column2 != -1 && schema2.get(column2).isPrimaryKey())) {
+            probe = PhysicalPlan.AccessPath.PRIMARY_KEY_LOOKUP;
+            matchesPerProbe = 1;
+        } else if (column2 != -1 && hasIndex(session, table2, schema2.get(column2).getName())) {
+            probe = PhysicalPlan.AccessPath.INDEX_SCAN;
+            long distinct = statistics2 == null ? -1 : statistics2.getDistinctCount(stmt.getAttribute2());
+            matchesPerProbe = distinct > 0 ? rows2 / distinct : rows2 * TableStatistics.defaultSelectivity("==");
+        }
+        if (probe != null && StorageManager.fitsInPool(dbName, table2)) {
+            double probeCost = rows1 + rows1 * (PROBE_COST + matchesPerProbe * INDEX_ROW_COST);
+            if (probeCost < hashCost) {
+                PhysicalPlan.TableAccess inner = new PhysicalPlan.TableAccess(table2, probe, column2, null, null,
+                        rows1 * matchesPerProbe);
+                return new PhysicalPlan(left, inner, PhysicalPlan.JoinAlgorithm.INDEX_NESTED_LOOP, false);
+            }
+        }
+        PhysicalPlan.TableAccess right = new PhysicalPlan.TableAccess(table2, PhysicalPlan.AccessPath.FULL_SCAN,
+                -1, null, null, rows2);
+        return new PhysicalPlan(left, right, PhysicalPlan.JoinAlgorithm.HASH_JOIN, rows1 < rows2);
+    }
+
+    private static double rowCount(String dbName, String tableName, TableStatistics statistics) {
+        return statistics != null ? statistics.getRowCount() : StorageManager.estimateRowCount(dbName, tableName);
+    }
+
+    // Predicate order =============================================================================
+
+    // A condition with its estimated selectivity and evaluation cost per row
+    private static final class Estimate {
+        final Condition condition;
+        final double selectivity;
+        final double cost;
+
+        Estimate(Condition condition, double selectivity, double cost) {
+            this.condition = condition;
+            this.selectivity = selectivity;
+            this.cost = cost;
+        }
+    }
+
+    private static Estimate estimate(Condition condition, TableStatistics statistics) {
+        return condition == null ? new Estimate(null, 1, 0) : reorder(condition, statistics);
+    }
+
+    /**
+     * 谓词排序 AND evaluates first the terms that reject the most rows per unit of cost, OR the ones that
+     * accept the most; chains are rebuilt left-deep, which is how ConditionCompiler short-circuits them.
+     */
+    private static Estimate reorder(Condition condition, TableStatistics statistics) {
+        if (condition instanceof SimpleCondition) {
+            SimpleCondition term = (SimpleCondition) condition;
+            return new Estimate(term, selectivity(statistics, term), cost(term));
+        }
+        if (!(condition instanceof CompoundCondition)) {
+            return new Estimate(condition, 0, 0);
+        }
+        String operator = ((CompoundCondition) condition).getOperator();
+        boolean and = "AND".equals(operator);
+        if (!and && !"OR".equals(operator)) {
+            return new Estimate(condition, 0, 0);
+        }
+        List<Estimate> terms = new ArrayList<>();
+        flatten(condition, operator, statistics, terms);
+        // stable, so equally ranked terms keep the order they were written in
+        if (and) {
+            terms.sort(Comparator.comparingDouble(t -> t.selectivity >= 1 ? Double.MAX_VALUE : t.cost / (1 - t.selectivity)));
+        } else {
+            terms.sort(Comparator.comparingDouble(t -> t.selectivity <= 0 ? Double.MAX_VALUE : t.cost / t.selectivity));
+        }
+        Condition rebuilt = null;
+        double selectivity = and ? 1 : 0;
+        double cost = 0;
+        // each term is only evaluated for rows the ones before it did not decide
+        double reaching = 1;
+        for (Estimate term : terms) {
+            rebuilt = rebuilt == null ? term.condition : new CompoundCondition(rebuilt, operator, term.condition);
+            cost += reaching * term.cost;
+            if (and) {
+                selectivity *= term.selectivity;
+                reaching = selectivity;
+            } else {
+                selectivity = 1 - (1 - selectivity) * (1 - term.selectivity);
+                reaching = 1 - selectivity;
+            }
+        }
+        return new Estimate(rebuilt, selectivity, cost);
+    }
+
+    // The operands of a chain of one operator, each reordered in turn
+    private static void flatten(Condition condition, String operator, TableStatistics statistics, List<Estimate> terms) {
+        if (condition instanceof CompoundCondition && operator.equals(((CompoundCondition) condition).getOperator())) {
+            flatten(((CompoundCondition) condition).getLeft(), operator, statistics, terms);
+            flatten(((CompoundCondition) condition).getRight(), operator, statistics, terms);
+        } else {
+            terms.add(reorder(condition, statistics));
+        }
+    }
+
+    private static double selectivity(TableStatistics statistics, SimpleCondition term) {
+        if (statistics == null) {
+            return TableStatistics.defaultSelectivity(term.getComparator());
+        }
+        return statistics.selectivity(term.getAttribute(), term.getComparator(), term.getValue());
+    }
+
+    private static double cost(SimpleCondition term) {
+        if ("LIKE".equals(term.getComparator())) return LIKE_COST;
+        return isEquality(term) || "!=".equals(term.getComparator()) ? 1 : COMPARE_COST;
+    }
+
+    // Helpers =====================================================================================
+
+    private static void collectAndTerms(Condition condition, List<SimpleCondition> terms) {
+        if (condition instanceof SimpleCondition) {
+            terms.add((SimpleCondition) condition);
+        } else if (condition instanceof CompoundCondition && "AND".equals(((CompoundCondition) condition).getOperator())) {
+            collectAndTerms(((CompoundCondition) condition).getLeft(), terms);
+            collectAndTerms(((CompoundCondition) condition).getRight(), terms);
+        }
+    }
+
+    private static boolean isEquality(SimpleCondition condition) {
+        return "==".equals(condition.getComparator()) || "=".equals(condition.getComparator());
+    }
+
+    // Comparators a B+-tree index can narrow down (see SecondaryIndex.candidates)
+    private static boolean isIndexable(SimpleCondition condition) {
+        String comparator = condition.getComparator();
+        return isEquality(condition) || "<".equals(comparator) || ">".equals(comparator)
+                || "<=".equals(comparator) || ">=".equals(comparator);
+    }
+
+    // SET INDEX_SCAN = OFF leaves a session with full scans, hash joins and primary-key lookups
+    private static boolean hasIndex(Session session, String tableName, String columnName) {
+        if ("OFF".equals(session.getSetting(Session.INDEX_SCAN, "ON"))) return false;
+        return indexedColumns(session.getDatabase(), tableName).contains(columnName.toLowerCase());
+    }
+
+    private static synchronized Set<String> indexedColumns(String dbName, String tableName) {
+        // read the version first, so what is cached is never older than the version it is filed under
+        long version = Catalog.getVersion();
+        if (version != indexedColumnsVersion) {
+            indexedColumns.clear();
+            indexedColumnsVersion = version;
+        }
+        return indexedColumns.computeIfAbsent(dbName + "/" + tableName, key -> {
+            Set<String> columns = new HashSet<>();
+            for (IndexDefinition index : Catalog.getIndexes(dbName, tableName)) {
+                columns.add(index.getColumnName().toLowerCase());
+            }
+            return columns;
+        });
+    }
+
+    private static int findColumn(List<ColumnDefinition> schema, String name) {
+        if (schema == null) return -1;
+        for (int i = 0; i < schema.size(); i++) {
+            if (schema.get(i).getName().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
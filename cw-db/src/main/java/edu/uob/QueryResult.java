@@ -0,0 +1,88 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 查询结果
+ * A response as a binary protocol client receives it: whether the command succeeded, its message, and
+ * for SELECT and JOIN the column names, column types and rows. Values are {@code null}, {@link Boolean},
+ * {@link Long}, {@link Double} or {@link String}; see {@link BinaryProtocol}.
+ */
+public class QueryResult {
+    private final int tag;
+    private final boolean ok;
+    private final String message;
+    private final List<String> columnNames;
+    private final List<String> columnTypes;
+    private final List<List<Object>> rows;
+
+    public QueryResult(int tag, boolean ok, String message, List<String> columnNames, List<String> columnTypes,
+                       List<List<Object>> rows) {
+        this.tag = tag;
+        this.ok = ok;
+        this.message = message;
+        this.columnNames = columnNames;
+        this.columnTypes = columnTypes;
+        this.rows = rows;
+    }
+
+    /** The tag the command was sent with. */
+    public int getTag() {
+        return tag;
+    }
+
+    public boolean isOk() {
+        return ok;
+    }
+
+    /** The text after [OK] or [ERROR]; empty for a query that returned rows. */
+    public String getMessage() {
+        return message;
+    }
+
+    /** Whether this is the result of a query, which has columns even when it has no rows. */
+    public boolean hasColumns() {
+        return columnNames != null;
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames == null ? Collections.emptyList() : columnNames;
+    }
+
+    /** INTEGER, DOUBLE, BOOLEAN or TEXT for each column. */
+    public List<String> getColumnTypes() {
+        return columnTypes == null ? Collections.emptyList() : columnTypes;
+    }
+
+    public List<List<Object>> getRows() {
+        return rows == null ? Collections.emptyList() : rows;
+    }
+
+    /** The response as the text protocol would have written it. */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        if (hasColumns() && (!getRows().isEmpty() || message.isEmpty())) {
+            text.append("[OK] ");
+            List<String> lines = new ArrayList<>();
+            if (!columnNames.isEmpty()) {
+                lines.add(String.join(" | ", columnNames));
+            }
+            for (List<Object> row : getRows()) {
+                List<String> values = new ArrayList<>();
+                for (Object value : row) {
+                    values.add(BinaryProtocol.format(value));
+                }
+                lines.add(String.join(" | ", values));
+            }
+            text.append(String.join("\n", lines).trim());
+            if (ok) {
+                return text.toString();
+            }
+            text.append('\n');
+        }
+        return text.append(ok ? "[OK] " : "[ERROR] ").append(message).toString();
+    }
+}
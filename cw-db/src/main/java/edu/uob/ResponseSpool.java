@@ -0,0 +1,230 @@
+package edu.uob;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * 响应缓冲
+ * A response on its way from a statement to a client. The statement writes into it while it holds the
+ * statement lock; one reader takes the bytes out, possibly while they are still being written, and
+ * sends them. The statement never waits for the client: up to {@link #MEMORY_BYTES} the reader has not
+ * taken yet stay in memory, anything beyond goes to a temporary file under {@code databases/}, as
+ * {@link SpillFile} does. Text responses are UTF-8.
+ *
+ * <p>A response that grows past the size given to {@link #streamAfter} starts going out before it is
+ * complete; smaller ones are sent once the statement is done, so pipelined commands can share a flush.
+ */
+public class ResponseSpool extends OutputStream {
+    public static final String EXTENSION = ".spool";
+    private static final int MEMORY_BYTES = 1 << 20;
+
+    /** Starts sending a response that has become large; run by the writing thread, outside the spool. */
+    public interface Handoff {
+        void start() throws IOException;
+    }
+
+    // guarded by this
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private int chunkOffset; // bytes of the head chunk already read
+    private long memoryBytes; // unread bytes in chunks
+    private File file;
+    private FileChannel channel;
+    private long fileWritten;
+    private long fileRead;
+    private long size;
+    private boolean finished;
+    private boolean closed;
+    private long handoffBytes;
+    private Handoff handoff;
+    private Runnable readyListener;
+    private boolean readerWaiting;
+
+    /** Run {@code handoff} once the response has reached {@code bytes}. */
+    public synchronized void streamAfter(long bytes, Handoff handoff) {
+        this.handoffBytes = bytes;
+        this.handoff = handoff;
+    }
+
+    /** Tell a reader that polls with {@link #readAvailable} when bytes arrive after it found none. */
+    public synchronized void setReadyListener(Runnable listener) {
+        this.readyListener = listener;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) return;
+        Handoff start = null;
+        Runnable ready;
+        synchronized (this) {
+            if (closed) throw new IOException("Response discarded");
+            // new bytes stay in memory only while nothing older is waiting in the file
+            if (fileRead == fileWritten && memoryBytes + length <= MEMORY_BYTES) {
+                chunks.add(Arrays.copyOfRange(bytes, offset, offset + length));
+                memoryBytes += length;
+            } else {
+                if (channel == null) {
+                    file = File.createTempFile("response", EXTENSION, new File(StorageManager.getBasePath()));
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+                while (buffer.hasRemaining()) {
+                    fileWritten += channel.write(buffer, fileWritten);
+                }
+            }
+            size += length;
+            if (handoff != null && size >= handoffBytes) {
+                start = handoff;
+                handoff = null;
+            }
+            ready = wakeReader();
+        }
+        if (start != null) start.start();
+        if (ready != null) ready.run();
+    }
+
+    /** No more bytes will be written; the reader gets end-of-stream once it has taken the rest. */
+    public void finish() {
+        Runnable ready;
+        synchronized (this) {
+            finished = true;
+            handoff = null;
+            ready = wakeReader();
+        }
+        if (ready != null) ready.run();
+    }
+
+    private Runnable wakeReader() {
+        notifyAll();
+        if (!readerWaiting) return null;
+        readerWaiting = false;
+        return readyListener;
+    }
+
+    /** Number of bytes written so far. */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Take as many of the next bytes as are there, without waiting: 0 if none have been written yet, -1
+     * once all have been read. Small writes are gathered, so a response does not go out in pieces.
+     */
+    public synchronized int readAvailable(byte[] buffer) throws IOException {
+        if (closed) return -1;
+        int length = 0;
+        while (length < buffer.length) {
+            int count = take(buffer, length, buffer.length - length);
+            if (count <= 0) {
+                if (length > 0) break;
+                if (count == 0) readerWaiting = true;
+                return count;
+            }
+            length += count;
+        }
+        return length;
+    }
+
+    // Take the next bytes: 0 if none have been written yet, -1 once all have been read
+    private int take(byte[] buffer, int offset, int length) throws IOException {
+        if (!chunks.isEmpty()) {
+            byte[] head = chunks.peek();
+            int count = Math.min(length, head.length - chunkOffset);
+            System.arraycopy(head, chunkOffset, buffer, offset, count);
+            chunkOffset += count;
+            memoryBytes -= count;
+            if (chunkOffset == head.length) {
+                chunks.poll();
+                chunkOffset = 0;
+            }
+            return count;
+        }
+        if (fileRead < fileWritten) {
+            int count = channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, fileWritten - fileRead)), fileRead);
+            fileRead += count;
+            if (fileRead == fileWritten) {
+                // everything spilled has been read, so the file can start over
+                channel.truncate(0);
+                fileRead = 0;
+                fileWritten = 0;
+            }
+            return count;
+        }
+        return finished ? -1 : 0;
+    }
+
+    // Take the next bytes, waiting for the writer if it has not got that far yet
+    private synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        while (true) {
+            if (closed) throw new IOException("Response discarded");
+            int count = take(buffer, offset, length);
+            if (count != 0) return count;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sending a response");
+            }
+        }
+    }
+
+    /** The response as a stream for its one reader, ending once the writer has finished. */
+    public InputStream openInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                return ResponseSpool.this.read(buffer, offset, length);
+            }
+        };
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        openInputStream().transferTo(out);
+    }
+
+    /** Copy a text response to {@code out}. */
+    public void writeTo(Writer out) throws IOException {
+        Reader in = new InputStreamReader(openInputStream(), StandardCharsets.UTF_8);
+        in.transferTo(out);
+    }
+
+    /** Drop the response, deleting its file if it had one; a writer or reader still busy with it fails. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        chunks.clear();
+        handoff = null;
+        notifyAll();
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package edu.uob;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 行
+ * A resident table row: the stored strings, plus each column's {@link Value} decoded the first time a
+ * comparison needs it and kept for every later scan. Rows are shared with the buffer pool and the
+ * indexes, so they cannot be modified; UPDATE copies a row and stores a new one.
+ */
+public final class Row extends AbstractList<String> implements RandomAccess {
+    private final String[] values;
+    private final Value[] decoded;
+
+    private Row(String[] values) {
+        this.values = values;
+        this.decoded = new Value[values.length];
+    }
+
+    /** The row itself if it already is one, otherwise a copy of it. */
+    public static Row of(List<String> values) {
+        if (values instanceof Row) {
+            return (Row) values;
+        }
+        return new Row(values.toArray(new String[0]));
+    }
+
+    @Override
+    public String get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    /** The decoded value of a column; races only ever decode the same value twice. */
+    public Value value(int index) {
+        Value value = decoded[index];
+        if (value == null) {
+            value = Value.of(values[index]);
+            decoded[index] = value;
+        }
+        return value;
+    }
+
+    /** A column of any row, decoded; rows streamed from a file are plain lists and decode every time. */
+    public static Value valueOf(List<String> row, int index) {
+        return row instanceof Row ? ((Row) row).value(index) : Value.of(row.get(index));
+    }
+}
@@ -0,0 +1,40 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 行号算子
+ * Puts a new id in front of every row, numbering them from 1 in output order (JOIN results).
+ */
+public class RowNumberOperator implements Operator {
+    private final Operator child;
+    private long nextId;
+
+    public RowNumberOperator(Operator child) {
+        this.child = child;
+    }
+
+    @Override
+    public void open() {
+        child.open();
+        nextId = 1;
+    }
+
+    @Override
+    public List<String> next() {
+        List<String> row = child.next();
+        if (row == null) {
+            return null;
+        }
+        List<String> numbered = new ArrayList<>(row.size() + 1);
+        numbered.add(String.valueOf(nextId++));
+        numbered.addAll(row);
+        return numbered;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
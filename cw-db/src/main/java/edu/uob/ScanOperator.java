@@ -0,0 +1,41 @@
+package edu.uob;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 扫描算子
+ * Reads the rows of one table through a {@link TableCursor}; which cursor (index lookup, resident
+ * table or file scan) is up to whoever builds the plan.
+ */
+public class ScanOperator implements Operator {
+    private final Supplier<TableCursor> opener;
+    private TableCursor cursor;
+
+    public ScanOperator(Supplier<TableCursor> opener) {
+        this.opener = opener;
+    }
+
+    @Override
+    public void open() {
+        cursor = opener.get();
+    }
+
+    @Override
+    public List<String> next() {
+        return cursor.hasNext() ? cursor.next() : null;
+    }
+
+    @Override
+    public List<List<String>> nextBatch(int max) {
+        return cursor.nextBatch(max);
+    }
+
+    @Override
+    public void close() {
+        if (cursor != null) {
+            cursor.close();
+            cursor = null;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package edu.uob;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 二级索引
+ * A CREATE INDEX index on one column of a resident table, kept in a {@link BPlusTree} so that
+ * {@code ==}, {@code <}, {@code >}, {@code <=} and {@code >=} on that column read a key range instead of
+ * the whole table.
+ *
+ * <p>WHERE compares two values as numbers when both parse as numbers and as case-insensitive text
+ * otherwise, so a range of one kind of key is not always enough; {@link #candidates} returns every row
+ * that may match and the caller re-checks the condition on each.
+ *
+ * <p>The leaf entries are saved as fixed-size pages in {@code <table>.<index>.idx} whenever the table
+ * leaves memory clean, together with the checkpoint LSN of the table file; the inner nodes are rebuilt
+ * from them on load. A file from another checkpoint is ignored and the index rebuilt from the rows, but
+ * the file is kept: it is also what defines the index.
+ */
+public class SecondaryIndex {
+    public static final String EXTENSION = ".idx";
+    private static final int MAGIC = 0x44424258; // "DBBX"
+    private static final int VERSION = 1;
+    private static final int PAGE_SIZE = 8192;
+
+    private final IndexDefinition definition;
+    private final int column;
+    private final BPlusTree tree = new BPlusTree();
+    private long savedLsn = -1;
+
+    private SecondaryIndex(IndexDefinition definition, int column) {
+        this.definition = definition;
+        this.column = column;
+    }
+
+    /** Index every row of a table; {@code column} is the position of the indexed column in its schema. */
+    public static SecondaryIndex build(IndexDefinition definition, int column, List<List<String>> rows) {
+        SecondaryIndex index = new SecondaryIndex(definition, column);
+        List<Entry> entries = new ArrayList<>(rows.size());
+        for (List<String> row : rows) {
+            if (column < row.size()) {
+                entries.add(new Entry(BPlusTree.Key.of(stripQuotes(row.get(column))), StorageManager.rowId(row)));
+            }
+        }
+        entries.sort((e1, e2) -> {
+            int c = e1.key.compareTo(e2.key);
+            return c != 0 ? c : Long.compare(e1.id, e2.id);
+        });
+        index.bulkLoad(entries);
+        return index;
+    }
+
+    /** Index a freshly loaded table, reusing the saved leaves if they belong to the same checkpoint. */
+    public static SecondaryIndex load(File file, IndexDefinition definition, int column, List<List<String>> rows,
+                                      long checkpointLsn) {
+        SecondaryIndex index = new SecondaryIndex(definition, column);
+        if (!index.read(file, checkpointLsn, rows.size())) {
+            return build(definition, column, rows);
+        }
+        return index;
+    }
+
+    public IndexDefinition getDefinition() {
+        return definition;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    // Maintenance ===================================================================================
+
+    public void add(List<String> row) {
+        if (column < row.size()) {
+            tree.insert(BPlusTree.Key.of(stripQuotes(row.get(column))), StorageManager.rowId(row));
+        }
+    }
+
+    public void remove(List<String> row) {
+        if (column < row.size()) {
+            tree.remove(BPlusTree.Key.of(stripQuotes(row.get(column))), StorageManager.rowId(row));
+        }
+    }
+
+    // Lookups =======================================================================================
+
+    /**
+     * Ids of the rows that may satisfy {@code column <comparator> value}, in no particular order; null
+     * if the index cannot narrow that condition down (other comparators, or a value such as "NaN" that
+     * compares as a number against some rows and as text against others).
+     */
+    public List<Long> candidates(String comparator, String value) {
+        boolean equality = "==".equals(comparator) || "=".equals(comparator);
+        if (!equality && !">".equals(comparator) && !"<".equals(comparator)
+                && !">=".equals(comparator) && !"<=".equals(comparator)) {
+            return null;
+        }
+        BPlusTree.Key key = BPlusTree.Key.of(stripQuotes(value));
+        if (key.getKind() == BPlusTree.Key.OTHER) return null;
+        List<Long> ids = new ArrayList<>();
+        if (key.getKind() == BPlusTree.Key.NUMBER) {
+            // numeric comparison against numbers; text rows compare as text, and never equal a number
+            range(BPlusTree.Key.NUMBER, key, comparator, ids);
+            if (!equality) range(BPlusTree.Key.TEXT, BPlusTree.Key.text(key.getText()), comparator, ids);
+        } else {
+            // a text value compares as text against everything, and numbers only ever equal numbers
+            if (!equality) range(BPlusTree.Key.NUMBER, null, comparator, ids);
+            range(BPlusTree.Key.TEXT, key, comparator, ids);
+        }
+        range(BPlusTree.Key.OTHER, null, comparator, ids);
+        return ids;
+    }
+
+    // Entries of one kind of key that satisfy the comparator against key, or all of them if key is null
+    private void range(byte kind, BPlusTree.Key key, String comparator, List<Long> ids) {
+        BPlusTree.Key lowest = BPlusTree.Key.lowest(kind);
+        BPlusTree.Key highest = BPlusTree.Key.highest(kind);
+        if (key == null) {
+            tree.scan(lowest, true, highest, true, ids);
+        } else if (">".equals(comparator)) {
+            tree.scan(key, false, highest, true, ids);
+        } else if (">=".equals(comparator)) {
+            tree.scan(key, true, highest, true, ids);
+        } else if ("<".equals(comparator)) {
+            tree.scan(lowest, true, key, false, ids);
+        } else if ("<=".equals(comparator)) {
+            tree.scan(lowest, true, key, true, ids);
+        } else {
+            tree.scan(key, true, key, true, ids);
+        }
+    }
+
+    private static String stripQuotes(String value) {
+        if (value != null && value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value == null ? "" : value;
+    }
+
+    // Persistence ===================================================================================
+
+    private static final class Entry {
+        final BPlusTree.Key key;
+        final long id;
+
+        Entry(BPlusTree.Key key, long id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    private void bulkLoad(List<Entry> entries) {
+        List<BPlusTree.Key> keys = new ArrayList<>(entries.size());
+        List<Long> ids = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            keys.add(entry.key);
+            ids.add(entry.id);
+        }
+        tree.bulkLoad(keys, ids);
+    }
+
+    /** The column named in an index file's header, or null if the file is not a readable index. */
+    static String readColumnName(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            return in.readUTF();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private boolean read(File file, long checkpointLsn, int rowCount) {
+        if (!file.exists()) return false;
+        try (InputStream in = new FileInputStream(file)) {
+            DataInputStream page = new DataInputStream(new ByteArrayInputStream(in.readNBytes(PAGE_SIZE)));
+            if (page.readInt() != MAGIC || page.readInt() != VERSION) return false;
+            page.readUTF();
+            if (page.readLong() != checkpointLsn || page.readInt() != rowCount) return false;
+            int leafPages = page.readInt();
+            List<Entry> entries = new ArrayList<>();
+            for (int p = 0; p < leafPages; p++) {
+                byte[] bytes = in.readNBytes(PAGE_SIZE);
+                if (bytes.length != PAGE_SIZE) return false;
+                page = new DataInputStream(new ByteArrayInputStream(bytes));
+                int count = page.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    entries.add(new Entry(BPlusTree.Key.of(page.readUTF()), page.readLong()));
+                }
+            }
+            bulkLoad(entries);
+            savedLsn = checkpointLsn;
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Save the leaf entries; only meaningful while the table is clean at {@code checkpointLsn}. */
+    public void write(File file, long checkpointLsn, int rowCount) throws IOException {
+        if (savedLsn == checkpointLsn) return;
+        List<Entry> entries = new ArrayList<>(tree.size());
+        tree.forEach((key, id) -> entries.add(new Entry(key, id)));
+
+        // Leaf pages: entry count, then (value, row id) pairs in key order
+        List<byte[]> pages = new ArrayList<>();
+        ByteArrayOutputStream leaf = new ByteArrayOutputStream(PAGE_SIZE);
+        int count = 0;
+        for (Entry entry : entries) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(entry.key.getText());
+            out.writeLong(entry.id);
+            if (bytes.size() > PAGE_SIZE - 2) throw new IOException("Index entry does not fit a page");
+            if (leaf.size() + bytes.size() > PAGE_SIZE - 2) {
+                pages.add(leafPage(count, leaf));
+                leaf.reset();
+                count = 0;
+            }
+            bytes.writeTo(leaf);
+            count++;
+        }
+        if (count > 0) pages.add(leafPage(count, leaf));
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(PAGE_SIZE);
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(MAGIC);
+        headerOut.writeInt(VERSION);
+        headerOut.writeUTF(definition.getColumnName());
+        headerOut.writeLong(checkpointLsn);
+        headerOut.writeInt(rowCount);
+        headerOut.writeInt(pages.size());
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmpFile)) {
+            out.write(Arrays.copyOf(header.toByteArray(), PAGE_SIZE));
+            for (byte[] page : pages) {
+                out.write(page);
+            }
+        }
+        if (!tmpFile.renameTo(file)) throw new IOException("Could not replace " + file);
+        savedLsn = checkpointLsn;
+    }
+
+    private static byte[] leafPage(int count, ByteArrayOutputStream entries) {
+        byte[] page = new byte[PAGE_SIZE];
+        page[0] = (byte) (count >>> 8);
+        page[1] = (byte) count;
+        System.arraycopy(entries.toByteArray(), 0, page, 2, entries.size());
+        return page;
+    }
+}
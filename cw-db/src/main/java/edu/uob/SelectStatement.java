@@ -6,11 +6,26 @@ public class SelectStatement implements SQLStatement {
     private String tableName;
     private List<String> columns;   // null 表示选择所有列
     private Condition condition;    // 可以为 null，表示没有 WHERE
+    private String groupColumn;     // null 表示没有 GROUP BY
+    private String orderColumn;     // null 表示没有 ORDER BY
+    private boolean descending;
+    private int limit;              // -1 表示没有 LIMIT
+    private int offset;
 
     public SelectStatement(String tableName, List<String> columns, Condition condition) {
+        this(tableName, columns, condition, null, null, false, -1, 0);
+    }
+
+    public SelectStatement(String tableName, List<String> columns, Condition condition, String groupColumn,
+                           String orderColumn, boolean descending, int limit, int offset) {
         this.tableName = tableName;
         this.columns = columns;
         this.condition = condition;
+        this.groupColumn = groupColumn;
+        this.orderColumn = orderColumn;
+        this.descending = descending;
+        this.limit = limit;
+        this.offset = offset;
     }
 
     public String getTableName() {
@@ -24,4 +39,39 @@ public class SelectStatement implements SQLStatement {
     public Condition getCondition() {
         return condition;
     }
+
+    public String getGroupColumn() {
+        return groupColumn;
+    }
+
+    /** GROUP BY, or aggregates in the SELECT list: one row per group instead of one per row. */
+    public boolean isAggregate() {
+        if (groupColumn != null) {
+            return true;
+        }
+        if (columns != null) {
+            for (String column : columns) {
+                if (Aggregate.parse(column) != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public String getOrderColumn() {
+        return orderColumn;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
 }
@@ -0,0 +1,485 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 非阻塞网络
+ * Network front end on a single {@link Selector} thread, so an idle connection costs a channel and two
+ * small direct buffers rather than a thread. The selector thread only accepts, reads and writes; it
+ * splits what it reads into lines and hands each command to a pool of worker threads.
+ *
+ * <p>The wire format is the one of the blocking listeners: one command per line, each response followed
+ * by a line holding just {@code END_OF_TRANSMISSION}, or {@link BinaryProtocol} frames for a client that
+ * opens with its magic byte. Commands of one connection run one at a time and
+ * in order. A worker runs a command into a {@link ResponseSpool} and queues it for the selector thread,
+ * never waiting on the client; a response that grows large is queued, and written, while the command is
+ * still producing it. When a client has more than {@code MAX_QUEUED_BYTES} of responses it has
+ * not read yet, its commands are left unanswered and unread until the selector thread has written enough.
+ */
+public class SelectorListener {
+    private static final int READ_BUFFER_BYTES = 8192;
+    private static final int WRITE_BUFFER_BYTES = 8192;
+    private static final long MAX_QUEUED_BYTES = 1 << 20;
+
+    private final DBServer server;
+    private final int maxConnections;
+    private final ExecutorService workers;
+    // Connections with output waiting, for the selector thread to start watching for OP_WRITE
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+    private int connections; // selector thread only
+
+    public SelectorListener(DBServer server, int maxConnections, int workerThreads) {
+        this.server = server;
+        this.maxConnections = maxConnections;
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+    }
+
+    public void listenOn(int portNumber) throws IOException {
+        try (Selector s = Selector.open(); ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            selector = s;
+            serverChannel.bind(new InetSocketAddress(portNumber));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("Server listening on port " + portNumber + " (selector, up to " + maxConnections + " connections)");
+            while (!Thread.interrupted()) {
+                selector.select();
+                Connection waiting;
+                while ((waiting = pendingWrites.poll()) != null) {
+                    if (waiting.key.isValid()) {
+                        waiting.key.interestOps(waiting.key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept(serverChannel);
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) connection.read();
+                            if (key.isValid() && key.isWritable()) connection.write();
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() != null) ((Connection) key.attachment()).close();
+                    }
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        if (connections >= maxConnections) {
+            try (channel) {
+                channel.write(StandardCharsets.UTF_8.encode(
+                        "[ERROR] Too many connections, try again later.\n" + DBServer.END_OF_TRANSMISSION + "\n"));
+            }
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections++;
+        System.out.println("Connection established: " + channel.getRemoteAddress());
+    }
+
+    /** One client: its session, what it has sent so far and the response bytes not yet written. */
+    private final class Connection {
+        final SocketChannel channel;
+        final Session session = new Session();
+        SelectionKey key;
+        // selector thread only
+        final ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        final ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        final CharBuffer chars = CharBuffer.allocate(READ_BUFFER_BYTES);
+        final StringBuilder line = new StringBuilder();
+        boolean negotiated;
+        boolean binary;
+        boolean binaryStarted;
+        byte[] received = new byte[READ_BUFFER_BYTES]; // binary protocol bytes not yet a whole frame
+        int receivedLength;
+        final byte[] staging = new byte[WRITE_BUFFER_BYTES];
+        boolean readPaused;
+        // worker only: the response queued while its command is still running, and how much of it queuedBytes counts
+        ResponseSpool live;
+        long liveCounted;
+        // guarded by this
+        final Queue<Command> commands = new ArrayDeque<>();
+        final Queue<ResponseSpool> outputs = new ArrayDeque<>();
+        long queuedBytes;
+        boolean running;
+        boolean endOfInput;
+        boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            out.flip();
+        }
+
+        // Split what arrived into lines; complete ones are queued as commands
+        void read() throws IOException {
+            if (backlogged()) {
+                // leave the rest in the socket until the client reads its responses
+                readPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                return;
+            }
+            if (channel.read(in) == -1) {
+                // the client sent all it will; answer what it sent, then close
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                synchronized (this) {
+                    endOfInput = true;
+                }
+                write();
+                return;
+            }
+            in.flip();
+            if (!negotiated && in.hasRemaining()) {
+                negotiated = true;
+                binary = in.get(in.position()) == BinaryProtocol.MAGIC;
+            }
+            if (binary) {
+                readFrames();
+                return;
+            }
+            // a UTF-8 byte never decodes to more than one char, so the buffer always takes all of in
+            chars.clear();
+            decoder.decode(in, chars, false);
+            in.compact();
+            chars.flip();
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c != '\n') {
+                    // the same bound as a binary COMMAND frame; a client that never ends its line is dropped
+                    if (line.length() >= BinaryProtocol.MAX_FRAME_BYTES) {
+                        throw new IOException("Command line longer than " + BinaryProtocol.MAX_FRAME_BYTES + " characters");
+                    }
+                    line.append(c);
+                    continue;
+                }
+                int end = line.length() > 0 && line.charAt(line.length() - 1) == '\r' ? line.length() - 1 : line.length();
+                submit(0, line.substring(0, end));
+                line.setLength(0);
+            }
+        }
+
+        // Binary protocol: the handshake, then one command per COMMAND frame
+        private void readFrames() throws IOException {
+            if (receivedLength + in.remaining() > received.length) {
+                received = Arrays.copyOf(received, Math.max(received.length * 2, receivedLength + in.remaining()));
+            }
+            int count = in.remaining();
+            in.get(received, receivedLength, count);
+            in.clear();
+            receivedLength += count;
+            int position = 0;
+            if (!binaryStarted) {
+                if (receivedLength < 2) return;
+                enqueue(new byte[] {BinaryProtocol.MAGIC, BinaryProtocol.VERSION});
+                if (received[1] != BinaryProtocol.VERSION) {
+                    // tell the client which version this is, then close once that is written
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    synchronized (this) {
+                        endOfInput = true;
+                    }
+                    return;
+                }
+                binaryStarted = true;
+                position = 2;
+            }
+            while (receivedLength - position >= 5) {
+                int length = ByteBuffer.wrap(received, position, 4).getInt();
+                if (length < 0 || length > BinaryProtocol.MAX_FRAME_BYTES) {
+                    throw new IOException("Frame of " + length + " bytes is too large");
+                }
+                if (receivedLength - position - 5 < length) break;
+                if (received[position + 4] != BinaryProtocol.COMMAND) {
+                    throw new IOException("Unexpected frame type " + received[position + 4]);
+                }
+                byte[] payload = Arrays.copyOfRange(received, position + 5, position + 5 + length);
+                submit(BinaryProtocol.commandTag(payload), BinaryProtocol.commandText(payload));
+                position += 5 + length;
+            }
+            System.arraycopy(received, position, received, 0, receivedLength - position);
+            receivedLength -= position;
+        }
+
+        synchronized void submit(int tag, String command) {
+            if (endOfInput) return; // the connection is being closed
+            commands.add(new Command(tag, command));
+            if (!running && queuedBytes <= MAX_QUEUED_BYTES) {
+                running = true;
+                workers.execute(this::runCommands);
+            }
+        }
+
+        // Worker: answer queued commands in order until there are none left, or until the client has
+        // fallen more than MAX_QUEUED_BYTES behind; then the selector thread starts a worker again once
+        // it has written enough. Responses of pipelined commands that were already waiting share a force.
+        void runCommands() {
+            // pool threads move between connections, so the deferral ends with this run
+            WriteAheadLog.deferForces();
+            try {
+                answerCommands();
+            } finally {
+                WriteAheadLog.stopDeferring();
+            }
+        }
+
+        private void answerCommands() {
+            List<ResponseSpool> answered = new ArrayList<>();
+            long answeredBytes = 0;
+            while (true) {
+                Command command;
+                synchronized (this) {
+                    command = closed ? null : commands.poll();
+                }
+                if (command != null) {
+                    System.out.println("Received message: " + command.text);
+                    ResponseSpool response = new ResponseSpool();
+                    response.streamAfter(DBServer.STREAM_BYTES, () -> startSending(answered, response));
+                    try {
+                        answer(command, response);
+                    } catch (IOException e) {
+                        response.finish();
+                        if (live == null) closeQuietly(response);
+                        live = null;
+                        stop(answered);
+                        return;
+                    }
+                    response.finish();
+                    if (live == null) {
+                        answered.add(response);
+                        answeredBytes += response.size();
+                    } else {
+                        synchronized (this) {
+                            queuedBytes += response.size() - liveCounted;
+                        }
+                        live = null;
+                    }
+                    boolean more;
+                    synchronized (this) {
+                        more = !commands.isEmpty() && !closed;
+                    }
+                    if (more && answeredBytes < MAX_QUEUED_BYTES) continue;
+                }
+                try {
+                    WriteAheadLog.forceDeferred();
+                } catch (IOException e) {
+                    stop(answered);
+                    return;
+                }
+                for (ResponseSpool response : answered) {
+                    enqueue(response);
+                }
+                answered.clear();
+                answeredBytes = 0;
+                synchronized (this) {
+                    if (closed || commands.isEmpty() || queuedBytes > MAX_QUEUED_BYTES) {
+                        running = false;
+                        if (endOfInput) {
+                            pendingWrites.add(this);
+                            selector.wakeup();
+                        }
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void answer(Command command, ResponseSpool response) throws IOException {
+            if (binary) {
+                server.spoolBinaryCommand(command.tag, command.text, session, response);
+                return;
+            }
+            server.spoolCommand(command.text, session, response);
+            response.write(("\n" + DBServer.END_OF_TRANSMISSION + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Worker, while a command runs: its response has grown large, so queue it with the ones before
+        // it and let the selector thread write it as it is produced
+        private void startSending(List<ResponseSpool> answered, ResponseSpool response) throws IOException {
+            WriteAheadLog.forceDeferred();
+            for (ResponseSpool earlier : answered) {
+                enqueue(earlier);
+            }
+            answered.clear();
+            liveCounted = response.size();
+            live = response;
+            enqueue(response);
+        }
+
+        // Worker: a response could not be produced or made durable, so answer nothing more; the
+        // connection closes once what is already queued has been written
+        private void stop(List<ResponseSpool> answered) {
+            for (ResponseSpool response : answered) {
+                closeQuietly(response);
+            }
+            synchronized (this) {
+                commands.clear();
+                endOfInput = true;
+                running = false;
+            }
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        // Queue a response for the selector thread; never waits, however much is queued
+        void enqueue(ResponseSpool response) {
+            response.setReadyListener(() -> {
+                pendingWrites.add(this);
+                selector.wakeup();
+            });
+            synchronized (this) {
+                if (!closed) {
+                    outputs.add(response);
+                    queuedBytes += response.size();
+                    response = null;
+                }
+            }
+            if (response != null) {
+                closeQuietly(response);
+                return;
+            }
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        void enqueue(byte[] bytes) throws IOException {
+            ResponseSpool response = new ResponseSpool();
+            response.write(bytes);
+            response.finish();
+            enqueue(response);
+        }
+
+        private synchronized boolean backlogged() {
+            return queuedBytes > MAX_QUEUED_BYTES;
+        }
+
+        // Selector thread: write as much queued output as the socket takes
+        void write() throws IOException {
+            while (true) {
+                if (!out.hasRemaining() && !refill()) {
+                    if (finished()) {
+                        close();
+                    } else {
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    }
+                    return;
+                }
+                channel.write(out);
+                if (out.hasRemaining()) return;
+            }
+        }
+
+        // Move the next queued bytes into the direct buffer; false if nothing is queued, or if the
+        // response being written is still being produced (its ready listener brings the selector back)
+        private boolean refill() throws IOException {
+            while (true) {
+                ResponseSpool next;
+                synchronized (this) {
+                    next = outputs.peek();
+                }
+                if (next == null) return false;
+                int length = next.readAvailable(staging);
+                if (length == 0) return false;
+                if (length == -1) {
+                    ResponseSpool done;
+                    synchronized (this) {
+                        done = outputs.poll();
+                    }
+                    closeQuietly(done);
+                    continue;
+                }
+                out.clear();
+                out.put(staging, 0, length);
+                out.flip();
+                written(length);
+                return true;
+            }
+        }
+
+        // Selector thread: once the client has caught up, read its commands and answer them again
+        private void written(int length) {
+            boolean caughtUp;
+            synchronized (this) {
+                queuedBytes -= length;
+                caughtUp = queuedBytes <= MAX_QUEUED_BYTES;
+                if (caughtUp && !running && !closed && !commands.isEmpty()) {
+                    running = true;
+                    workers.execute(this::runCommands);
+                }
+            }
+            if (caughtUp && readPaused) {
+                readPaused = false;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        private synchronized boolean finished() {
+            return endOfInput && !running && commands.isEmpty() && outputs.isEmpty();
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                for (ResponseSpool response : outputs) {
+                    closeQuietly(response);
+                }
+                outputs.clear();
+            }
+            connections--;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing left to do with it
+            }
+        }
+    }
+
+    private static void closeQuietly(ResponseSpool response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            // only a temporary file is left behind, and it goes at the next start
+        }
+    }
+
+    /** A command and, for the binary protocol, the tag its response carries. */
+    private static final class Command {
+        final int tag;
+        final String text;
+
+        Command(int tag, String text) {
+            this.tag = tag;
+            this.text = text;
+        }
+    }
+}
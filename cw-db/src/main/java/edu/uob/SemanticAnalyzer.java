@@ -6,6 +6,12 @@ import java.util.List;
 import java.util.Set;
 
 public class SemanticAnalyzer {
+    private final Session session;
+
+    public SemanticAnalyzer(Session session) {
+        this.session = session;
+    }
+
     /**
      * 语义分析
      * Validate the SQL statement in the context of current database state.
@@ -35,11 +41,11 @@ public class SemanticAnalyzer {
             CreateTableStatement stmt = (CreateTableStatement) statement;
             String tableName = stmt.getTableName();
             // Ensure a database is selected
-            if (DatabaseManager.getCurrentDatabase() == null) {
+            if (session.getDatabase() == null) {
                 throw new Exception(ErrorHandler.noDatabaseSelected());
             }
             // Check if table already exists
-            if (edu.uob.StorageManager.tableExists(DatabaseManager.getCurrentDatabase(), tableName)) {
+            if (edu.uob.StorageManager.tableExists(session.getDatabase(), tableName)) {
                 throw new Exception(ErrorHandler.tableAlreadyExists(tableName));
             }
             // Check for duplicate column names
@@ -62,25 +68,71 @@ public class SemanticAnalyzer {
         } else if (statement instanceof DropTableStatement) {
             DropTableStatement stmt = (DropTableStatement) statement;
             String tableName = stmt.getTableName();
-            if (DatabaseManager.getCurrentDatabase() == null) {
+            if (session.getDatabase() == null) {
+                throw new Exception(ErrorHandler.noDatabaseSelected());
+            }
+            if (!edu.uob.StorageManager.tableExists(session.getDatabase(), tableName)) {
+                throw new Exception(ErrorHandler.tableNotFound(tableName));
+            }
+        } else if (statement instanceof CreateIndexStatement) {
+            CreateIndexStatement stmt = (CreateIndexStatement) statement;
+            String tableName = stmt.getTableName();
+            if (session.getDatabase() == null) {
                 throw new Exception(ErrorHandler.noDatabaseSelected());
             }
-            if (!edu.uob.StorageManager.tableExists(DatabaseManager.getCurrentDatabase(), tableName)) {
+            if (!StorageManager.tableExists(session.getDatabase(), tableName)) {
                 throw new Exception(ErrorHandler.tableNotFound(tableName));
             }
+            if (StorageManager.indexExists(session.getDatabase(), stmt.getIndexName())) {
+                throw new Exception(ErrorHandler.indexAlreadyExists(stmt.getIndexName()));
+            }
+            boolean found = false;
+            for (ColumnDefinition col : StorageManager.readTableSchema(session.getDatabase(), tableName)) {
+                if (col.getName().equalsIgnoreCase(stmt.getColumnName())) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                throw new Exception(ErrorHandler.columnNotFound(stmt.getColumnName()));
+            }
+        } else if (statement instanceof AnalyzeStatement) {
+            AnalyzeStatement stmt = (AnalyzeStatement) statement;
+            if (session.getDatabase() == null) {
+                throw new Exception(ErrorHandler.noDatabaseSelected());
+            }
+            if (!StorageManager.tableExists(session.getDatabase(), stmt.getTableName())) {
+                throw new Exception(ErrorHandler.tableNotFound(stmt.getTableName()));
+            }
+        } else if (statement instanceof SetStatement) {
+            SetStatement stmt = (SetStatement) statement;
+            if (!Session.INDEX_SCAN.equals(stmt.getName())) {
+                throw new Exception(ErrorHandler.unknownSetting(stmt.getName()));
+            }
+            if (!"ON".equals(stmt.getValue()) && !"OFF".equals(stmt.getValue())) {
+                throw new Exception(ErrorHandler.invalidSettingValue(stmt.getName(), stmt.getValue()));
+            }
+        } else if (statement instanceof DropIndexStatement) {
+            DropIndexStatement stmt = (DropIndexStatement) statement;
+            if (session.getDatabase() == null) {
+                throw new Exception(ErrorHandler.noDatabaseSelected());
+            }
+            if (!StorageManager.indexExists(session.getDatabase(), stmt.getIndexName())) {
+                throw new Exception(ErrorHandler.indexNotFound(stmt.getIndexName()));
+            }
         } else if (statement instanceof InsertStatement) {
             InsertStatement stmt = (InsertStatement) statement;
             String tableName = stmt.getTableName();
-            if (DatabaseManager.getCurrentDatabase() == null) {
+            if (session.getDatabase() == null) {
                 throw new Exception(ErrorHandler.noDatabaseSelected());
             }
-            if (!StorageManager.tableExists(DatabaseManager.getCurrentDatabase(), tableName)) {
+            if (!StorageManager.tableExists(session.getDatabase(), tableName)) {
                 throw new Exception(ErrorHandler.tableNotFound(tableName));
             }
             // 获取用户提供的值
             List<String> values = stmt.getValues();
             // 读取表的 schema
-            List<ColumnDefinition> columns = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), tableName);
+            List<ColumnDefinition> columns = StorageManager.readTableSchema(session.getDatabase(), tableName);
             if (columns == null) {
                 throw new Exception(ErrorHandler.tableNotFound(tableName));
             }
@@ -96,30 +148,12 @@ public class SemanticAnalyzer {
                 System.err.flush();
                 throw new Exception(ErrorHandler.columnCountMismatch());
             }
-            // 检查主键唯一性
-            int pkIndex = -1;
-            for (int i = 0; i < columns.size(); i++) {
-                if (columns.get(i).isPrimaryKey()) {
-                    pkIndex = i;
-                    break;
-                }
-            }
-            if (pkIndex != -1) {
-                String newPkValue;
-                if (pkIndex == 0) {
-                    // 此时 id 是自动生成的，不需要检测唯一性，因为 QueryExecutor 会生成唯一 id
-                    newPkValue = "";
-                } else {
-                    newPkValue = values.get(pkIndex - 1); // 注意：由于 id 未提供，后续索引减 1
-                }
-                // 读取已有记录，检查主键重复（如果主键不是 id 则执行检查）
-                if (!newPkValue.isEmpty()) {
-                    List<List<String>> records = StorageManager.readTableRecords(DatabaseManager.getCurrentDatabase(), tableName);
-                    for (List<String> record : records) {
-                        if (record.size() > pkIndex && record.get(pkIndex).equals(newPkValue)) {
-                            throw new Exception(ErrorHandler.duplicatePrimaryKeyValue(newPkValue));
-                        }
-                    }
+            // 检查主键唯一性 (id 由系统序列生成，只需检查用户定义的主键列，走主键哈希索引)
+            for (int i = 1; i < columns.size(); i++) {
+                if (!columns.get(i).isPrimaryKey()) continue;
+                String newPkValue = values.get(i - 1); // 注意：由于 id 未提供，后续索引减 1
+                if (StorageManager.primaryKeyExists(session.getDatabase(), tableName, i, newPkValue)) {
+                    throw new Exception(ErrorHandler.duplicatePrimaryKeyValue(newPkValue));
                 }
             }
             // 检查类型匹配（例如 INT 类型必须为数字）
@@ -139,13 +173,13 @@ public class SemanticAnalyzer {
         } else if (statement instanceof SelectStatement) {
         SelectStatement stmt = (SelectStatement) statement;
         String tableName = stmt.getTableName();
-        if (DatabaseManager.getCurrentDatabase() == null) {
+        if (session.getDatabase() == null) {
             throw new Exception(ErrorHandler.noDatabaseSelected());
         }
-        if (!StorageManager.tableExists(DatabaseManager.getCurrentDatabase(), tableName)) {
+        if (!StorageManager.tableExists(session.getDatabase(), tableName)) {
             throw new Exception(ErrorHandler.tableNotFound(tableName));
         }
-        List<ColumnDefinition> columns = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), tableName);
+        List<ColumnDefinition> columns = StorageManager.readTableSchema(session.getDatabase(), tableName);
         if (columns == null) {
             throw new Exception(ErrorHandler.tableNotFound(tableName));
         }
@@ -154,6 +188,17 @@ public class SemanticAnalyzer {
         List<String> selectColumns = stmt.getColumns();
         if (selectColumns != null) {
             for (String colName : selectColumns) {
+                // 聚合函数检查它的参数列；其余的列在聚合查询里必须是分组列
+                Aggregate aggregate = Aggregate.parse(colName);
+                if (aggregate != null) {
+                    if (aggregate.getColumn() != null && !hasColumn(columns, aggregate.getColumn())) {
+                        throw new Exception(ErrorHandler.columnNotFound(aggregate.getColumn()));
+                    }
+                    continue;
+                }
+                if (stmt.isAggregate() && hasColumn(columns, colName) && !colName.equalsIgnoreCase(stmt.getGroupColumn())) {
+                    throw new Exception(ErrorHandler.columnNotGrouped(colName));
+                }
                 boolean found = false;
                 for (ColumnDefinition colDef : columns) {
                     if (colDef.getName().equalsIgnoreCase(colName)) {
@@ -170,17 +215,40 @@ public class SemanticAnalyzer {
         // 新的：检查 Condition
         Condition cond = stmt.getCondition();
         checkConditionColumns(cond, columns);
+
+        // GROUP BY / ORDER BY 的列必须存在
+        String groupColumn = stmt.getGroupColumn();
+        if (groupColumn != null && !hasColumn(columns, groupColumn)) {
+            throw new Exception(ErrorHandler.columnNotFound(groupColumn));
+        }
+        String orderColumn = stmt.getOrderColumn();
+        if (orderColumn != null && stmt.isAggregate() && hasColumn(columns, orderColumn)
+                && !orderColumn.equalsIgnoreCase(groupColumn)) {
+            throw new Exception(ErrorHandler.columnNotGrouped(orderColumn));
+        }
+        if (orderColumn != null) {
+            boolean found = false;
+            for (ColumnDefinition colDef : columns) {
+                if (colDef.getName().equalsIgnoreCase(orderColumn)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                throw new Exception(ErrorHandler.columnNotFound(orderColumn));
+            }
+        }
         } else if (statement instanceof UpdateStatement) {
         UpdateStatement stmt = (UpdateStatement) statement;
         String tableName = stmt.getTableName();
-        if (DatabaseManager.getCurrentDatabase() == null) {
+        if (session.getDatabase() == null) {
             throw new Exception(ErrorHandler.noDatabaseSelected());
         }
-        if (!StorageManager.tableExists(DatabaseManager.getCurrentDatabase(), tableName)) {
+        if (!StorageManager.tableExists(session.getDatabase(), tableName)) {
             throw new Exception(ErrorHandler.tableNotFound(tableName));
         }
         // 读取表的 schema
-        List<ColumnDefinition> columns = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), tableName);
+        List<ColumnDefinition> columns = StorageManager.readTableSchema(session.getDatabase(), tableName);
         if (columns == null) {
             throw new Exception(ErrorHandler.tableNotFound(tableName));
         }
@@ -194,27 +262,23 @@ public class SemanticAnalyzer {
             if (!colNames.contains(colName)) {
                 throw new Exception(ErrorHandler.columnNotFound(colName));
             }
+            // id 由系统生成，并用于在日志中定位行
+            if (colName.equalsIgnoreCase("id")) {
+                throw new Exception(ErrorHandler.idColumnImmutable());
+            }
         }
         // 检查条件中使用的列是否存在（使用辅助方法）
         Condition cond = stmt.getCondition();
         checkConditionColumns(cond, columns);
 
         // 如果正在更新主键列，确保新值不会造成重复
-        int pkIndex = -1;
-        for (int i = 0; i < columns.size(); i++) {
-            if (columns.get(i).isPrimaryKey()) {
-                pkIndex = i;
-                break;
-            }
-        }
-        if (pkIndex != -1 && stmt.getAssignments().containsKey(columns.get(pkIndex).getName())) {
-            String newPkValue = stmt.getAssignments().get(columns.get(pkIndex).getName());
-            List<List<String>> records = StorageManager.readTableRecords(DatabaseManager.getCurrentDatabase(), tableName);
-            for (List<String> record : records) {
-                if (record.size() > pkIndex && record.get(pkIndex).equals(newPkValue)) {
-                    // 如果有 WHERE 条件，可能是同一行（可选处理），此处简化处理，直接报重复错误
-                    throw new Exception(ErrorHandler.duplicatePrimaryKeyValue(newPkValue));
-                }
+        for (int i = 1; i < columns.size(); i++) {
+            String pkName = columns.get(i).getName();
+            if (!columns.get(i).isPrimaryKey() || !stmt.getAssignments().containsKey(pkName)) continue;
+            String newPkValue = stmt.getAssignments().get(pkName);
+            // 如果有 WHERE 条件，可能是同一行（可选处理），此处简化处理，直接报重复错误
+            if (StorageManager.primaryKeyExists(session.getDatabase(), tableName, i, newPkValue)) {
+                throw new Exception(ErrorHandler.duplicatePrimaryKeyValue(newPkValue));
             }
         }
         // 检查各 assignment 的类型匹配
@@ -235,13 +299,13 @@ public class SemanticAnalyzer {
         }else if (statement instanceof DeleteStatement) {
         DeleteStatement stmt = (DeleteStatement) statement;
         String tableName = stmt.getTableName();
-        if (DatabaseManager.getCurrentDatabase() == null) {
+        if (session.getDatabase() == null) {
             throw new Exception(ErrorHandler.noDatabaseSelected());
         }
-        if (!StorageManager.tableExists(DatabaseManager.getCurrentDatabase(), tableName)) {
+        if (!StorageManager.tableExists(session.getDatabase(), tableName)) {
             throw new Exception(ErrorHandler.tableNotFound(tableName));
         }
-        List<ColumnDefinition> columns = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), tableName);
+        List<ColumnDefinition> columns = StorageManager.readTableSchema(session.getDatabase(), tableName);
         if (columns == null) {
             throw new Exception(ErrorHandler.tableNotFound(tableName));
         }
@@ -253,15 +317,15 @@ public class SemanticAnalyzer {
             String table1 = stmt.getTable1();
             String table2 = stmt.getTable2();
             // 检查两个表是否存在
-            if (!StorageManager.tableExists(DatabaseManager.getCurrentDatabase(), table1)) {
+            if (!StorageManager.tableExists(session.getDatabase(), table1)) {
                 throw new Exception(ErrorHandler.tableNotFound(table1));
             }
-            if (!StorageManager.tableExists(DatabaseManager.getCurrentDatabase(), table2)) {
+            if (!StorageManager.tableExists(session.getDatabase(), table2)) {
                 throw new Exception(ErrorHandler.tableNotFound(table2));
             }
             // 检查各自表中是否包含指定的属性
-            List<ColumnDefinition> schema1 = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), table1);
-            List<ColumnDefinition> schema2 = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), table2);
+            List<ColumnDefinition> schema1 = StorageManager.readTableSchema(session.getDatabase(), table1);
+            List<ColumnDefinition> schema2 = StorageManager.readTableSchema(session.getDatabase(), table2);
             boolean foundAttr1 = false, foundAttr2 = false;
             for (ColumnDefinition col : schema1) {
                 if (col.getName().equalsIgnoreCase(stmt.getAttribute1())) {
@@ -284,13 +348,13 @@ public class SemanticAnalyzer {
         } else if (statement instanceof AlterTableStatement) {
             AlterTableStatement stmt = (AlterTableStatement) statement;
             String tableName = stmt.getTableName();
-            if (DatabaseManager.getCurrentDatabase() == null) {
+            if (session.getDatabase() == null) {
                 throw new Exception(ErrorHandler.noDatabaseSelected());
             }
-            if (!StorageManager.tableExists(DatabaseManager.getCurrentDatabase(), tableName)) {
+            if (!StorageManager.tableExists(session.getDatabase(), tableName)) {
                 throw new Exception(ErrorHandler.tableNotFound(tableName));
             }
-            List<ColumnDefinition> columns = StorageManager.readTableSchema(DatabaseManager.getCurrentDatabase(), tableName);
+            List<ColumnDefinition> columns = StorageManager.readTableSchema(session.getDatabase(), tableName);
             String attrName = stmt.getAttributeName();
             if (stmt.getAlterationType().equals("ADD")) {
                 // 检查属性是否已存在
@@ -300,6 +364,9 @@ public class SemanticAnalyzer {
                     }
                 }
             } else if (stmt.getAlterationType().equals("DROP")) {
+                if (attrName.equalsIgnoreCase("id")) {
+                    throw new Exception(ErrorHandler.idColumnImmutable());
+                }
                 // 检查属性是否存在
                 boolean found = false;
                 for (ColumnDefinition col : columns) {
@@ -315,6 +382,15 @@ public class SemanticAnalyzer {
         }
     }
 
+    private boolean hasColumn(List<ColumnDefinition> columns, String name) {
+        for (ColumnDefinition colDef : columns) {
+            if (colDef.getName().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void checkConditionColumns(Condition cond, List<ColumnDefinition> columns) throws Exception {
         if (cond == null) {
             return; // 没有 WHERE 条件，直接返回
@@ -0,0 +1,36 @@
+package edu.uob;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 会话
+ * The state of one client connection: the database chosen with USE and the options changed with SET.
+ * Each connection has its own, so one client's USE never changes the database another client works in.
+ * A session is used by one thread at a time.
+ */
+public class Session {
+    /** SET INDEX_SCAN = OFF keeps the planner away from CREATE INDEX indexes; ON (the default) allows them. */
+    public static final String INDEX_SCAN = "INDEX_SCAN";
+
+    private String database;
+    private final Map<String, String> settings = new HashMap<>();
+
+    /** The database chosen with USE, or null if there is none. */
+    public String getDatabase() {
+        return database;
+    }
+
+    public void setDatabase(String database) {
+        this.database = database;
+    }
+
+    /** A per-session option, or {@code defaultValue} if it was never set. */
+    public String getSetting(String name, String defaultValue) {
+        return settings.getOrDefault(name, defaultValue);
+    }
+
+    public void setSetting(String name, String value) {
+        settings.put(name, value);
+    }
+}
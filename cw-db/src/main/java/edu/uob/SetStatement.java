@@ -0,0 +1,20 @@
+package edu.uob;
+
+/** SET <name> = <value>: changes an option of the current session only. */
+public class SetStatement implements edu.uob.SQLStatement {
+    private final String name;
+    private final String value;
+
+    public SetStatement(String name, String value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
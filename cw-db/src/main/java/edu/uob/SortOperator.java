@@ -0,0 +1,237 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 排序算子
+ * ORDER BY on one column, in {@link Value#compareForSort} order. The sort is stable: rows with equal
+ * values keep the order the child produced them in.
+ *
+ * <p>With a LIMIT only the first {@code offset + limit} rows are ever needed, so they are kept in a
+ * bounded heap while the child is read. Otherwise rows are sorted in memory until they reach
+ * {@code -Ddb.sort.memoryBytes} (default 32 MB); beyond that each sorted run is spilled to a temporary
+ * file under {@code databases/} and the runs are merged as the result is read. The files are deleted
+ * when the operator is closed.
+ */
+public class SortOperator implements Operator {
+    private static final long MEMORY_BYTES = Long.getLong("db.sort.memoryBytes", 32L * 1024 * 1024);
+    // Larger LIMITs sort everything; a heap that big is no cheaper than a sort
+    private static final int MAX_TOP_N = 65536;
+    private static final int MAX_MERGE_RUNS = 64;
+
+    private final Operator child;
+    private final int column;
+    private final boolean descending;
+    private final long topN;
+    private final Comparator<Keyed> order;
+
+    private Iterator<List<String>> sorted;
+    // run files not deleted yet, so that close() can clean up whatever happened
+    private final List<SpillFile> runFiles = new ArrayList<>();
+    private final List<RunReader> readers = new ArrayList<>();
+
+    /** @param topN how many of the first rows will be read (offset + limit), or -1 for all of them */
+    public SortOperator(Operator child, int column, boolean descending, long topN) {
+        this.child = child;
+        this.column = column;
+        this.descending = descending;
+        this.topN = topN;
+        Comparator<Keyed> byKey = (a, b) -> a.key.compareForSort(b.key);
+        this.order = (descending ? byKey.reversed() : byKey).thenComparingLong(keyed -> keyed.seq);
+    }
+
+    @Override
+    public void open() {
+        child.open();
+        try {
+            sorted = topN >= 0 && topN <= MAX_TOP_N ? topN() : externalSort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public List<String> next() {
+        return sorted.hasNext() ? sorted.next() : null;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+        closeReaders();
+        for (SpillFile file : runFiles) {
+            file.delete();
+        }
+        runFiles.clear();
+    }
+
+    private Keyed keyed(List<String> row, long seq) {
+        Value key = column < row.size() ? Row.valueOf(row, column) : Value.of("");
+        return new Keyed(key, row, seq);
+    }
+
+    // 堆排序 keep the best topN rows seen so far; the worst of them sits at the head of the heap
+    private Iterator<List<String>> topN() {
+        PriorityQueue<Keyed> heap = new PriorityQueue<>(order.reversed());
+        long seq = 0;
+        List<String> row;
+        while ((row = child.next()) != null) {
+            Keyed keyed = keyed(row, seq++);
+            if (heap.size() < topN) {
+                heap.add(keyed);
+            } else if (!heap.isEmpty() && order.compare(keyed, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(keyed);
+            }
+        }
+        List<Keyed> best = new ArrayList<>(heap);
+        best.sort(order);
+        return rows(best);
+    }
+
+    // 外部排序 sort what fits in memory; spill sorted runs when it does not and merge them afterwards
+    private Iterator<List<String>> externalSort() throws IOException {
+        List<SpillFile> runs = new ArrayList<>();
+        List<Keyed> buffer = new ArrayList<>();
+        long bufferBytes = 0;
+        long seq = 0;
+        List<String> row;
+        while ((row = child.next()) != null) {
+            buffer.add(keyed(row, seq++));
+            bufferBytes += CachedTable.estimateRowSize(row) + 64;
+            if (bufferBytes > MEMORY_BYTES) {
+                buffer.sort(order);
+                runs.add(writeRun(rows(buffer)));
+                buffer.clear();
+                bufferBytes = 0;
+            }
+        }
+        buffer.sort(order);
+        if (runs.isEmpty()) {
+            return rows(buffer);
+        }
+        if (!buffer.isEmpty()) {
+            runs.add(writeRun(rows(buffer)));
+            buffer.clear();
+        }
+        // Too many runs to read at once: merge them in groups first, keeping them in order
+        while (runs.size() > MAX_MERGE_RUNS) {
+            List<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MAX_MERGE_RUNS) {
+                List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + MAX_MERGE_RUNS));
+                merged.add(writeRun(merge(group)));
+                closeReaders();
+                for (SpillFile done : group) {
+                    done.delete();
+                    runFiles.remove(done);
+                }
+            }
+            runs = merged;
+        }
+        return merge(runs);
+    }
+
+    private static Iterator<List<String>> rows(List<Keyed> keyed) {
+        Iterator<Keyed> it = keyed.iterator();
+        return new Iterator<List<String>>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public List<String> next() {
+                return it.next().row;
+            }
+        };
+    }
+
+    // Runs hold consecutive stretches of the input, so ties go to the earlier run
+    private Iterator<List<String>> merge(List<SpillFile> files) throws IOException {
+        PriorityQueue<RunReader> heads = new PriorityQueue<>((a, b) -> order.compare(a.head, b.head));
+        for (int i = 0; i < files.size(); i++) {
+            RunReader reader = new RunReader(files.get(i), i);
+            readers.add(reader);
+            if (reader.advance()) {
+                heads.add(reader);
+            }
+        }
+        return new Iterator<List<String>>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public List<String> next() {
+                RunReader reader = heads.poll();
+                List<String> row = reader.head.row;
+                try {
+                    if (reader.advance()) {
+                        heads.add(reader);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return row;
+            }
+        };
+    }
+
+    private void closeReaders() {
+        for (RunReader reader : readers) {
+            reader.close();
+        }
+        readers.clear();
+    }
+
+    private SpillFile writeRun(Iterator<List<String>> rows) throws IOException {
+        SpillFile file = SpillFile.create("sort");
+        runFiles.add(file);
+        try (SpillFile.Writer out = file.openWriter()) {
+            while (rows.hasNext()) {
+                out.write(rows.next());
+            }
+        }
+        return file;
+    }
+
+    private static final class Keyed {
+        final Value key;
+        final List<String> row;
+        final long seq;
+
+        Keyed(Value key, List<String> row, long seq) {
+            this.key = key;
+            this.row = row;
+            this.seq = seq;
+        }
+    }
+
+    private final class RunReader {
+        private final SpillFile.Reader in;
+        private final long run;
+        Keyed head;
+
+        RunReader(SpillFile file, long run) throws IOException {
+            this.in = file.openReader();
+            this.run = run;
+        }
+
+        boolean advance() throws IOException {
+            List<String> row = in.read();
+            head = row == null ? null : keyed(row, run);
+            return row != null;
+        }
+
+        void close() {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package edu.uob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 溢写文件
+ * Temporary rows that a query operator could not keep in memory (sorted runs, aggregation
+ * partitions). Files live under {@code databases/} and are written once, then read back once in
+ * order: for each row its value count, then each value as a byte length and UTF-8 bytes. The operator
+ * that made a file deletes it; files left behind by a crash are deleted at the next start.
+ */
+public class SpillFile {
+    public static final String EXTENSION = ".spill";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+
+    private SpillFile(File file) {
+        this.file = file;
+    }
+
+    public static SpillFile create(String prefix) throws IOException {
+        return new SpillFile(File.createTempFile(prefix, EXTENSION, new File(StorageManager.getBasePath())));
+    }
+
+    public Writer openWriter() throws IOException {
+        return new Writer(new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)));
+    }
+
+    public Reader openReader() throws IOException {
+        return new Reader(new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)));
+    }
+
+    public void delete() {
+        file.delete();
+    }
+
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        private Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void write(List<String> row) throws IOException {
+            out.writeInt(row.size());
+            for (String value : row) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        /** The next row, or null at the end of the file. */
+        public List<String> read() throws IOException {
+            int count;
+            try {
+                count = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            String[] values = new String[count];
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                values[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            List<String> row = new ArrayList<>(count);
+            Collections.addAll(row, values);
+            return row;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // only read from, nothing to lose
+            }
+        }
+    }
+}
@@ -1,32 +1,138 @@
 package edu.uob;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 public class StorageManager {
     private static final String BASE_PATH = "databases";
+    private static final String TEXT_EXTENSION = ".txt";
+    private static final int DECODED_SIZE_FACTOR = 8;
+    // Rough encoded size of a row, for guessing the row count of a table that is not resident
+    private static final int ESTIMATED_ROW_BYTES = 32;
+    private static final String CHECKPOINT_LSN = "checkpointLsn";
+    private static final String NEXT_ID = "nextId";
+    private static final List<TableStorage> STORAGES = List.of(new HeapTableStorage(), new ColumnarTableStorage());
+    // Engine used for new tables: -Ddb.storage.engine=heap (default) or columnar
+    private static final TableStorage DEFAULT_STORAGE =
+            "columnar".equalsIgnoreCase(System.getProperty("db.storage.engine")) ? STORAGES.get(1) : STORAGES.get(0);
+    private static boolean initialised = false;
+
+
+    static String getBasePath() {
+        return BASE_PATH;
+    }
+
+    /**
+     * Load the catalog and bring every database back to its last logged state by replaying the
+     * write-ahead logs on top of the table files. Safe to call more than once.
+     */
+    public static void initialise() {
+        synchronized (StorageManager.class) {
+            if (initialised) return;
+            initialised = true;
+        }
+        deleteTemporaryFiles();
+        Catalog.ensureLoaded();
+        for (String dbName : Catalog.getDatabaseNames()) {
+            recover(dbName);
+        }
+    }
+
+    // Spill and response files of queries that were running when the server stopped
+    private static void deleteTemporaryFiles() {
+        File[] leftovers = new File(BASE_PATH).listFiles((dir, name) ->
+                name.endsWith(SpillFile.EXTENSION) || name.endsWith(ResponseSpool.EXTENSION));
+        if (leftovers == null) return;
+        for (File leftover : leftovers) {
+            leftover.delete();
+        }
+    }
+
+    private static void recover(String dbName) {
+        List<WriteAheadLog.Record> records;
+        try {
+            records = WriteAheadLog.forDatabase(dbName).readAll();
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not read write-ahead log of " + dbName + ": " + e.getMessage());
+            return;
+        }
+        if (records.isEmpty()) return;
+        int replayed = 0;
+        // A heap file may already hold some changes newer than its checkpoint LSN if the server stopped
+        // half-way through a write-back, so an INSERT of a row that is already there becomes an update.
+        synchronized (BufferPool.class) {
+            for (WriteAheadLog.Record record : records) {
+                if (!Catalog.tableExists(dbName, record.getTableName())) continue; // table was dropped since
+                CachedTable table = BufferPool.get(dbName, record.getTableName());
+                if (table == null || record.getLsn() <= table.getLastLsn()) continue;
+                List<Long> rowIds = List.of(record.getRowId());
+                boolean exists = table.getIndex().getRow(record.getRowId()) != null;
+                if (record.getType() == WriteAheadLog.INSERT && !exists) {
+                    BufferPool.appendRow(table, record.getRow());
+                } else if (record.getType() == WriteAheadLog.INSERT) {
+                    applyUpdates(table, rowIds, List.of(record.getRow()));
+                } else if (record.getType() == WriteAheadLog.UPDATE) {
+                    applyUpdates(table, rowIds, List.of(record.getRow()));
+                } else if (record.getType() == WriteAheadLog.DELETE) {
+                    applyDeletes(table, rowIds);
+                }
+                table.setLastLsn(record.getLsn());
+                replayed++;
+            }
+            BufferPool.checkpoint();
+        }
+        if (replayed > 0) {
+            System.out.println("Recovered " + replayed + " logged changes in database " + dbName);
+        }
+    }
 
+    /**
+     * Throw away what is held in memory for a database, unwritten changes included, and recover it from
+     * its table files and log as a restart after a crash would.
+     */
+    static void reopenDatabase(String dbName) {
+        synchronized (BufferPool.class) {
+            BufferPool.discardDatabase(dbName);
+            WriteAheadLog.closeDatabase(dbName);
+            recover(dbName);
+        }
+    }
 
     public static boolean databaseExists(String dbName) {
-        File dbDir = new File(BASE_PATH, dbName);
-        return dbDir.exists() && dbDir.isDirectory();
+        return Catalog.databaseExists(dbName);
     }
 
 
     public static boolean createDatabase(String dbName) {
         File dbDir = new File(BASE_PATH, dbName);
         if (dbDir.exists()) return false;
-        return dbDir.mkdir();
+        if (!dbDir.mkdir()) return false;
+        Catalog.addDatabase(dbName);
+        return true;
     }
 
 
     public static boolean deleteDatabase(String dbName) {
         File dbDir = new File(BASE_PATH, dbName);
         if (!dbDir.exists() || !dbDir.isDirectory()) return false;
+        BufferPool.discardDatabase(dbName);
+        WriteAheadLog.closeDatabase(dbName);
+        Catalog.removeDatabase(dbName);
         File[] files = dbDir.listFiles();
         if (files != null) {
             for (File f : files) {
+                TableStorage storage = storageForFile(f.getName());
+                if (storage != null) storage.release(f);
                 if (!f.delete()) return false;
             }
         }
@@ -35,143 +141,578 @@ public class StorageManager {
 
 
     public static boolean tableExists(String dbName, String tableName) {
-        if (dbName == null) return false;
-        File tableFile = new File(new File(BASE_PATH, dbName), tableName + ".txt");
-        return tableFile.exists() && tableFile.isFile();
+        return Catalog.tableExists(dbName, tableName);
     }
 
 
     public static boolean createTable(String dbName, String tableName, String schemaLine) {
         if (dbName == null) return false;
-        File tableFile = new File(new File(BASE_PATH, dbName), tableName + ".txt");
+        TableStorage storage = DEFAULT_STORAGE;
+        File tableFile = new File(new File(BASE_PATH, dbName), tableName + storage.getExtension());
         if (tableFile.exists()) return false;
 
 
         String processed = schemaLine.replaceAll("\\s*,\\s*", "\t");
         String newSchema = "id\t" + processed;
+        List<ColumnDefinition> schema = parseSchemaLine(newSchema);
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tableFile))) {
-            writer.write(newSchema);
-            writer.newLine();
-            return true;
+        try {
+            // Anything already logged under this name belongs to an earlier, dropped table
+            long lsn = WriteAheadLog.forDatabase(dbName).getLastLsn();
+            storage.write(tableFile, new TableFileHeader(schema, Map.of(CHECKPOINT_LSN, lsn)), List.of());
         } catch (IOException e) {
             return false;
         }
+        Catalog.putTable(dbName, tableName, schema, storage);
+        return true;
     }
 
 
     public static boolean deleteTable(String dbName, String tableName) {
         if (dbName == null) return false;
-        File tableFile = new File(new File(BASE_PATH, dbName), tableName + ".txt");
+        File tableFile = tableFile(dbName, tableName);
+        BufferPool.discard(dbName, tableName);
+        storageFor(dbName, tableName).release(tableFile);
+        indexFile(dbName, tableName).delete();
+        statisticsFile(dbName, tableName).delete();
+        for (IndexDefinition index : Catalog.getIndexes(dbName, tableName)) {
+            secondaryIndexFile(dbName, index).delete();
+        }
+        Catalog.removeTable(dbName, tableName);
         return tableFile.exists() && tableFile.delete();
     }
 
+    static File tableFile(String dbName, String tableName) {
+        return new File(new File(BASE_PATH, dbName), tableName + storageFor(dbName, tableName).getExtension());
+    }
 
-    public static List<ColumnDefinition> readTableSchema(String dbName, String tableName) {
-        File tableFile = new File(new File(BASE_PATH, dbName), tableName + ".txt");
-        if (!tableFile.exists()) return null;
+    static File indexFile(String dbName, String tableName) {
+        return new File(new File(BASE_PATH, dbName), tableName + PrimaryKeyIndex.EXTENSION);
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(tableFile))) {
-            String schemaLine = reader.readLine();
-            if (schemaLine == null) return null;
+    static File secondaryIndexFile(String dbName, IndexDefinition index) {
+        return new File(new File(BASE_PATH, dbName),
+                index.getTableName() + "." + index.getName() + SecondaryIndex.EXTENSION);
+    }
 
-            List<ColumnDefinition> columns = new ArrayList<>();
-            String[] colDefs = schemaLine.split("\t");
+    static File statisticsFile(String dbName, String tableName) {
+        return new File(new File(BASE_PATH, dbName), tableName + TableStatistics.EXTENSION);
+    }
 
-            for (String def : colDefs) {
-                def = def.trim();
-                if (def.isEmpty()) continue;
+    private static TableStorage storageFor(String dbName, String tableName) {
+        TableStorage storage = Catalog.getStorage(dbName, tableName);
+        return storage == null ? DEFAULT_STORAGE : storage;
+    }
 
+    /** The engine whose files end like {@code fileName}, or null for files that are not tables. */
+    static TableStorage storageForFile(String fileName) {
+        for (TableStorage storage : STORAGES) {
+            if (fileName.endsWith(storage.getExtension())) return storage;
+        }
+        return null;
+    }
 
-                boolean pk = def.toUpperCase().contains("PRIMARY KEY");
-                String cleanDef = def.replaceAll("(?i)PRIMARY KEY", "").trim();
-                String[] parts = cleanDef.split("\\s+");
 
+    /** Mutable copy of the table schema from the catalog, or null if the table does not exist. */
+    public static List<ColumnDefinition> readTableSchema(String dbName, String tableName) {
+        List<ColumnDefinition> schema = Catalog.getSchema(dbName, tableName);
+        return schema == null ? null : new ArrayList<>(schema);
+    }
 
-                if (parts.length == 1) {
-                    String name = parts[0];
-                    if (name.equalsIgnoreCase("id")) {
-                        columns.add(new ColumnDefinition(name, "INT", true));
-                    } else {
-                        columns.add(new ColumnDefinition(name, "TEXT", false));
-                    }
-                } else if (parts.length >= 2) {
-                    String type = parts[1];
-                    if (parts.length > 2) {
-                        StringBuilder typeBuilder = new StringBuilder(parts[1]);
-                        for (int i = 2; i < parts.length; i++) {
-                            typeBuilder.append(" ").append(parts[i]);
-                        }
-                        type = typeBuilder.toString();
-                    }
-                    columns.add(new ColumnDefinition(parts[0], type, pk));
-                }
+    /**
+     * Open a streaming scan over a table. Resident tables are iterated in place; a table that is not
+     * resident and would not fit the buffer pool budget is read straight from its file, one row at a time.
+     */
+    public static TableCursor openScan(String dbName, String tableName) {
+        if (!Catalog.tableExists(dbName, tableName)) return TableCursor.empty();
+        if (!fitsInPool(dbName, tableName)) {
+            try {
+                TableStorage.RowSource source = storageFor(dbName, tableName).open(tableFile(dbName, tableName));
+                return new TableCursor(source, source);
+            } catch (IOException e) {
+                return TableCursor.empty();
             }
-            return columns;
-        } catch (IOException e) {
-            return null;
+        }
+        CachedTable table = BufferPool.get(dbName, tableName);
+        if (table == null) return TableCursor.empty();
+        synchronized (BufferPool.class) {
+            return new TableCursor(table.getRecords());
         }
     }
 
+    /** Number of rows in a table: exact if it is resident, otherwise guessed from the size of its file. */
+    public static long estimateRowCount(String dbName, String tableName) {
+        synchronized (BufferPool.class) {
+            if (BufferPool.isResident(dbName, tableName)) {
+                return BufferPool.get(dbName, tableName).getRecords().size();
+            }
+        }
+        return tableFile(dbName, tableName).length() / ESTIMATED_ROW_BYTES;
+    }
+
+    // Resident, or small enough to load; decoded rows take several times the bytes of their encoded form
+    static boolean fitsInPool(String dbName, String tableName) {
+        return BufferPool.isResident(dbName, tableName)
+                || tableFile(dbName, tableName).length() * DECODED_SIZE_FACTOR <= BufferPool.getMaxBytes();
+    }
+
     public static List<List<String>> readTableRecords(String dbName, String tableName) {
         List<List<String>> records = new ArrayList<>();
-        File tableFile = new File(new File(BASE_PATH, dbName), tableName + ".txt");
-        if (!tableFile.exists()) return records;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(tableFile))) {
-            reader.readLine(); // Skip schema
-            String line;
-            while ((line = reader.readLine()) != null) {
-                List<String> record = new ArrayList<>();
-                for (String part : line.split("\t")) {
-                    record.add(part.trim());
-                }
-                records.add(record);
+        CachedTable table = BufferPool.get(dbName, tableName);
+        if (table == null) return records;
+        // Hand out copies so callers can mutate rows without touching the resident table
+        synchronized (BufferPool.class) {
+            for (List<String> record : table.getRecords()) {
+                records.add(new ArrayList<>(record));
             }
-        } catch (IOException e) {
-
         }
         return records;
     }
 
 
-    public static boolean insertRow(String dbName, String tableName, String rowData) {
-        File tableFile = new File(new File(BASE_PATH, dbName), tableName + ".txt");
-        if (!tableFile.exists()) return false;
+    // Primary-key index ===============================================================================
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tableFile, true))) {
-            writer.write(rowData);
-            writer.newLine();
+    /** Whether some row already holds {@code value} in a primary-key column, compared like WHERE ==. */
+    public static boolean primaryKeyExists(String dbName, String tableName, int column, String value) {
+        synchronized (BufferPool.class) {
+            CachedTable table = BufferPool.get(dbName, tableName);
+            return table != null && table.getIndex().containsKey(column, value);
+        }
+    }
+
+    /**
+     * Rows whose primary-key column equals {@code value}, found through the index; null if that column
+     * cannot be looked up this way and the caller has to scan.
+     */
+    public static TableCursor lookup(String dbName, String tableName, int column, String value) {
+        synchronized (BufferPool.class) {
+            CachedTable table = BufferPool.get(dbName, tableName);
+            if (table == null || !table.getIndex().canLookup(column)) return null;
+            return new TableCursor(table.getIndex().lookup(column, value));
+        }
+    }
+
+    // B+-tree indexes (CREATE INDEX) =================================================================
+
+    public static boolean indexExists(String dbName, String indexName) {
+        return Catalog.getIndex(dbName, indexName) != null;
+    }
+
+    /** Build an index over the current rows and save it; the saved file is what makes it permanent. */
+    public static boolean createIndex(String dbName, String indexName, String tableName, String columnName) {
+        synchronized (BufferPool.class) {
+            if (Catalog.getIndex(dbName, indexName) != null) return false;
+            List<ColumnDefinition> schema = Catalog.getSchema(dbName, tableName);
+            CachedTable table = BufferPool.get(dbName, tableName);
+            int column = schema == null ? -1 : findColumn(schema, columnName);
+            if (table == null || column < 0) return false;
+            IndexDefinition definition = new IndexDefinition(indexName, tableName, schema.get(column).getName());
+            SecondaryIndex index = SecondaryIndex.build(definition, column, table.getRecords());
+            File file = secondaryIndexFile(dbName, definition);
+            try {
+                index.write(file, table.getLastLsn(), table.getRecords().size());
+            } catch (IOException e) {
+                file.delete();
+                return false;
+            }
+            Catalog.putIndex(dbName, definition);
+            table.addSecondaryIndex(index);
+            return true;
+        }
+    }
+
+    public static boolean dropIndex(String dbName, String indexName) {
+        synchronized (BufferPool.class) {
+            IndexDefinition definition = Catalog.getIndex(dbName, indexName);
+            if (definition == null) return false;
+            if (BufferPool.isResident(dbName, definition.getTableName())) {
+                BufferPool.get(dbName, definition.getTableName()).removeSecondaryIndex(indexName);
+            }
+            Catalog.removeIndex(dbName, indexName);
+            return secondaryIndexFile(dbName, definition).delete();
+        }
+    }
+
+    /** Compute the statistics of a table (ANALYZE), replacing any earlier ones, and save them. */
+    public static boolean analyzeTable(String dbName, String tableName) {
+        List<ColumnDefinition> schema = Catalog.getSchema(dbName, tableName);
+        if (schema == null) return false;
+        TableStatistics statistics;
+        // No write may slip in between the scan and the statistics taking over incremental updates
+        synchronized (BufferPool.class) {
+            try (TableCursor cursor = openScan(dbName, tableName)) {
+                statistics = TableStatistics.analyze(schema, cursor);
+            }
+            Catalog.putStatistics(dbName, tableName, statistics);
+        }
+        try {
+            statistics.write(statisticsFile(dbName, tableName));
             return true;
         } catch (IOException e) {
             return false;
         }
     }
 
+    /**
+     * Rows that may satisfy {@code column <comparator> value}, found through a B+-tree index and returned
+     * in table order; null if no index narrows that condition down and the caller has to scan.
+     */
+    public static TableCursor indexScan(String dbName, String tableName, int column, String comparator, String value) {
+        if (Catalog.getIndexes(dbName, tableName).isEmpty()) return null;
+        synchronized (BufferPool.class) {
+            // The index lives with the resident table, which a table too big for the pool never is
+            if (!fitsInPool(dbName, tableName)) return null;
+            CachedTable table = BufferPool.get(dbName, tableName);
+            if (table == null || !table.getIndex().hasUniqueIds()) return null;
+            SecondaryIndex index = table.getSecondaryIndex(column);
+            List<Long> ids = index == null ? null : index.candidates(comparator, value);
+            // When most rows qualify anyway, walking the row list beats fetching them one by one
+            if (ids == null || ids.size() > table.getRecords().size() / 2) return null;
+            Collections.sort(ids);
+            List<List<String>> rows = new ArrayList<>(ids.size());
+            for (long id : ids) {
+                List<String> row = table.getIndex().getRow(id);
+                if (row != null) rows.add(row);
+            }
+            return new TableCursor(rows);
+        }
+    }
 
+    private static int findColumn(List<ColumnDefinition> schema, String columnName) {
+        for (int i = 0; i < schema.size(); i++) {
+            if (schema.get(i).getName().equalsIgnoreCase(columnName)) return i;
+        }
+        return -1;
+    }
+
+    // Row changes are logged first and only then applied to the resident table ========================
+
+    /**
+     * Insert a row built from the values of the user columns; its id is taken from the table's sequence.
+     * Returns the new id, or -1 on failure.
+     */
+    public static long insertRow(String dbName, String tableName, List<String> values) {
+        synchronized (BufferPool.class) {
+            CachedTable table = BufferPool.get(dbName, tableName);
+            if (table == null) return -1;
+            List<String> row = new ArrayList<>(values.size() + 1);
+            row.add(String.valueOf(table.getNextId()));
+            row.addAll(values);
+            // a row the table file cannot hold must never reach the log, or every write-back would fail
+            if (!storageFor(dbName, tableName).canStore(row)) return -1;
+            long id = table.allocateId(); // the id checked above, inserts hold the pool lock
+            try {
+                long lsn = WriteAheadLog.forDatabase(dbName)
+                        .append(WriteAheadLog.INSERT, tableName, List.of(rowId(row)), List.of(row));
+                BufferPool.appendRow(table, row);
+                table.setLastLsn(lsn);
+                return id;
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+    }
+
+    /** Replace whole rows, matched by their id; rows must be new lists, not ones handed out by a scan. */
+    public static boolean updateRows(String dbName, String tableName, List<List<String>> rows) {
+        if (rows.isEmpty()) return true;
+        List<Long> rowIds = new ArrayList<>(rows.size());
+        for (List<String> row : rows) {
+            rowIds.add(rowId(row));
+        }
+        synchronized (BufferPool.class) {
+            CachedTable table = BufferPool.get(dbName, tableName);
+            if (table == null || !canStore(dbName, tableName, rows)) return false;
+            try {
+                long lsn = WriteAheadLog.forDatabase(dbName).append(WriteAheadLog.UPDATE, tableName, rowIds, rows);
+                applyUpdates(table, rowIds, rows);
+                table.setLastLsn(lsn);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private static boolean canStore(String dbName, String tableName, List<List<String>> rows) {
+        TableStorage storage = storageFor(dbName, tableName);
+        for (List<String> row : rows) {
+            if (!storage.canStore(row)) return false;
+        }
+        return true;
+    }
+
+    public static boolean deleteRows(String dbName, String tableName, List<Long> rowIds) {
+        if (rowIds.isEmpty()) return true;
+        synchronized (BufferPool.class) {
+            CachedTable table = BufferPool.get(dbName, tableName);
+            if (table == null) return false;
+            try {
+                long lsn = WriteAheadLog.forDatabase(dbName).append(WriteAheadLog.DELETE, tableName, rowIds, null);
+                applyDeletes(table, rowIds);
+                table.setLastLsn(lsn);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private static void applyUpdates(CachedTable table, List<Long> rowIds, List<List<String>> rows) {
+        Map<Long, List<String>> byId = new HashMap<>();
+        for (int i = 0; i < rowIds.size(); i++) {
+            byId.put(rowIds.get(i), rows.get(i));
+        }
+        BufferPool.updateRows(table, byId);
+    }
+
+    private static void applyDeletes(CachedTable table, List<Long> rowIds) {
+        BufferPool.deleteRows(table, new HashSet<>(rowIds));
+    }
+
+    /** The value of the implicit id column, which identifies a row in the write-ahead log. */
+    static long rowId(List<String> row) {
+        try {
+            return row.isEmpty() ? -1 : Long.parseLong(row.get(0));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Replace the schema and contents of a table (ALTER TABLE). The pool takes ownership of the given
+     * lists. The table file is rewritten straight away, which also supersedes its logged changes.
+     */
     public static boolean writeTableRecords(String dbName, String tableName,
                                             List<ColumnDefinition> schema, List<List<String>> records) {
-        File tableFile = new File(new File(BASE_PATH, dbName), tableName + ".txt");
-        if (!tableFile.exists()) return false;
+        synchronized (BufferPool.class) {
+            CachedTable table = BufferPool.get(dbName, tableName);
+            if (table == null || !canStore(dbName, tableName, records)) return false;
+            if (!schema.equals(Catalog.getSchema(dbName, tableName))) {
+                Catalog.putTable(dbName, tableName, schema);
+            }
+            records.replaceAll(Row::of);
+            indexFile(dbName, tableName).delete();
+            TableStatistics statistics = Catalog.getStatistics(dbName, tableName);
+            if (statistics != null) {
+                Catalog.putStatistics(dbName, tableName, statistics.forSchema(schema));
+            }
+            // Column positions moved; an index on a dropped column goes with it
+            List<SecondaryIndex> secondaryIndexes = new ArrayList<>();
+            for (IndexDefinition definition : Catalog.getIndexes(dbName, tableName)) {
+                int column = findColumn(schema, definition.getColumnName());
+                if (column < 0) {
+                    Catalog.removeIndex(dbName, definition.getName());
+                    secondaryIndexFile(dbName, definition).delete();
+                } else {
+                    secondaryIndexes.add(SecondaryIndex.build(definition, column, records));
+                }
+            }
+            BufferPool.replaceContents(table, records, PrimaryKeyIndex.build(schema, records), secondaryIndexes);
+            if (!BufferPool.flushNow(table)) return false;
+            saveIndex(table);
+            return true;
+        }
+    }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tableFile))) {
+    /** Flush every dirty resident table to disk. */
+    public static void checkpoint() {
+        BufferPool.checkpoint();
+    }
 
-            StringBuilder schemaLine = new StringBuilder();
-            for (int i = 0; i < schema.size(); i++) {
-                schemaLine.append(schema.get(i).getName());
-                if (i < schema.size() - 1) schemaLine.append("\t");
+    // Disk access below is only used by the catalog and the buffer pool on a miss / write-back =========
+
+    static CachedTable loadTable(String dbName, String tableName) {
+        File tableFile = tableFile(dbName, tableName);
+        if (!tableFile.exists()) return null;
+
+        try (TableStorage.RowSource source = storageFor(dbName, tableName).open(tableFile)) {
+            List<List<String>> records = new ArrayList<>();
+            long previousId = Long.MIN_VALUE;
+            long maxId = 0;
+            boolean ordered = true;
+            while (source.hasNext()) {
+                Row record = Row.of(source.next());
+                long id = rowId(record);
+                ordered &= id > previousId || id == -1 || previousId == -1;
+                previousId = id;
+                maxId = Math.max(maxId, id);
+                records.add(record);
+            }
+            // Rows that outgrew their heap page were moved to the end; restore insertion (id) order
+            if (!ordered) {
+                records.sort(Comparator.comparingLong(StorageManager::rowId));
             }
-            writer.write(schemaLine.toString());
-            writer.newLine();
+            long checkpointLsn = source.getHeader().getProperty(CHECKPOINT_LSN, 0);
+            // Tables written before the sequence was persisted continue from their highest id
+            long nextId = Math.max(source.getHeader().getProperty(NEXT_ID, 1), maxId + 1);
+            List<ColumnDefinition> schema = source.getHeader().getSchema();
+            PrimaryKeyIndex index = PrimaryKeyIndex.load(indexFile(dbName, tableName), schema, records, checkpointLsn);
+            List<SecondaryIndex> secondaryIndexes = new ArrayList<>();
+            for (IndexDefinition definition : Catalog.getIndexes(dbName, tableName)) {
+                int column = findColumn(schema, definition.getColumnName());
+                if (column < 0) continue;
+                secondaryIndexes.add(SecondaryIndex.load(secondaryIndexFile(dbName, definition), definition, column,
+                        records, checkpointLsn));
+            }
+            return new CachedTable(dbName, tableName, records, index, secondaryIndexes, checkpointLsn, nextId);
+        } catch (IOException | UncheckedIOException e) {
+            return null;
+        }
+    }
 
+    /** Save the indexes and statistics of a clean table so the next load can skip rebuilding them. */
+    static void saveIndex(CachedTable table) {
+        if (table.isDirty()) return;
+        try {
+            TableStatistics statistics = Catalog.getStatistics(table.getDbName(), table.getTableName());
+            if (statistics != null) {
+                statistics.write(statisticsFile(table.getDbName(), table.getTableName()));
+            }
+            table.getIndex().write(indexFile(table.getDbName(), table.getTableName()), table.getLastLsn());
+            for (SecondaryIndex secondary : table.getSecondaryIndexes()) {
+                secondary.write(secondaryIndexFile(table.getDbName(), secondary.getDefinition()),
+                        table.getLastLsn(), table.getRecords().size());
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to save index of table " + table.getTableName());
+        }
+    }
 
-            for (List<String> record : records) {
-                writer.write(String.join("\t", record));
-                writer.newLine();
+    /** Write back a table, in place when its engine supports that and only rows changed. */
+    static boolean writeTable(CachedTable table) {
+        String dbName = table.getDbName();
+        String tableName = table.getTableName();
+        List<ColumnDefinition> schema = Catalog.getSchema(dbName, tableName);
+        if (schema == null) return false;
+        TableStorage storage = storageFor(dbName, tableName);
+        File tableFile = tableFile(dbName, tableName);
+        TableFileHeader header = new TableFileHeader(schema,
+                Map.of(CHECKPOINT_LSN, table.getLastLsn(), NEXT_ID, table.getNextId()));
+        if (!table.isRewriteNeeded()) {
+            try {
+                if (storage.applyChanges(tableFile, header, table.getRecords(), table.getChangedIds())) {
+                    return true;
+                }
+            } catch (IOException e) {
+                return false;
             }
+        }
+        return writeTableFile(storage, tableFile, header, table.getRecords());
+    }
+
+    // Write to a temp file first so a crash mid-write never leaves a truncated table behind
+    private static boolean writeTableFile(TableStorage storage, File tableFile, TableFileHeader header,
+                                          List<List<String>> records) {
+        if (!tableFile.getParentFile().isDirectory()) return false;
+        File tmpFile = new File(tableFile.getPath() + ".tmp");
+        try {
+            storage.write(tmpFile, header, records);
+            if (WriteAheadLog.isFsyncEnabled()) {
+                try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+            Files.move(tmpFile.toPath(), tableFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            storage.release(tableFile);
             return true;
         } catch (IOException e) {
             return false;
         }
     }
-}
\ No newline at end of file
+
+    static List<ColumnDefinition> readTableFileSchema(File tableFile) {
+        try {
+            TableStorage storage = storageForFile(tableFile.getName());
+            return storage == null ? null : storage.readHeader(tableFile).getSchema();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Migration from the old tab-separated .txt tables =================================================
+
+    /**
+     * Convert every legacy {@code .txt} table in a database folder to the binary format. The text file
+     * is only removed once the binary copy has been written successfully.
+     */
+    static void migrateTextTables(File dbDir) {
+        File[] textFiles = dbDir.listFiles((dir, name) -> name.endsWith(TEXT_EXTENSION));
+        if (textFiles == null) return;
+        for (File textFile : textFiles) {
+            String fileName = textFile.getName();
+            String tableName = fileName.substring(0, fileName.length() - TEXT_EXTENSION.length());
+            boolean converted = false;
+            for (TableStorage storage : STORAGES) {
+                converted |= new File(dbDir, tableName + storage.getExtension()).exists();
+            }
+            if (converted) continue;
+            File tableFile = new File(dbDir, tableName + DEFAULT_STORAGE.getExtension());
+
+            List<ColumnDefinition> schema;
+            List<List<String>> records = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new FileReader(textFile))) {
+                String schemaLine = reader.readLine();
+                if (schemaLine == null) continue;
+                schema = parseSchemaLine(schemaLine);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    records.add(parseRecordLine(line));
+                }
+            } catch (IOException e) {
+                System.err.println("[ERROR] Could not read legacy table " + textFile);
+                continue;
+            }
+            if (writeTableFile(DEFAULT_STORAGE, tableFile, new TableFileHeader(schema, Map.of()), records)
+                    && textFile.delete()) {
+                System.out.println("Migrated table " + dbDir.getName() + "." + tableName + " to binary format");
+            }
+        }
+    }
+
+    static List<ColumnDefinition> parseSchemaLine(String schemaLine) {
+        List<ColumnDefinition> columns = new ArrayList<>();
+        String[] colDefs = schemaLine.split("\t");
+
+        for (String def : colDefs) {
+            def = def.trim();
+            if (def.isEmpty()) continue;
+
+
+            boolean pk = def.toUpperCase().contains("PRIMARY KEY");
+            String cleanDef = def.replaceAll("(?i)PRIMARY KEY", "").trim();
+            String[] parts = cleanDef.split("\\s+");
+
+
+            if (parts.length == 1) {
+                String name = parts[0];
+                if (name.equalsIgnoreCase("id")) {
+                    columns.add(new ColumnDefinition(name, "INT", true));
+                } else {
+                    columns.add(new ColumnDefinition(name, "TEXT", false));
+                }
+            } else if (parts.length >= 2) {
+                String type = parts[1];
+                if (parts.length > 2) {
+                    StringBuilder typeBuilder = new StringBuilder(parts[1]);
+                    for (int i = 2; i < parts.length; i++) {
+                        typeBuilder.append(" ").append(parts[i]);
+                    }
+                    type = typeBuilder.toString();
+                }
+                columns.add(new ColumnDefinition(parts[0], type, pk));
+            }
+        }
+        return columns;
+    }
+
+    static List<String> parseRecordLine(String line) {
+        List<String> record = new ArrayList<>();
+        for (String part : line.split("\t", -1)) {
+            record.add(part.trim());
+        }
+        return record;
+    }
+}
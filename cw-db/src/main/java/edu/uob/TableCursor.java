@@ -0,0 +1,92 @@
+package edu.uob;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 游标
+ * Forward-only scan over the rows of one table. Rows come either from the resident copy in the
+ * buffer pool or are decoded one row group at a time from the table file, so a scan never needs the
+ * whole table as a separate list.
+ *
+ * <p>Rows handed out are shared with the buffer pool and must be treated as read-only.
+ */
+public class TableCursor implements Iterator<List<String>>, AutoCloseable {
+    private final List<List<String>> rows;
+    private final int end;
+    private int position = 0;
+
+    private final Iterator<List<String>> source;
+    private final Closeable resource;
+
+    /** Scan over a resident table, bounded by the row count at open time. */
+    TableCursor(List<List<String>> rows) {
+        this.rows = rows;
+        this.end = rows.size();
+        this.source = null;
+        this.resource = null;
+    }
+
+    /** Scan straight from storage; the resource is closed together with the cursor. */
+    TableCursor(Iterator<List<String>> source, Closeable resource) {
+        this.rows = null;
+        this.end = 0;
+        this.source = source;
+        this.resource = resource;
+    }
+
+    static TableCursor empty() {
+        return new TableCursor(List.of());
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (source != null) {
+            return source.hasNext();
+        }
+        return position < end;
+    }
+
+    @Override
+    public List<String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (source != null) {
+            return source.next();
+        }
+        return rows.get(position++);
+    }
+
+    /**
+     * Up to {@code max} of the next rows. A resident table hands out a view of its row list rather than
+     * a copy; a file scan reads that many rows ahead.
+     */
+    public List<List<String>> nextBatch(int max) {
+        if (source == null) {
+            List<List<String>> batch = rows.subList(position, Math.min(end, position + max));
+            position += batch.size();
+            return batch;
+        }
+        List<List<String>> batch = new ArrayList<>();
+        while (batch.size() < max && source.hasNext()) {
+            batch.add(source.next());
+        }
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        if (resource != null) {
+            try {
+                resource.close();
+            } catch (IOException e) {
+                // nothing useful to do, the scan is finished anyway
+            }
+        }
+    }
+}
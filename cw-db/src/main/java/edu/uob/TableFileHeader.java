@@ -0,0 +1,64 @@
+package edu.uob;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** 表文件头 Schema and numeric properties (e.g. checkpoint LSN) stored at the start of every table file. */
+public class TableFileHeader {
+    private final List<ColumnDefinition> schema;
+    private final Map<String, Long> properties;
+
+    public TableFileHeader(List<ColumnDefinition> schema, Map<String, Long> properties) {
+        this.schema = schema;
+        this.properties = properties;
+    }
+
+    public List<ColumnDefinition> getSchema() {
+        return schema;
+    }
+
+    public Map<String, Long> getProperties() {
+        return properties;
+    }
+
+    public long getProperty(String key, long defaultValue) {
+        Long value = properties.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(schema.size());
+        for (ColumnDefinition col : schema) {
+            out.writeUTF(col.getName());
+            out.writeUTF(col.getType() == null ? "" : col.getType());
+            out.writeBoolean(col.isPrimaryKey());
+        }
+        out.writeInt(properties.size());
+        for (Map.Entry<String, Long> entry : properties.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    public static TableFileHeader read(DataInput in) throws IOException {
+        int columnCount = in.readInt();
+        List<ColumnDefinition> schema = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            String name = in.readUTF();
+            String type = in.readUTF();
+            boolean pk = in.readBoolean();
+            schema.add(new ColumnDefinition(name, type, pk));
+        }
+        int propertyCount = in.readInt();
+        Map<String, Long> properties = new LinkedHashMap<>();
+        for (int i = 0; i < propertyCount; i++) {
+            properties.put(in.readUTF(), in.readLong());
+        }
+        return new TableFileHeader(schema, properties);
+    }
+}
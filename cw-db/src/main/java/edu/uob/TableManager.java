@@ -1,7 +1,6 @@
 package edu.uob;
 
 import edu.uob.ColumnDefinition;
-import edu.uob.DatabaseManager;
 import edu.uob.ErrorHandler;
 import edu.uob.StorageManager;
 
@@ -12,7 +11,7 @@ public class TableManager {
      * 表管理
      * Create a new table file in the current database.
      */
-    public static String createTable(String tableName, List<ColumnDefinition> columns) {
+    public static String createTable(Session session, String tableName, List<ColumnDefinition> columns) {
         // Build schema line to store in file
         StringBuilder schemaLine = new StringBuilder();
         for (int i = 0; i < columns.size(); i++) {
@@ -25,7 +24,7 @@ public class TableManager {
                 schemaLine.append(", ");
             }
         }
-        boolean created = StorageManager.createTable(DatabaseManager.getCurrentDatabase(), tableName, schemaLine.toString());
+        boolean created = StorageManager.createTable(session.getDatabase(), tableName, schemaLine.toString());
         if (!created) {
             return ErrorHandler.tableAlreadyExists(tableName);
         }
@@ -35,12 +34,22 @@ public class TableManager {
     /**
      * Drop (delete) a table from the current database.
      */
-    public static String dropTable(String tableName) {
-        boolean deleted = StorageManager.deleteTable(DatabaseManager.getCurrentDatabase(), tableName);
+    public static String dropTable(Session session, String tableName) {
+        boolean deleted = StorageManager.deleteTable(session.getDatabase(), tableName);
         if (!deleted) {
             return ErrorHandler.tableNotFound(tableName);
         }
         return "";
     }
-}
 
+    /**
+     * Compute the statistics the planner estimates selectivity from (ANALYZE).
+     */
+    public static String analyzeTable(Session session, String tableName) {
+        boolean analyzed = StorageManager.analyzeTable(session.getDatabase(), tableName);
+        if (!analyzed) {
+            return ErrorHandler.generalError("Failed to analyze table " + tableName + ".");
+        }
+        return "";
+    }
+}
@@ -0,0 +1,399 @@
+package edu.uob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 统计信息
+ * What ANALYZE learns about a table, for estimating how many rows a condition keeps: the row count and,
+ * per column, the NULL count, the number of distinct values (a {@link HyperLogLog} sketch), min / max
+ * and an equi-depth histogram built from a sample of up to 10 000 values.
+ *
+ * <p>INSERT, UPDATE and DELETE keep the statistics roughly current without another ANALYZE: counts,
+ * min / max and the histogram follow every row added or removed, but min / max never shrink and neither
+ * does the distinct count, which a sketch cannot take values out of. Values are ordered as ORDER BY
+ * orders them ({@link Value#compareForSort}).
+ *
+ * <p>They are kept in the catalog and saved to {@code <table>.stats} by ANALYZE and whenever the table
+ * leaves memory clean.
+ */
+public class TableStatistics {
+    public static final String EXTENSION = ".stats";
+    private static final int MAGIC = 0x44425354; // "DBST"
+    private static final int VERSION = 1;
+    private static final int SAMPLE_SIZE = 10000;
+    private static final int BUCKETS = 32;
+
+    // Used for columns nothing is known about (never analysed, or added after the last ANALYZE)
+    private static final double DEFAULT_EQUALITY = 0.1;
+    private static final double DEFAULT_RANGE = 1.0 / 3;
+    private static final double DEFAULT_LIKE = 0.25;
+
+    private long rowCount;
+    private final List<Column> columns; // in schema order; null for a column ANALYZE has not seen
+    private boolean modified;
+
+    private TableStatistics(long rowCount, List<Column> columns) {
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+
+    /** Read every row of a table once and compute its statistics. */
+    public static TableStatistics analyze(List<ColumnDefinition> schema, Iterator<List<String>> rows) {
+        List<Column> columns = new ArrayList<>(schema.size());
+        List<List<Value>> samples = new ArrayList<>(schema.size());
+        for (ColumnDefinition definition : schema) {
+            columns.add(new Column(definition.getName()));
+            samples.add(new ArrayList<>());
+        }
+        // Reservoir sampling: every value has the same chance of ending up in the sample
+        Random random = new Random(0);
+        long count = 0;
+        while (rows.hasNext()) {
+            List<String> row = rows.next();
+            count++;
+            for (int i = 0; i < columns.size(); i++) {
+                Value value = i < row.size() ? Row.valueOf(row, i) : Value.of(null);
+                Column column = columns.get(i);
+                column.count(value);
+                if (value.getKind() == Value.Kind.NULL) continue;
+                List<Value> sample = samples.get(i);
+                if (sample.size() < SAMPLE_SIZE) {
+                    sample.add(value);
+                } else {
+                    long slot = (long) (random.nextDouble() * column.nonNullCount);
+                    if (slot < SAMPLE_SIZE) sample.set((int) slot, value);
+                }
+            }
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            columns.get(i).buildHistogram(samples.get(i));
+        }
+        TableStatistics statistics = new TableStatistics(count, columns);
+        statistics.modified = true;
+        return statistics;
+    }
+
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    /** Estimated number of distinct non-NULL values in a column, or -1 if it is unknown. */
+    public synchronized long getDistinctCount(String columnName) {
+        Column column = find(columnName);
+        return column == null ? -1 : column.distinctCount();
+    }
+
+    /**
+     * Estimated fraction (0 to 1) of the rows that satisfy {@code column <comparator> value}, following
+     * WHERE semantics only as far as a sketch and a histogram can.
+     */
+    public synchronized double selectivity(String columnName, String comparator, String value) {
+        boolean equality = "==".equals(comparator) || "=".equals(comparator);
+        Column column = find(columnName);
+        if (column == null) {
+            return defaultSelectivity(comparator);
+        }
+        long total = column.nonNullCount + column.nullCount;
+        if (total == 0) return 0;
+        double nonNull = (double) column.nonNullCount / total;
+        Value bound = Value.of(value);
+        if (equality) {
+            return column.equalFraction(bound) * nonNull + (bound.getKind() == Value.Kind.NULL
+                    ? (double) column.nullCount / total : 0);
+        } else if ("!=".equals(comparator)) {
+            return 1 - selectivity(columnName, "==", value);
+        } else if ("LIKE".equals(comparator)) {
+            return DEFAULT_LIKE * nonNull;
+        }
+        double below = column.belowFraction(bound);
+        double equal = column.equalFraction(bound);
+        double fraction;
+        if ("<".equals(comparator)) {
+            fraction = below;
+        } else if ("<=".equals(comparator)) {
+            fraction = below + equal;
+        } else if (">".equals(comparator)) {
+            fraction = 1 - below - equal;
+        } else if (">=".equals(comparator)) {
+            fraction = 1 - below;
+        } else {
+            return 0;
+        }
+        return Math.max(0, Math.min(1, fraction)) * nonNull;
+    }
+
+    /** The guess for a column nothing is known about. */
+    public static double defaultSelectivity(String comparator) {
+        if ("==".equals(comparator) || "=".equals(comparator)) return DEFAULT_EQUALITY;
+        if ("!=".equals(comparator)) return 1 - DEFAULT_EQUALITY;
+        return "LIKE".equals(comparator) ? DEFAULT_LIKE : DEFAULT_RANGE;
+    }
+
+    private Column find(String columnName) {
+        for (Column column : columns) {
+            if (column != null && column.name.equalsIgnoreCase(columnName)) return column;
+        }
+        return null;
+    }
+
+    // Maintenance ===================================================================================
+
+    synchronized void add(List<String> row) {
+        rowCount++;
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            if (column != null) column.add(i < row.size() ? Row.valueOf(row, i) : Value.of(null));
+        }
+        modified = true;
+    }
+
+    synchronized void remove(List<String> row) {
+        rowCount = Math.max(0, rowCount - 1);
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            if (column != null) column.remove(i < row.size() ? Row.valueOf(row, i) : Value.of(null));
+        }
+        modified = true;
+    }
+
+    /** The same statistics for a table whose columns changed (ALTER TABLE), matching columns by name. */
+    synchronized TableStatistics forSchema(List<ColumnDefinition> schema) {
+        List<Column> matched = new ArrayList<>(schema.size());
+        for (ColumnDefinition definition : schema) {
+            matched.add(find(definition.getName()));
+        }
+        TableStatistics statistics = new TableStatistics(rowCount, matched);
+        statistics.modified = true;
+        return statistics;
+    }
+
+    // Persistence ===================================================================================
+
+    /** The statistics saved in a file, or null if there are none or the file is not readable. */
+    public static TableStatistics read(File file) {
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            long rowCount = in.readLong();
+            int columnCount = in.readInt();
+            List<Column> columns = new ArrayList<>(columnCount);
+            for (int i = 0; i < columnCount; i++) {
+                columns.add(in.readBoolean() ? Column.read(in) : null);
+            }
+            return new TableStatistics(rowCount, columns);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Save the statistics unless nothing changed since they were last read or written. */
+    public synchronized void write(File file) throws IOException {
+        if (!modified) return;
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(rowCount);
+            out.writeInt(columns.size());
+            for (Column column : columns) {
+                out.writeBoolean(column != null);
+                if (column != null) column.write(out);
+            }
+        }
+        if (!tmpFile.renameTo(file)) throw new IOException("Could not replace " + file);
+        modified = false;
+    }
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Column ========================================================================================
+
+    private static final class Column {
+        final String name;
+        long nullCount;
+        long nonNullCount;
+        HyperLogLog distinct = new HyperLogLog();
+        Value min;
+        Value max;
+        // Bucket i holds counts[i] values in (bounds[i - 1], bounds[i]]; the first starts at min
+        List<Value> bounds = new ArrayList<>();
+        List<Long> counts = new ArrayList<>();
+
+        Column(String name) {
+            this.name = name;
+        }
+
+        // Counting pass of ANALYZE; the histogram is built afterwards from the sample
+        void count(Value value) {
+            if (value.getKind() == Value.Kind.NULL) {
+                nullCount++;
+                return;
+            }
+            nonNullCount++;
+            distinct.add(value.getText().toLowerCase());
+            if (min == null || value.compareForSort(min) < 0) min = value;
+            if (max == null || value.compareForSort(max) > 0) max = value;
+        }
+
+        void buildHistogram(List<Value> sample) {
+            sample.sort(Value::compareForSort);
+            int buckets = Math.min(BUCKETS, sample.size());
+            int previousEnd = 0;
+            for (int i = 0; i < buckets; i++) {
+                int end = (int) ((long) (i + 1) * sample.size() / buckets);
+                Value bound = sample.get(end - 1);
+                long count = Math.round((double) nonNullCount * (end - previousEnd) / sample.size());
+                int last = bounds.size() - 1;
+                // a value filling several buckets gets one bucket of its own
+                if (last >= 0 && bounds.get(last).compareForSort(bound) == 0) {
+                    counts.set(last, counts.get(last) + count);
+                } else {
+                    bounds.add(bound);
+                    counts.add(count);
+                }
+                previousEnd = end;
+            }
+        }
+
+        void add(Value value) {
+            count(value);
+            if (value.getKind() == Value.Kind.NULL) return;
+            if (bounds.isEmpty()) {
+                bounds.add(value);
+                counts.add(1L);
+                return;
+            }
+            int bucket = bucketOf(value);
+            if (bucket == bounds.size()) {
+                // past the last bound: the last bucket grows to hold it
+                bucket--;
+                bounds.set(bucket, value);
+            }
+            counts.set(bucket, counts.get(bucket) + 1);
+        }
+
+        void remove(Value value) {
+            if (value.getKind() == Value.Kind.NULL) {
+                nullCount = Math.max(0, nullCount - 1);
+                return;
+            }
+            nonNullCount = Math.max(0, nonNullCount - 1);
+            int bucket = bucketOf(value);
+            if (bucket < bounds.size()) {
+                counts.set(bucket, Math.max(0, counts.get(bucket) - 1));
+            }
+        }
+
+        // The first bucket whose upper bound is not below the value, or bounds.size() if there is none
+        private int bucketOf(Value value) {
+            int low = 0;
+            int high = bounds.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (bounds.get(mid).compareForSort(value) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        long distinctCount() {
+            // the sketch cannot shrink, but a column never has more distinct values than values
+            return Math.min(distinct.estimate(), nonNullCount);
+        }
+
+        // Fraction of the non-NULL values equal to this one
+        double equalFraction(Value value) {
+            if (nonNullCount == 0 || value.getKind() == Value.Kind.NULL) return 0;
+            if (value.compareForSort(min) < 0 || value.compareForSort(max) > 0) return 0;
+            return 1.0 / Math.max(1, distinctCount());
+        }
+
+        // Fraction of the non-NULL values ordered before this one
+        double belowFraction(Value value) {
+            long total = 0;
+            for (long count : counts) total += count;
+            if (total == 0) return 0;
+            double below = 0;
+            for (int i = 0; i < bounds.size(); i++) {
+                Value upper = bounds.get(i);
+                if (upper.compareForSort(value) < 0) {
+                    below += counts.get(i);
+                    continue;
+                }
+                // the value falls inside this bucket: interpolate between numbers, otherwise take half
+                Value lower = i == 0 ? min : bounds.get(i - 1);
+                if (lower != null && value.compareForSort(lower) > 0) {
+                    double part = 0.5;
+                    if (lower.isNumeric() && upper.isNumeric() && value.isNumeric()
+                            && upper.getNumber() > lower.getNumber()) {
+                        part = (value.getNumber() - lower.getNumber()) / (upper.getNumber() - lower.getNumber());
+                    }
+                    below += counts.get(i) * part;
+                }
+                break;
+            }
+            return below / total;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            writeText(out, name);
+            out.writeLong(nullCount);
+            out.writeLong(nonNullCount);
+            out.write(distinct.toBytes());
+            out.writeBoolean(min != null);
+            if (min != null) {
+                writeText(out, min.getText());
+                writeText(out, max.getText());
+            }
+            out.writeInt(bounds.size());
+            for (int i = 0; i < bounds.size(); i++) {
+                writeText(out, bounds.get(i).getText());
+                out.writeLong(counts.get(i));
+            }
+        }
+
+        static Column read(DataInputStream in) throws IOException {
+            Column column = new Column(readText(in));
+            column.nullCount = in.readLong();
+            column.nonNullCount = in.readLong();
+            byte[] registers = new byte[HyperLogLog.REGISTERS];
+            in.readFully(registers);
+            column.distinct = HyperLogLog.fromBytes(registers);
+            if (in.readBoolean()) {
+                column.min = Value.of(readText(in));
+                column.max = Value.of(readText(in));
+            }
+            int buckets = in.readInt();
+            for (int i = 0; i < buckets; i++) {
+                column.bounds.add(Value.of(readText(in)));
+                column.counts.add(in.readLong());
+            }
+            return column;
+        }
+    }
+}
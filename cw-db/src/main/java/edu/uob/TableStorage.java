@@ -0,0 +1,45 @@
+package edu.uob;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 存储引擎接口
+ * On-disk format of a table. StorageManager picks the engine per table (by file extension) and
+ * delegates all file access to it; the buffer pool, catalog and write-ahead log sit above this layer.
+ */
+public interface TableStorage {
+
+    /** Forward-only row reader over a table file. */
+    interface RowSource extends Iterator<List<String>>, Closeable {
+        TableFileHeader getHeader();
+    }
+
+    /** File extension of this format, including the dot. */
+    String getExtension();
+
+    TableFileHeader readHeader(File file) throws IOException;
+
+    RowSource open(File file) throws IOException;
+
+    /** Whether this format can hold {@code row}; checked before a change is logged. */
+    boolean canStore(List<String> row);
+
+    /** Write a complete table file from scratch. */
+    void write(File file, TableFileHeader header, List<List<String>> rows) throws IOException;
+
+    /**
+     * Bring an existing file up to date with {@code rows}, touching only the rows whose ids are in
+     * {@code changedIds} (ids missing from {@code rows} were deleted). Returns false if this format
+     * cannot do that, in which case the caller rewrites the whole file with {@link #write}.
+     */
+    boolean applyChanges(File file, TableFileHeader header, List<List<String>> rows, Set<Long> changedIds)
+            throws IOException;
+
+    /** Forget any open handle / cached state for a file that is about to be replaced or deleted. */
+    void release(File file);
+}
@@ -0,0 +1,170 @@
+package edu.uob;
+
+/**
+ * 类型化的值
+ * A stored value decoded once: its text without surrounding quotes, what kind of value it is, and its
+ * number if it has one. Comparing two values never parses or throws.
+ *
+ * <p>Comparison follows WHERE semantics: two values are ordered numerically when both are numbers
+ * (anything {@link Double#parseDouble} accepts), otherwise by their text ignoring case.
+ */
+public final class Value {
+    public enum Kind { NULL, BOOLEAN, LONG, DOUBLE, TEXT }
+
+    private final Kind kind;
+    private final String text;
+    private final boolean numeric;
+    private final double number;
+    private final long longValue;
+
+    private Value(Kind kind, String text, boolean numeric, double number, long longValue) {
+        this.kind = kind;
+        this.text = text;
+        this.numeric = numeric;
+        this.number = number;
+        this.longValue = longValue;
+    }
+
+    /** Decode a value as stored in a row or written in a query. */
+    public static Value of(String raw) {
+        String text = raw;
+        if (text != null && text.length() >= 2 && text.startsWith("'") && text.endsWith("'")) {
+            text = text.substring(1, text.length() - 1);
+        }
+        if (text == null || text.equalsIgnoreCase("NULL")) {
+            return new Value(Kind.NULL, text, false, 0, 0);
+        }
+        if (text.equalsIgnoreCase("TRUE") || text.equalsIgnoreCase("FALSE")) {
+            return new Value(Kind.BOOLEAN, text, false, 0, 0);
+        }
+        int integerDigits = plainIntegerDigits(text);
+        if (integerDigits > 0 && integerDigits <= 18) {
+            long parsed = Long.parseLong(text);
+            return new Value(Kind.LONG, text, true, Double.parseDouble(text), parsed);
+        }
+        Double parsed = parseNumber(text);
+        if (parsed != null) {
+            return new Value(Kind.DOUBLE, text, true, parsed, 0);
+        }
+        return new Value(Kind.TEXT, text, false, 0, 0);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /** The value without surrounding quotes. */
+    public String getText() {
+        return text;
+    }
+
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    public double getNumber() {
+        return number;
+    }
+
+    /** The exact integer of a {@link Kind#LONG} value. */
+    public long getLong() {
+        return longValue;
+    }
+
+    /** Order as WHERE does: numerically if both are numbers, otherwise as case-insensitive text. */
+    public int compareTo(Value other) {
+        if (numeric && other.numeric) {
+            return Double.compare(number, other.number);
+        }
+        return text.compareToIgnoreCase(other.text);
+    }
+
+    /**
+     * ORDER BY order. Unlike {@link #compareTo} this is a total order, as sorting needs: NULL first,
+     * then numbers by value, then everything else as case-insensitive text.
+     */
+    public int compareForSort(Value other) {
+        int rank = sortRank() - other.sortRank();
+        if (rank != 0 || kind == Kind.NULL) {
+            return rank;
+        }
+        if (kind == Kind.LONG && other.kind == Kind.LONG) {
+            return Long.compare(longValue, other.longValue);
+        }
+        if (numeric) {
+            return Double.compare(number, other.number);
+        }
+        return text.compareToIgnoreCase(other.text);
+    }
+
+    private int sortRank() {
+        return kind == Kind.NULL ? 0 : numeric ? 1 : 2;
+    }
+
+    // Digit count of an optionally signed run of decimal digits, or 0 if the text is anything else
+    private static int plainIntegerDigits(String text) {
+        int start = text.startsWith("-") || text.startsWith("+") ? 1 : 0;
+        if (start == text.length()) return 0;
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') return 0;
+        }
+        return text.length() - start;
+    }
+
+    /**
+     * {@link Double#parseDouble}, or null where it would throw. Plain decimals are checked up front;
+     * only text that starts like a number but is not a plain decimal ("7d", "0x1p3") goes through the
+     * exception path, and that happens once per value rather than once per comparison.
+     */
+    static Double parseNumber(String text) {
+        if (isPlainDecimal(text)) {
+            return Double.parseDouble(text);
+        }
+        String trimmed = text.trim();
+        int start = trimmed.startsWith("-") || trimmed.startsWith("+") ? 1 : 0;
+        if (start == trimmed.length()) return null;
+        String unsigned = trimmed.substring(start);
+        if (unsigned.equals("NaN") || unsigned.equals("Infinity")) {
+            return Double.parseDouble(trimmed);
+        }
+        char first = unsigned.charAt(0);
+        if ((first < '0' || first > '9') && first != '.') return null;
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // [+-] digits [. digits] [(e|E) [+-] digits], with at least one mantissa digit
+    private static boolean isPlainDecimal(String text) {
+        int i = 0;
+        int n = text.length();
+        if (i < n && (text.charAt(i) == '+' || text.charAt(i) == '-')) i++;
+        int digits = 0;
+        while (i < n && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+            digits++;
+        }
+        if (i < n && text.charAt(i) == '.') {
+            i++;
+            while (i < n && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) return false;
+        if (i < n && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (text.charAt(i) == '+' || text.charAt(i) == '-')) i++;
+            int exponentDigits = 0;
+            while (i < n && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                i++;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) return false;
+        }
+        return i == n;
+    }
+}
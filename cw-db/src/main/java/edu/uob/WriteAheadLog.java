@@ -0,0 +1,354 @@
+package edu.uob;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * 预写日志
+ * Append-only log of row changes for one database ({@code databases/<db>/wal.log}). Every INSERT,
+ * UPDATE and DELETE is appended (and forced to disk unless {@code -Ddb.wal.fsync=false}) before the
+ * buffer pool is changed, so a statement costs one small sequential write instead of a table rewrite.
+ *
+ * <p>Each table file remembers the LSN it was last written at; on startup records newer than that
+ * are replayed. Once every table of the database has been checkpointed the log is truncated.
+ *
+ * <pre>
+ *   file   : MAGIC, baseLsn, record*
+ *   record : length, crc32, payload(lsn, type | flags, table, rowId, valueCount, value*)
+ * </pre>
+ *
+ * <p>The records of one statement form a batch: all but the last carry {@code CONTINUED}, and a batch
+ * whose last record did not make it to disk is dropped whole, so a statement is never half replayed.
+ * Values are an int length and UTF-8 bytes ({@code LONG_VALUES}); logs written before that flag
+ * existed hold {@code writeUTF} values and no batches, and are still read.
+ */
+public class WriteAheadLog {
+    public static final String FILE_NAME = "wal.log";
+
+    public static final byte INSERT = 1;
+    public static final byte UPDATE = 2;
+    public static final byte DELETE = 3;
+
+    private static final int CONTINUED = 0x40; // more records of the same statement follow
+    private static final int LONG_VALUES = 0x20;
+    private static final int TYPE_MASK = 0x0F;
+
+    private static final int MAGIC = 0x4442574C; // "DBWL"
+    private static final int HEADER_SIZE = 12;
+    private static final boolean FSYNC = Boolean.parseBoolean(System.getProperty("db.wal.fsync", "true"));
+
+    private static final Map<String, WriteAheadLog> logs = new HashMap<>();
+
+    // 组提交 a thread that answers pipelined commands appends without forcing, and the records are forced
+    // together just before any response goes out (see forceDeferred)
+    private static final ThreadLocal<Boolean> deferring = ThreadLocal.withInitial(() -> false);
+
+    /** One logged row change. UPDATE and INSERT carry the full new row, DELETE only the row id. */
+    public static class Record {
+        private final long lsn;
+        private final byte type;
+        private final String tableName;
+        private final long rowId;
+        private final List<String> row;
+
+        public Record(long lsn, byte type, String tableName, long rowId, List<String> row) {
+            this.lsn = lsn;
+            this.type = type;
+            this.tableName = tableName;
+            this.rowId = rowId;
+            this.row = row;
+        }
+
+        public long getLsn() {
+            return lsn;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public long getRowId() {
+            return rowId;
+        }
+
+        public List<String> getRow() {
+            return row;
+        }
+    }
+
+    private final File file;
+    private FileChannel channel;
+    private long nextLsn;
+    private final AtomicLong forcedLsn = new AtomicLong(); // every record up to this LSN is on disk
+    private final Object forceLock = new Object(); // one force at a time; appends carry on meanwhile
+
+    private WriteAheadLog(File file) {
+        this.file = file;
+    }
+
+    public static synchronized WriteAheadLog forDatabase(String dbName) throws IOException {
+        WriteAheadLog log = logs.get(dbName);
+        if (log == null) {
+            log = new WriteAheadLog(new File(new File(StorageManager.getBasePath(), dbName), FILE_NAME));
+            log.open();
+            logs.put(dbName, log);
+        }
+        return log;
+    }
+
+    /** Close the log of a database that is about to be deleted. */
+    public static synchronized void closeDatabase(String dbName) {
+        WriteAheadLog log = logs.remove(dbName);
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    public static boolean isFsyncEnabled() {
+        return FSYNC;
+    }
+
+    public static synchronized List<String> getOpenDatabases() {
+        return new ArrayList<>(logs.keySet());
+    }
+
+    // Open the file, dropping any torn record left at the end by a crash
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE) {
+            writeHeader(1);
+            nextLsn = 1;
+            forcedLsn.set(0);
+            return;
+        }
+        ScanResult scan = scan();
+        nextLsn = scan.nextLsn;
+        forcedLsn.set(nextLsn - 1);
+        if (scan.validEnd < channel.size()) {
+            channel.truncate(scan.validEnd);
+        }
+        channel.position(scan.validEnd);
+    }
+
+    // The header is rewritten in place before truncating, so a crash in between can never lose the LSN
+    // sequence; any records left behind are older than every table's checkpoint and get skipped.
+    private void writeHeader(long baseLsn) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putLong(baseLsn).flip();
+        channel.write(header, 0);
+        if (FSYNC) channel.force(false);
+        channel.truncate(HEADER_SIZE);
+        channel.position(HEADER_SIZE);
+    }
+
+    /** The LSN of the most recent record (0 if nothing was ever logged). */
+    public synchronized long getLastLsn() {
+        return nextLsn - 1;
+    }
+
+    /** Append a batch of changes with a single write and a single force; returns the LSN of the last one. */
+    public synchronized long append(byte type, String tableName, List<Long> rowIds, List<List<String>> rows)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < rowIds.size(); i++) {
+            int flags = i < rowIds.size() - 1 ? LONG_VALUES | CONTINUED : LONG_VALUES;
+            byte[] payload = encode(nextLsn++, (byte) (type | flags), tableName, rowIds.get(i), rows == null ? null : rows.get(i));
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            out.writeInt(payload.length);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        long lsn = nextLsn - 1;
+        if (!FSYNC) {
+            forcedLsn.accumulateAndGet(lsn, Math::max);
+        } else if (!deferring.get()) {
+            channel.force(false);
+            forcedLsn.accumulateAndGet(lsn, Math::max);
+        }
+        return lsn;
+    }
+
+    /**
+     * Let this thread's appends skip the force until {@link #stopDeferring()}. Whoever calls this must
+     * call {@link #forceDeferred()} before telling a client that a statement succeeded.
+     */
+    public static void deferForces() {
+        deferring.set(true);
+    }
+
+    /** Go back to forcing every append; called when the connection or worker that deferred is done. */
+    public static void stopDeferring() {
+        deferring.remove();
+    }
+
+    /**
+     * Force every log up to the last record appended when this is called. Run before any response leaves
+     * the server, so no client ever sees a change (its own or another connection's) that a crash could
+     * still lose. A force that started after that record was written covers it, so concurrent callers
+     * mostly wait for one force instead of each making their own.
+     */
+    public static void forceDeferred() throws IOException {
+        List<WriteAheadLog> open;
+        synchronized (WriteAheadLog.class) {
+            open = new ArrayList<>(logs.values());
+        }
+        for (WriteAheadLog log : open) {
+            log.forceUpTo(log.getLastLsn());
+        }
+    }
+
+    private void forceUpTo(long lsn) throws IOException {
+        if (forcedLsn.get() >= lsn) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (forcedLsn.get() >= lsn) {
+                return; // a force that started after our record covered it
+            }
+            long target = getLastLsn();
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                return; // the database was dropped
+            }
+            forcedLsn.accumulateAndGet(target, Math::max);
+        }
+    }
+
+    private static byte[] encode(long lsn, byte type, String tableName, long rowId, List<String> row) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(lsn);
+        out.writeByte(type);
+        out.writeUTF(tableName);
+        out.writeLong(rowId);
+        if (row == null) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(row.size());
+            for (String value : row) {
+                byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Every valid record currently in the log, in LSN order. */
+    public synchronized List<Record> readAll() throws IOException {
+        return scan().records;
+    }
+
+    /** Start a fresh log after a checkpoint, keeping the LSN sequence going. */
+    public synchronized void truncate() throws IOException {
+        if (channel.size() > HEADER_SIZE) {
+            writeHeader(nextLsn);
+        }
+    }
+
+    private void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // the database is being removed anyway
+        }
+    }
+
+    private static class ScanResult {
+        final List<Record> records = new ArrayList<>();
+        long validEnd = HEADER_SIZE;
+        long nextLsn = 1;
+    }
+
+    private ScanResult scan() throws IOException {
+        ScanResult result = new ScanResult();
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a write-ahead log: " + file);
+        }
+        result.nextLsn = header.getLong();
+
+        long position = HEADER_SIZE;
+        List<Record> batch = new ArrayList<>();
+        ByteBuffer frame = ByteBuffer.allocate(8);
+        while (position + 8 <= size) {
+            frame.clear();
+            channel.read(frame, position);
+            frame.flip();
+            int length = frame.getInt();
+            int checksum = frame.getInt();
+            if (length <= 0 || position + 8 + length > size) break;
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            channel.read(payload, position + 8);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != checksum) break;
+
+            byte[] bytes = payload.array();
+            batch.add(decode(bytes));
+            // LSNs of a dropped batch are not handed out again
+            result.nextLsn = Math.max(result.nextLsn, batch.get(batch.size() - 1).getLsn() + 1);
+            position += 8 + length;
+            if ((bytes[8] & CONTINUED) == 0) {
+                result.records.addAll(batch);
+                batch.clear();
+                result.validEnd = position;
+            }
+        }
+        return result;
+    }
+
+    private static Record decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long lsn = in.readLong();
+        int flags = in.readByte();
+        byte type = (byte) (flags & TYPE_MASK);
+        String tableName = in.readUTF();
+        long rowId = in.readLong();
+        int count = in.readInt();
+        List<String> row = null;
+        if (type != DELETE) {
+            row = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if ((flags & LONG_VALUES) == 0) {
+                    row.add(in.readUTF());
+                } else {
+                    byte[] utf8 = new byte[in.readInt()];
+                    in.readFully(utf8);
+                    row.add(new String(utf8, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return new Record(lsn, type, tableName, rowId, row);
+    }
+}
@@ -1,5 +1,6 @@
 package edu.uob;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -8,7 +9,22 @@ import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import edu.uob.DBServer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class ExampleDBTests {
 
@@ -103,5 +119,430 @@ public class ExampleDBTests {
         assertFalse(response.contains("[OK]"), "An attempt was made to access a non-existent table, however an [OK] tag was returned");
     }
 
+    // A primary key column other than id must reject duplicates, and equality lookups on it must find the row
+    @Test
+    public void testPrimaryKeyIsUnique() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE people (email TEXT PRIMARY KEY, name);");
+        sendCommandToServer("INSERT INTO people VALUES ('simon@uob', 'Simon');");
+        String response = sendCommandToServer("INSERT INTO people VALUES ('simon@uob', 'Other');");
+        assertTrue(response.contains("[ERROR]"), "A duplicate primary key was inserted, however an [ERROR] tag was not returned");
+        sendCommandToServer("INSERT INTO people VALUES ('chris@uob', 'Chris');");
+        response = sendCommandToServer("SELECT name FROM people WHERE email == 'chris@uob';");
+        assertTrue(response.contains("Chris"), "A row was looked up by its primary key, but it was not returned");
+        assertFalse(response.contains("Simon"), "A row was looked up by its primary key, but another row was returned as well");
+    }
+
+    // Queries on an indexed column must return the same rows as before the index existed, and keep up with changes
+    @Test
+    public void testCreateIndexQueries() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35, FALSE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Chris', 20, FALSE);");
+        String response = sendCommandToServer("CREATE INDEX markindex ON marks (mark);");
+        assertTrue(response.contains("[OK]"), "A valid CREATE INDEX was made, however an [OK] tag was not returned");
+        response = sendCommandToServer("CREATE INDEX markindex ON marks (name);");
+        assertTrue(response.contains("[ERROR]"), "An index name was used twice, however an [ERROR] tag was not returned");
+        response = sendCommandToServer("SELECT name FROM marks WHERE mark >= 55;");
+        assertTrue(response.contains("Simon") && response.contains("Sion"), "A range query on an indexed column missed rows");
+        assertFalse(response.contains("Rob") || response.contains("Chris"), "A range query on an indexed column returned too many rows");
+        sendCommandToServer("UPDATE marks SET mark = 70 WHERE name == 'Rob';");
+        sendCommandToServer("DELETE FROM marks WHERE mark == 65;");
+        response = sendCommandToServer("SELECT name FROM marks WHERE mark > 50;");
+        assertTrue(response.contains("Rob") && response.contains("Sion"), "An indexed column was updated, but the change was not found");
+        assertFalse(response.contains("Simon"), "A row was deleted, but a query on an indexed column still returned it");
+        response = sendCommandToServer("DROP INDEX markindex;");
+        assertTrue(response.contains("[OK]"), "A valid DROP INDEX was made, however an [OK] tag was not returned");
+    }
+
+    // LIMIT / OFFSET must return the requested page of rows, in the order of the full result
+    @Test
+    public void testLimitOffset() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35, FALSE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Chris', 20, FALSE);");
+        String response = sendCommandToServer("SELECT name FROM marks LIMIT 2;");
+        assertEquals("[OK] name\nSimon\nSion", response, "LIMIT 2 did not return the first two rows");
+        response = sendCommandToServer("SELECT name FROM marks WHERE mark < 60 LIMIT 1 OFFSET 1;");
+        assertEquals("[OK] name\nRob", response, "LIMIT with OFFSET did not return the right page of matching rows");
+        response = sendCommandToServer("SELECT name FROM marks LIMIT 2 OFFSET;");
+        assertTrue(response.contains("[ERROR]"), "An incomplete OFFSET was accepted, however an [ERROR] tag was not returned");
+    }
+
+    // ORDER BY must sort numbers by value and keep equal values in table order, with or without LIMIT
+    @Test
+    public void testOrderBy() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 100, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 9, FALSE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Chris', 65, FALSE);");
+        String response = sendCommandToServer("SELECT name FROM marks ORDER BY mark;");
+        assertEquals("[OK] name\nRob\nSimon\nChris\nSion", response, "ORDER BY did not sort marks numerically");
+        response = sendCommandToServer("SELECT name FROM marks ORDER BY mark DESC LIMIT 2;");
+        assertEquals("[OK] name\nSion\nSimon", response, "ORDER BY ... DESC LIMIT 2 did not return the two highest marks");
+        response = sendCommandToServer("SELECT name FROM marks ORDER BY grade;");
+        assertTrue(response.contains("[ERROR]"), "ORDER BY a non-existent column was accepted, however an [ERROR] tag was not returned");
+    }
+
+    // GROUP BY must return one row per group with its aggregates, and aggregates alone must summarise the whole table
+    @Test
+    public void testGroupByAggregates() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35, FALSE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Chris', 20, FALSE);");
+        String response = sendCommandToServer("SELECT pass, COUNT(*), SUM(mark), AVG(mark), MIN(name), MAX(mark) FROM marks GROUP BY pass;");
+        assertEquals("[OK] pass | COUNT(*) | SUM(mark) | AVG(mark) | MIN(name) | MAX(mark)\nTRUE | 2 | 120 | 60 | Simon | 65\nFALSE | 2 | 55 | 27.5 | Chris | 35",
+                response, "GROUP BY returned the wrong groups or aggregates");
+        response = sendCommandToServer("SELECT COUNT(*) FROM marks WHERE mark > 50;");
+        assertEquals("[OK] COUNT(*)\n2", response, "COUNT(*) without GROUP BY did not count the matching rows");
+        response = sendCommandToServer("SELECT name, COUNT(*) FROM marks GROUP BY pass;");
+        assertTrue(response.contains("[ERROR]"), "A column outside GROUP BY was selected, however an [ERROR] tag was not returned");
+    }
+
+    @Test
+    public void testAnalyze() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35, FALSE);");
+        assertEquals("[OK] ", sendCommandToServer("ANALYZE marks;"), "ANALYZE of an existing table failed");
+        // later writes are counted without another ANALYZE
+        sendCommandToServer("INSERT INTO marks VALUES ('Chris', 20, FALSE);");
+        TableStatistics statistics = Catalog.getStatistics(randomName, "marks");
+        assertEquals(4, statistics.getRowCount(), "The statistics did not follow an INSERT");
+        assertEquals(2, statistics.getDistinctCount("pass"), "The distinct count of a column was wrong");
+        assertEquals(0.0, statistics.selectivity("mark", ">", "100"), "A value above the maximum was estimated to match");
+        String response = sendCommandToServer("ANALYZE libraryfines;");
+        assertTrue(response.contains("[ERROR]"), "A non-existent table was analysed, however an [ERROR] tag was not returned");
+    }
+
+    @Test
+    public void testQueryPlanner() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        for (int i = 0; i < 50; i++) {
+            sendCommandToServer("INSERT INTO marks VALUES ('student" + i + "', " + i + ");");
+        }
+        sendCommandToServer("CREATE TABLE prizes (winner);");
+        sendCommandToServer("INSERT INTO prizes VALUES (3);");
+        sendCommandToServer("CREATE INDEX markIndex ON marks (mark);");
+        sendCommandToServer("ANALYZE marks;");
+        Session session = new Session();
+        session.setDatabase(randomName);
+        PhysicalPlan plan = QueryPlanner.planTable(session, "marks", new SimpleCondition("mark", ">", "45"));
+        assertEquals(PhysicalPlan.AccessPath.INDEX_SCAN, plan.getAccess().getPath(), "A selective indexed range was not read through the index");
+        plan = QueryPlanner.planTable(session, "marks", new SimpleCondition("mark", ">", "5"));
+        assertEquals(PhysicalPlan.AccessPath.FULL_SCAN, plan.getAccess().getPath(), "A range holding most rows was not scanned");
+        plan = QueryPlanner.planTable(session, "marks", new CompoundCondition(new SimpleCondition("name", "LIKE", "'student'"),
+                "AND", new SimpleCondition("id", "==", "7")));
+        assertEquals(PhysicalPlan.AccessPath.PRIMARY_KEY_LOOKUP, plan.getAccess().getPath(), "An id equality was not looked up");
+        assertEquals("(id == 7 AND name LIKE 'student')", plan.getAccess().getFilter().toString(), "The cheaper, more selective term was not evaluated first");
+        String response = sendCommandToServer("SELECT name FROM marks WHERE name LIKE 'student' AND mark > 47;");
+        assertEquals("[OK] name\nstudent48\nstudent49", response, "Reordering the WHERE terms changed the result");
+        plan = QueryPlanner.plan(session, new JoinStatement("prizes", "marks", "winner", "id"));
+        assertEquals(PhysicalPlan.JoinAlgorithm.INDEX_NESTED_LOOP, plan.getJoinAlgorithm(), "A small table was not joined through the other one's index");
+        response = sendCommandToServer("JOIN prizes AND marks ON winner AND id;");
+        assertEquals("[OK] id | marks.name | marks.mark\n1 | student2 | 2", response, "The index nested-loop join returned the wrong rows");
+        long version = Catalog.getVersion();
+        sendCommandToServer("DROP INDEX markIndex;");
+        assertTrue(Catalog.getVersion() > version, "DROP INDEX did not change the catalog version");
+        plan = QueryPlanner.planTable(session, "marks", new SimpleCondition("mark", ">", "45"));
+        assertEquals(PhysicalPlan.AccessPath.FULL_SCAN, plan.getAccess().getPath(), "The planner still used a dropped index");
+    }
+
+    // SET changes an option of one session only; INDEX_SCAN = OFF keeps that session's plans off the indexes
+    @Test
+    public void testSessionSettings() throws IOException {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        for (int i = 0; i < 50; i++) {
+            sendCommandToServer("INSERT INTO marks VALUES ('student" + i + "', " + i + ");");
+        }
+        sendCommandToServer("CREATE INDEX markIndex ON marks (mark);");
+        Session first = new Session();
+        Session second = new Session();
+        server.handleCommand("USE " + randomName + ";", new StringWriter(), first);
+        server.handleCommand("USE " + randomName + ";", new StringWriter(), second);
+        StringWriter response = new StringWriter();
+        server.handleCommand("SET index_scan = off;", response, first);
+        assertTrue(response.toString().startsWith("[OK]"), "A valid SET was made, however an [OK] tag was not returned");
+        PhysicalPlan plan = QueryPlanner.planTable(first, "marks", new SimpleCondition("mark", ">", "45"));
+        assertEquals(PhysicalPlan.AccessPath.FULL_SCAN, plan.getAccess().getPath(), "A session with INDEX_SCAN off was planned through an index");
+        plan = QueryPlanner.planTable(second, "marks", new SimpleCondition("mark", ">", "45"));
+        assertEquals(PhysicalPlan.AccessPath.INDEX_SCAN, plan.getAccess().getPath(), "SET in one session changed the plans of another");
+        response = new StringWriter();
+        server.handleCommand("SELECT name FROM marks WHERE mark > 47;", response, first);
+        assertTrue(response.toString().startsWith("[OK] name\nstudent48\nstudent49"), "A full scan returned different rows than the index would");
+        response = new StringWriter();
+        server.handleCommand("SET index_scan = maybe;", response, first);
+        assertTrue(response.toString().contains("[ERROR]"), "An invalid setting value was accepted");
+        response = new StringWriter();
+        server.handleCommand("SET colour = on;", response, first);
+        assertTrue(response.toString().contains("[ERROR]"), "An unknown setting was accepted");
+    }
+
+    // Commands from several clients at once must not lose or duplicate rows
+    @Test
+    public void testConcurrentCommands() throws InterruptedException {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        Thread[] clients = new Thread[4];
+        for (int c = 0; c < clients.length; c++) {
+            int client = c;
+            clients[c] = new Thread(() -> {
+                for (int i = 0; i < 25; i++) {
+                    server.handleCommand("INSERT INTO marks VALUES ('client" + client + "', " + i + ");");
+                    server.handleCommand("SELECT COUNT(*) FROM marks;");
+                }
+            });
+            clients[c].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        String response = sendCommandToServer("SELECT COUNT(*) FROM marks;");
+        assertEquals("[OK] COUNT(*)\n100", response, "Concurrent INSERTs lost rows");
+        response = sendCommandToServer("SELECT COUNT(*) FROM marks WHERE id > 100;");
+        assertEquals("[OK] COUNT(*)\n0", response, "Concurrent INSERTs handed out the same id twice");
+    }
+
+    // Each client session has its own current database
+    @Test
+    public void testSessionsAreIndependent() throws IOException {
+        String firstName = generateRandomName();
+        String secondName = generateRandomName();
+        Session first = new Session();
+        Session second = new Session();
+        server.handleCommand("CREATE DATABASE " + firstName + ";", new StringWriter(), first);
+        server.handleCommand("CREATE DATABASE " + secondName + ";", new StringWriter(), first);
+        server.handleCommand("USE " + firstName + ";", new StringWriter(), first);
+        server.handleCommand("CREATE TABLE marks (name);", new StringWriter(), first);
+        server.handleCommand("USE " + secondName + ";", new StringWriter(), second);
+        StringWriter response = new StringWriter();
+        server.handleCommand("SELECT * FROM marks;", response, second);
+        assertTrue(response.toString().contains("[ERROR]"), "USE in one session changed the database of another");
+        response = new StringWriter();
+        server.handleCommand("SELECT * FROM marks;", response, first);
+        assertTrue(response.toString().startsWith("[OK]"), "A session lost its database when another session used a different one");
+        response = new StringWriter();
+        server.handleCommand("SELECT * FROM marks;", response, new Session());
+        assertTrue(response.toString().contains("[ERROR]"), "A new session started with a database selected");
+    }
+
+    // Writing a response to a Writer must give exactly what handleCommand(String) returns
+    @Test
+    public void testStreamedResponseMatchesString() throws IOException {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35, FALSE);");
+        String[] commands = {"SELECT * FROM marks;", "SELECT name FROM marks WHERE mark > 100;",
+                "JOIN marks AND marks ON name AND name;", "SELECT * FROM libraryfines;"};
+        for (String command : commands) {
+            StringWriter streamed = new StringWriter();
+            server.handleCommand(command, streamed);
+            assertEquals(sendCommandToServer(command), streamed.toString(), "A streamed response differed for " + command);
+        }
+    }
+
+    // A binary protocol response decodes to typed values and renders as the text protocol response
+    @Test
+    public void testBinaryProtocol() throws IOException {
+        String randomName = generateRandomName();
+        Session session = new Session();
+        server.handleCommand("CREATE DATABASE " + randomName + ";", new StringWriter(), session);
+        server.handleCommand("USE " + randomName + ";", new StringWriter(), session);
+        server.handleCommand("CREATE TABLE marks (name, mark, pass);", new StringWriter(), session);
+        server.handleCommand("INSERT INTO marks VALUES ('Simon', 65, TRUE);", new StringWriter(), session);
+        server.handleCommand("INSERT INTO marks VALUES ('Sion', 5.5, NULL);", new StringWriter(), session);
+        String[] commands = {"SELECT * FROM marks;", "SELECT name FROM marks WHERE mark > 100;",
+                "JOIN marks AND marks ON name AND name;", "SELECT * FROM libraryfines;", "ANALYZE marks;"};
+        for (String command : commands) {
+            StringWriter text = new StringWriter();
+            server.handleCommand(command, text, session);
+            assertEquals(text.toString(), sendBinaryCommand(command, session).toString(), "A binary response differed for " + command);
+        }
+        QueryResult result = sendBinaryCommand("SELECT * FROM marks;", session);
+        assertEquals(List.of("id", "name", "mark", "pass"), result.getColumnNames());
+        assertEquals(Arrays.asList(1L, "Simon", 65L, true), result.getRows().get(0));
+        assertEquals(Arrays.asList(2L, "Sion", 5.5, null), result.getRows().get(1));
+    }
+
+    // Pipelined commands run in the order sent and each response carries its command's tag
+    @Test
+    public void testPipelinedCommandsAreTagged() throws IOException {
+        String randomName = generateRandomName();
+        Session session = new Session();
+        String[] commands = {"CREATE DATABASE " + randomName + ";", "USE " + randomName + ";",
+                "CREATE TABLE marks (name, mark);", "INSERT INTO marks VALUES ('Simon', 65);",
+                "SELECT * FROM nothing;", "INSERT INTO marks VALUES ('Rob', 35);", "SELECT name FROM marks;"};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < commands.length; i++) {
+            server.handleBinaryCommand(100 + i, commands[i], out, session);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int i = 0; i < commands.length; i++) {
+            QueryResult result = BinaryProtocol.readResult(in);
+            assertEquals(100 + i, result.getTag(), "A response carried the wrong tag");
+            assertEquals(i != 4, result.isOk(), "Unexpected status for " + commands[i]);
+        }
+        assertEquals(-1, in.read(), "More responses than commands");
+        assertEquals("[OK] name\nSimon\nRob", sendBinaryCommand("SELECT name FROM marks;", session).toString());
+    }
+
+    // Changes that only reached the write-ahead log come back after a crash, and ids carry on past them
+    @Test
+    public void testRecoveryReplaysLog() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35);");
+        sendCommandToServer("UPDATE marks SET mark = 70 WHERE name == 'Simon';");
+        sendCommandToServer("DELETE FROM marks WHERE name == 'Rob';");
+        // Drop the buffer pool's copy without writing it back, as a crash would
+        StorageManager.reopenDatabase(randomName);
+        server = new DBServer();
+        sendCommandToServer("USE " + randomName + ";");
+        String response = sendCommandToServer("SELECT * FROM marks;");
+        assertEquals("[OK] id | name | mark\n1 | Simon | 70\n2 | Sion | 55", response, "Recovery did not restore exactly the logged rows");
+        sendCommandToServer("INSERT INTO marks VALUES ('Chris', 20);");
+        response = sendCommandToServer("SELECT id FROM marks WHERE name == 'Chris';");
+        assertEquals("[OK] id\n4", response, "After recovery a new row reused the id of a deleted one");
+        // Replaying a log whose changes are already in the table must not apply them twice
+        StorageManager.reopenDatabase(randomName);
+        response = sendCommandToServer("SELECT * FROM marks;");
+        assertEquals("[OK] id | name | mark\n1 | Simon | 70\n2 | Sion | 55\n4 | Chris | 20", response, "A second recovery changed the rows");
+    }
+
+    // A statement torn off part-way through its log records is dropped whole; values have no 64 KB limit
+    @Test
+    public void testLogDropsTornStatements() throws IOException {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        String longValue = "x".repeat(70000);
+        WriteAheadLog log = WriteAheadLog.forDatabase(randomName);
+        log.append(WriteAheadLog.INSERT, "marks", List.of(1L), List.of(List.of("1", longValue)));
+        log.append(WriteAheadLog.DELETE, "marks", List.of(1L, 2L, 3L), null);
+        WriteAheadLog.closeDatabase(randomName);
+        File file = new File(new File(StorageManager.getBasePath(), randomName), WriteAheadLog.FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        List<WriteAheadLog.Record> records = WriteAheadLog.forDatabase(randomName).readAll();
+        assertEquals(1, records.size(), "Part of a statement whose last record was torn off was kept");
+        assertEquals(longValue, records.get(0).getRow().get(1), "A long value did not survive the log");
+        sendCommandToServer("DROP DATABASE " + randomName + ";");
+    }
+
+    // A row too large for a table page is refused before it is logged, so write-back never gets stuck on it
+    @Test
+    public void testOversizeRowIsRejected() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65);");
+        String oversize = "x".repeat(HeapFile.PAGE_SIZE + 100);
+        String response = sendCommandToServer("INSERT INTO marks VALUES ('" + oversize + "', 55);");
+        assertTrue(response.contains("[ERROR]"), "A row larger than a page was accepted");
+        response = sendCommandToServer("UPDATE marks SET name = '" + oversize + "' WHERE name == 'Simon';");
+        assertTrue(response.contains("[ERROR]"), "An update making a row larger than a page was accepted");
+        BufferPool.checkpoint();
+        StorageManager.reopenDatabase(randomName);
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55);");
+        response = sendCommandToServer("SELECT * FROM marks;");
+        assertEquals("[OK] id | name | mark\n1 | Simon | 65\n2 | Sion | 55", response, "A rejected row changed the table");
+    }
+
+    // Both table file formats read back the header and rows they were written with, before and after changes
+    @Test
+    public void testTableFormatsRoundTrip(@TempDir File folder) throws IOException {
+        List<ColumnDefinition> schema = List.of(new ColumnDefinition("id", "INT", true),
+                new ColumnDefinition("name", "TEXT", false), new ColumnDefinition("note", "TEXT", false));
+        TableFileHeader header = new TableFileHeader(schema, Map.of("nextId", 301L, "checkpointLsn", 7L));
+        List<List<String>> rows = new ArrayList<>();
+        for (int i = 1; i <= 300; i++) {
+            rows.add(List.of(String.valueOf(i), "student" + i, i % 7 == 0 ? "" : "Zoë's note\t" + i));
+        }
+        for (TableStorage storage : List.of(new HeapTableStorage(), new ColumnarTableStorage())) {
+            File file = new File(folder, "marks" + storage.getExtension());
+            storage.write(file, header, rows);
+            storage.release(file);
+            TableFileHeader read = storage.readHeader(file);
+            assertEquals(header.getProperties(), read.getProperties(), "A table file header lost its properties");
+            for (int i = 0; i < schema.size(); i++) {
+                assertEquals(schema.get(i).getName(), read.getSchema().get(i).getName());
+                assertEquals(schema.get(i).getType(), read.getSchema().get(i).getType());
+                assertEquals(schema.get(i).isPrimaryKey(), read.getSchema().get(i).isPrimaryKey());
+            }
+            assertEquals(rows, readTableFile(storage, file), "A " + storage.getExtension() + " file did not read back its rows");
+
+            // grow a row past its page, delete one and append one
+            List<List<String>> changed = new ArrayList<>(rows);
+            changed.set(9, List.of("10", "student10", "x".repeat(4000)));
+            changed.remove(19);
+            changed.add(List.of("301", "student301", "new"));
+            Set<Long> changedIds = Set.of(10L, 20L, 301L);
+            if (!storage.applyChanges(file, header, changed, changedIds)) {
+                storage.write(file, header, changed);
+            }
+            storage.release(file);
+            assertEquals(changed, readTableFile(storage, file), "A " + storage.getExtension() + " file did not read back its changed rows");
+        }
+    }
+
+    // Rows of a table file in id order, as the buffer pool loads them
+    private static List<List<String>> readTableFile(TableStorage storage, File file) throws IOException {
+        List<List<String>> rows = new ArrayList<>();
+        try (TableStorage.RowSource source = storage.open(file)) {
+            while (source.hasNext()) {
+                rows.add(new ArrayList<>(source.next()));
+            }
+        }
+        rows.sort(Comparator.comparingLong(StorageManager::rowId));
+        return rows;
+    }
+
+    private QueryResult sendBinaryCommand(String command, Session session) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        server.handleBinaryCommand(0, command, new DataOutputStream(bytes), session);
+        return BinaryProtocol.readResult(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
 
 }